@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "dhbw"
@@ -14,4 +15,27 @@ dependencies {
     annotationProcessor("org.projectlombok:lombok:1.18.38")
     implementation("org.slf4j:slf4j-api:2.0.17")
     implementation("org.slf4j:slf4j-simple:2.0.17")
-}
\ No newline at end of file
+    // Embedded database for JdbcCaseRepository (-Drom.jdbcUrl=jdbc:h2:./cases)
+    runtimeOnly("com.h2database:h2:2.3.232")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+// Benchmarks live in src/jmh/java and run with ./gradlew jmh (optionally -PjmhIncludes=<regex>)
+jmh {
+    jmhVersion = "1.37"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // Reports allocation per operation next to the throughput
+    profilers.add("gc")
+    // The 10M case store needs a large heap
+    jvmArgs.addAll("-Xms4g", "-Xmx24g")
+    includes.addAll(providers.gradleProperty("jmhIncludes").map { listOf(it) }.orElse(emptyList()))
+}
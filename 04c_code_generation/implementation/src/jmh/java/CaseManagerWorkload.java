@@ -0,0 +1,154 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmarks.CaseWorkload;
+
+/**
+ * Benchmark workload backed by a CaseManager filled with synthetic cases.
+ * The workload runs on a simulated date: the store is populated over the days of one reminder interval
+ * in the past, and every reminder run moves the date one day on, so that each run reminds about the
+ * same share of the open cases
+ */
+public class CaseManagerWorkload implements CaseWorkload {
+    private static final OffenseType[] OFFENSE_TYPES = OffenseType.values();
+    
+    // Offense dates are spread over the statute of limitations period
+    private static final int OFFENSE_DATE_SPREAD_DAYS = 730;
+    
+    // Every n-th case is paid in full, so closed cases are a small share of the store
+    private static final int PAID_CASE_INTERVAL = 100;
+    
+    // Upper bound on the offenders new cases are created for
+    private static final int MAX_REPEAT_OFFENDERS = 1_024;
+    
+    // As in CaseManager: the first reminder is due the day after the payment deadline, later ones every interval
+    private static final int FIRST_REMINDER_DAYS = 31;
+    private static final int REMINDER_INTERVAL_DAYS = 14;
+    
+    // Populating starts this long before the real date
+    private static final int POPULATION_AGE_DAYS = 365;
+    
+    private final CaseManager caseManager = new CaseManager();
+    private final ReportGenerator reportGenerator = new ReportGenerator(caseManager);
+    private Offender[] repeatOffenders;
+    private RegulatoryCase[] openCases;
+    private LocalDate today;
+    private long mutationCount;
+    
+    @Override
+    public void populate(int storeSize, int historyLength) {
+        LocalDate populationStart = LocalDate.now().minusDays(POPULATION_AGE_DAYS);
+        RegulatoryCase[] cases = new RegulatoryCase[storeSize];
+        repeatOffenders = new Offender[Math.min(MAX_REPEAT_OFFENDERS, Math.max(1, storeSize / historyLength))];
+        Offender offender = null;
+        
+        for (int i = 0; i < storeSize; i++) {
+            if (i % historyLength == 0) {
+                int offenderIndex = i / historyLength;
+                offender = newOffender(offenderIndex);
+                if (offenderIndex < repeatOffenders.length) {
+                    repeatOffenders[offenderIndex] = offender;
+                }
+            }
+            // Creation dates cycle through one reminder interval, so reminders fall due evenly over the days
+            setToday(populationStart.plusDays(i % REMINDER_INTERVAL_DAYS));
+            cases[i] = caseManager.createNewCase(newOffense(offender, i));
+        }
+        
+        openCases = new RegulatoryCase[storeSize - (storeSize + PAID_CASE_INTERVAL - 1) / PAID_CASE_INTERVAL];
+        int open = 0;
+        for (int i = 0; i < storeSize; i++) {
+            if (i % PAID_CASE_INTERVAL == 0) {
+                caseManager.recordPayment(cases[i], cases[i].getFine().getAmountCents());
+            } else {
+                openCases[open++] = cases[i];
+            }
+        }
+        
+        // The first reminder run falls on the day the reminders of the first day's cases become due
+        setToday(populationStart.plusDays(FIRST_REMINDER_DAYS - 1));
+        mutationCount = 0;
+    }
+    
+    @Override
+    public Object createNewCase(int index) {
+        Offender offender = repeatOffenders[index % repeatOffenders.length];
+        mutationCount++;
+        return caseManager.createNewCase(newOffense(offender, index));
+    }
+    
+    @Override
+    public Object createNewCases(int index, int batchSize) {
+        List<Offense> offenses = new ArrayList<>(batchSize);
+        for (int i = index; i < index + batchSize; i++) {
+            offenses.add(newOffense(repeatOffenders[i % repeatOffenders.length], i));
+        }
+        mutationCount += batchSize;
+        return caseManager.createNewCases(offenses);
+    }
+    
+    @Override
+    public Object recordPayment(int index) {
+        mutationCount++;
+        return caseManager.recordPayment(openCases[index % openCases.length], 1);
+    }
+    
+    @Override
+    public int processReminders() {
+        setToday(today.plusDays(1));
+        int remindersSent = caseManager.processReminders();
+        mutationCount += remindersSent;
+        return remindersSent;
+    }
+    
+    @Override
+    public long getMutationCount() {
+        return mutationCount;
+    }
+    
+    @Override
+    public List<?> getClosedCases() {
+        return caseManager.getCasesByStatus(CaseStatus.CLOSED);
+    }
+    
+    @Override
+    public String monthlyFineStatistics() {
+        return reportGenerator.generateMonthlyFineStatistics();
+    }
+    
+    @Override
+    public String paymentStatusReport() {
+        return reportGenerator.generatePaymentStatusReport();
+    }
+    
+    @Override
+    public String offenseTypeDistribution() {
+        return reportGenerator.generateOffenseTypeDistribution();
+    }
+    
+    @Override
+    public String statuteOfLimitationsReport(int warningDays) {
+        return reportGenerator.generateStatuteOfLimitationsReport(warningDays);
+    }
+    
+    private void setToday(LocalDate date) {
+        if (!date.equals(today)) {
+            today = date;
+            TimeSource.setClock(Clock.fixed(date.atStartOfDay(ZoneId.systemDefault()).toInstant(), ZoneId.systemDefault()));
+        }
+    }
+    
+    private static Offender newOffender(int index) {
+        return new Offender("Offender " + index, index + " Main Street",
+                LocalDate.of(1960, 1, 1).plusDays(index % 15_000));
+    }
+    
+    private static Offense newOffense(Offender offender, int index) {
+        return new Offense(offender, "Location " + (index % 1_000),
+                TimeSource.today().minusDays(index % OFFENSE_DATE_SPREAD_DAYS),
+                OFFENSE_TYPES[index % OFFENSE_TYPES.length]);
+    }
+}
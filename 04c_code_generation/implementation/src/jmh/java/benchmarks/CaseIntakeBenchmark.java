@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures single and batch case creation against stores of different sizes and offender history lengths.
+ * Every iteration creates a fixed number of cases, timed as a whole, and the store is populated again
+ * once the created cases have grown it by a quarter; both scores are the time to create BATCH_SIZE cases
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CaseIntakeBenchmark {
+    private static final int BATCH_SIZE = 1_000;
+    
+    @Param({"10000", "1000000", "10000000"})
+    private int storeSize;
+    
+    @Param({"1", "100", "1000"})
+    private int historyLength;
+    
+    private CaseWorkload workload;
+    private int next;
+    
+    @Setup(Level.Iteration)
+    public void populate() {
+        if (workload == null || workload.isWornOut(storeSize)) {
+            workload = null;
+            workload = CaseWorkload.create(storeSize, historyLength);
+        }
+    }
+    
+    @Benchmark
+    @Warmup(batchSize = BATCH_SIZE)
+    @Measurement(batchSize = BATCH_SIZE)
+    public Object createNewCase() {
+        return workload.createNewCase(next++);
+    }
+    
+    @Benchmark
+    public Object createNewCases() {
+        Object cases = workload.createNewCases(next, BATCH_SIZE);
+        next += BATCH_SIZE;
+        return cases;
+    }
+}
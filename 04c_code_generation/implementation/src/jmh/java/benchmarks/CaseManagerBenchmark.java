@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures payments, the reminder run and status lookups against stores of different sizes and offender
+ * history lengths. Payments and reminder runs change the store, so every iteration does a fixed amount of
+ * them, timed as a whole, and the store is populated again once they add up to a quarter of its size.
+ * The payment score is the time for PAYMENT_BATCH_SIZE payments; the reminder score is the time of one
+ * day's run, which reminds about a reminder interval's share of the open cases
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CaseManagerBenchmark {
+    private static final int PAYMENT_BATCH_SIZE = 1_000;
+    
+    @Param({"10000", "1000000", "10000000"})
+    private int storeSize;
+    
+    @Param({"1", "10", "100"})
+    private int historyLength;
+    
+    private CaseWorkload workload;
+    private int next;
+    
+    @Setup(Level.Iteration)
+    public void populate() {
+        if (workload == null || workload.isWornOut(storeSize)) {
+            workload = null;
+            workload = CaseWorkload.create(storeSize, historyLength);
+        }
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(batchSize = PAYMENT_BATCH_SIZE)
+    @Measurement(batchSize = PAYMENT_BATCH_SIZE)
+    public Object recordPayment() {
+        return workload.recordPayment(next++);
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int processReminders() {
+        return workload.processReminders();
+    }
+    
+    @Benchmark
+    public List<?> getCasesByStatus() {
+        return workload.getClosedCases();
+    }
+}
@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.util.List;
+
+/**
+ * Operations of the case management system exercised by the benchmarks.
+ * JMH only accepts benchmarks in a named package, while the application classes live in the
+ * default package and cannot be imported from here. The implementation therefore lives in the
+ * default package (CaseManagerWorkload) and is loaded once per trial through reflection;
+ * the measured calls are plain interface calls.
+ */
+public interface CaseWorkload {
+    /**
+     * Loads the workload implementation and fills a fresh case store
+     * @param storeSize The number of cases to create
+     * @param historyLength The number of cases per offender
+     * @return The populated workload
+     */
+    static CaseWorkload create(int storeSize, int historyLength) {
+        try {
+            CaseWorkload workload = (CaseWorkload) Class.forName("CaseManagerWorkload")
+                    .getDeclaredConstructor().newInstance();
+            workload.populate(storeSize, historyLength);
+            return workload;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load benchmark workload", e);
+        }
+    }
+    
+    /**
+     * Checks whether the changes the benchmark made have outgrown the store: once the cases created,
+     * payments recorded and reminders sent add up to a quarter of the store size, a fresh store should be
+     * populated, so that store size and case histories stay close to the benchmark parameters
+     * @param storeSize The number of cases the store was populated with
+     * @return true if the workload should be replaced
+     */
+    default boolean isWornOut(int storeSize) {
+        return getMutationCount() > storeSize / 4;
+    }
+    
+    /**
+     * Fills the case store; every offender gets the same number of cases
+     * @param storeSize The number of cases to create
+     * @param historyLength The number of cases per offender
+     */
+    void populate(int storeSize, int historyLength);
+    
+    /**
+     * Creates a new case for one of the offenders created by populate
+     * @param index The operation number, used to pick the offender and vary the offense
+     * @return The created case
+     */
+    Object createNewCase(int index);
+    
+    /**
+     * Creates a batch of new cases for the offenders created by populate
+     * @param index The operation number of the first case of the batch
+     * @param batchSize The number of cases
+     * @return The created cases
+     */
+    Object createNewCases(int index, int batchSize);
+    
+    /**
+     * Records a one-cent partial payment on an open case
+     * @param index The operation number, used to pick the case
+     * @return The recorded payment
+     */
+    Object recordPayment(int index);
+    
+    /**
+     * Moves the simulated date one day on and runs the reminder job
+     * @return The number of reminders sent
+     */
+    int processReminders();
+    
+    /**
+     * Gets the number of cases created, payments recorded and reminders sent since the store was populated
+     * @return The number of mutations
+     */
+    long getMutationCount();
+    
+    /**
+     * Looks up the closed cases through the status index
+     * @return The closed cases
+     */
+    List<?> getClosedCases();
+    
+    /**
+     * @return The monthly fine statistics report
+     */
+    String monthlyFineStatistics();
+    
+    /**
+     * @return The payment status report
+     */
+    String paymentStatusReport();
+    
+    /**
+     * @return The offense type distribution report
+     */
+    String offenseTypeDistribution();
+    
+    /**
+     * @param warningDays Days before expiration to include in the report
+     * @return The statute of limitations report
+     */
+    String statuteOfLimitationsReport(int warningDays);
+}
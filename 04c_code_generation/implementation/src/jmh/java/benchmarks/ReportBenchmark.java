@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures every report of the ReportGenerator against stores of different sizes and offender history lengths
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReportBenchmark {
+    private static final int WARNING_DAYS = 30;
+    
+    @Param({"10000", "1000000", "10000000"})
+    private int storeSize;
+    
+    @Param({"1", "10", "100"})
+    private int historyLength;
+    
+    private CaseWorkload workload;
+    
+    @Setup(Level.Trial)
+    public void populate() {
+        workload = CaseWorkload.create(storeSize, historyLength);
+    }
+    
+    @Benchmark
+    public String monthlyFineStatistics() {
+        return workload.monthlyFineStatistics();
+    }
+    
+    @Benchmark
+    public String paymentStatusReport() {
+        return workload.paymentStatusReport();
+    }
+    
+    @Benchmark
+    public String offenseTypeDistribution() {
+        return workload.offenseTypeDistribution();
+    }
+    
+    @Benchmark
+    public String statuteOfLimitationsReport() {
+        return workload.statuteOfLimitationsReport(WARNING_DAYS);
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Enum of the description templates used for case history entries.
+ * A template is a list of text fragments; the arguments of an action are
+ * inserted between consecutive fragments when the description is rendered.
+ * Arguments flagged in the money mask are amounts in cents and are rendered with two decimals.
+ */
+public enum ActionTemplate {
+    FREE_TEXT("", ""),
+    CASE_CREATED("Case created for ", " by ", ""),
+    FINE_CALCULATED(0b1, "Fine calculated: $", ""),
+    STATUS_CHANGED("Status changed from ", " to ", ": ", ""),
+    STATUS_CHANGED_WITH_DETAIL("Status changed from ", " to ", ": ", ": ", ""),
+    APPEAL_RECEIVED("Appeal received: ", ""),
+    APPEAL_DECISION("Appeal ", ": ", ""),
+    PAYMENT_RECEIVED(0b1, "Payment received: $", " via ", ""),
+    REMINDER_SENT("Payment reminder sent for overdue fine"),
+    CASE_CLOSED("Case closed: ", "");
+    
+    private final String[] fragments;
+    
+    // Bit i is set if argument i is an amount in cents
+    private final int moneyArguments;
+    
+    ActionTemplate(String... fragments) {
+        this(0, fragments);
+    }
+    
+    ActionTemplate(int moneyArguments, String... fragments) {
+        this.moneyArguments = moneyArguments;
+        this.fragments = fragments;
+    }
+    
+    /**
+     * Gets the number of arguments the template expects
+     * @return The argument count
+     */
+    public int getArgumentCount() {
+        return fragments.length - 1;
+    }
+    
+    /**
+     * Renders the template with the given arguments
+     * @param arguments The values to insert, one per gap between fragments
+     * @return The human-readable description
+     */
+    public String render(Object... arguments) {
+        if (fragments.length == 1) {
+            return fragments[0];
+        }
+        
+        StringBuilder sb = new StringBuilder(fragments[0]);
+        for (int i = 1; i < fragments.length; i++) {
+            Object argument = arguments[i - 1];
+            if ((moneyArguments & (1 << (i - 1))) != 0) {
+                Money.appendTo(sb, (Long) argument);
+            } else {
+                sb.append(argument);
+            }
+            sb.append(fragments[i]);
+        }
+        return sb.toString();
+    }
+}
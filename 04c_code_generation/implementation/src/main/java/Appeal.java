@@ -1,11 +1,12 @@
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 /**
  * Represents an appeal against a regulatory fine
@@ -13,12 +14,14 @@ import lombok.RequiredArgsConstructor;
 @Data
 @RequiredArgsConstructor
 public class Appeal {
-    private final String id = UUID.randomUUID().toString();
+    @Setter(AccessLevel.PACKAGE)
+    private String id = Ids.next();
     
     @NonNull
     private String reason;
     
-    private final LocalDate filingDate = LocalDate.now();
+    @Setter(AccessLevel.PACKAGE)
+    private LocalDate filingDate = TimeSource.today();
     
     private LocalDate decisionDate;
     
@@ -40,7 +43,7 @@ public class Appeal {
         this.approved = approved;
         this.decisionReason = reason;
         this.reviewedBy = reviewerName;
-        this.decisionDate = LocalDate.now();
+        this.decisionDate = TimeSource.today();
     }
     
     /**
@@ -0,0 +1,236 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reconciles bank statements with the open fines in a single pass over the statement file.
+ * <p>
+ * The statement is a CSV or TSV file (see DelimitedText) with a header naming at least the columns
+ * reference (the bank's transaction reference), amount and remittance (the payer's remittance
+ * information); other columns are ignored. Each credit line is matched to a case through the
+ * CaseManager's hash indexes: a transaction reference that has already been recorded marks a line
+ * reconciled before, otherwise the first word of the remittance information that is a case ID, or
+ * the reference of an earlier payment, identifies the case. Matched lines are recorded as bank
+ * transfers in batches; lines that cannot be matched, including lines whose case is archived before
+ * their batch is recorded, are written to a report file for manual review.
+ */
+@Slf4j
+public class BankStatementReconciler {
+    private static final int BATCH_SIZE = 512;
+
+    private static final String REFERENCE_COLUMN = "reference";
+    private static final String AMOUNT_COLUMN = "amount";
+    private static final String REMITTANCE_COLUMN = "remittance";
+
+    private final CaseManager caseManager;
+
+    /**
+     * Creates a reconciler
+     * @param caseManager The case manager holding the cases to reconcile against
+     */
+    public BankStatementReconciler(CaseManager caseManager) {
+        this.caseManager = caseManager;
+    }
+
+    /**
+     * Reconciles all lines of a statement file
+     * @param statementFile The bank statement
+     * @param unmatchedLinesFile The report of unmatched lines; only created if a line is unmatched
+     * @return The reconciliation counters
+     * @throws IOException if a file cannot be read or written, or the header lacks a required column
+     */
+    public ReconciliationResult reconcile(Path statementFile, Path unmatchedLinesFile) throws IOException {
+        long startTime = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(statementFile, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IOException(statementFile + " is empty");
+            }
+            char delimiter = DelimitedText.delimiterOf(header);
+            Map<String, Integer> columns = DelimitedText.columnsOf(header, delimiter,
+                    REFERENCE_COLUMN, AMOUNT_COLUMN, REMITTANCE_COLUMN);
+            int referenceIndex = columns.get(REFERENCE_COLUMN);
+            int amountIndex = columns.get(AMOUNT_COLUMN);
+            int remittanceIndex = columns.get(REMITTANCE_COLUMN);
+            int minimumFieldCount = Math.max(referenceIndex, Math.max(amountIndex, remittanceIndex)) + 1;
+
+            long lines = 0;
+            long duplicates = 0;
+
+            try (RejectedRows unmatchedLines = new RejectedRows(unmatchedLinesFile, header, delimiter)) {
+                Batch batch = new Batch(unmatchedLines);
+                long lineNumber = 1;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    lines++;
+
+                    String reference;
+                    long amountCents;
+                    String remittance;
+                    try {
+                        List<String> fields = DelimitedText.split(line, delimiter);
+                        if (fields.size() < minimumFieldCount) {
+                            throw new IllegalArgumentException("expected at least " + minimumFieldCount
+                                    + " fields but found " + fields.size());
+                        }
+                        reference = fields.get(referenceIndex).trim();
+                        amountCents = Money.parse(fields.get(amountIndex).trim());
+                        remittance = fields.get(remittanceIndex);
+                    } catch (RuntimeException e) {
+                        unmatchedLines.write(line, "line " + lineNumber + ": " + e.getMessage());
+                        continue;
+                    }
+
+                    if (!reference.isEmpty() && (batch.references.contains(reference)
+                            || caseManager.getCaseByPaymentReference(reference) != null)) {
+                        duplicates++;
+                        continue;
+                    }
+                    if (amountCents <= 0) {
+                        unmatchedLines.write(line, "line " + lineNumber + ": not a credit");
+                        continue;
+                    }
+
+                    RegulatoryCase regulatoryCase = findCase(remittance);
+                    if (regulatoryCase == null) {
+                        unmatchedLines.write(line, "line " + lineNumber + ": no case found");
+                        continue;
+                    }
+                    if (regulatoryCase.getStatus() == CaseStatus.CLOSED) {
+                        unmatchedLines.write(line, "line " + lineNumber + ": case "
+                                + regulatoryCase.getCaseId() + " is closed");
+                        continue;
+                    }
+
+                    Payment payment = new Payment(amountCents, PaymentMethod.BANK_TRANSFER);
+                    payment.setReferenceNumber(reference.isEmpty() ? null : reference);
+                    batch.add(regulatoryCase, payment, line, lineNumber);
+                    if (batch.size() == BATCH_SIZE) {
+                        batch.apply();
+                    }
+                }
+                batch.apply();
+
+                ReconciliationResult result = new ReconciliationResult(lines, batch.appliedPayments,
+                        batch.appliedCents, duplicates, unmatchedLines.getCount(), System.nanoTime() - startTime);
+                log.info("Reconciled {}: {}", statementFile, result);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Finds the case a payment is meant for from the payer's remittance information
+     * @param remittance The remittance information
+     * @return The first case identified by a word of the remittance information, or null
+     */
+    private RegulatoryCase findCase(String remittance) {
+        for (String word : remittance.split("[\\s,;:/]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            RegulatoryCase regulatoryCase = caseManager.getCaseById(word);
+            if (regulatoryCase == null) {
+                regulatoryCase = caseManager.getCaseByPaymentReference(word);
+            }
+            if (regulatoryCase != null) {
+                return regulatoryCase;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Payments matched but not yet recorded, with their transaction references
+     * so that a reference repeated within the batch is recognized as a duplicate,
+     * and their statement lines, which are reported as unmatched if the payment is not recorded
+     */
+    private class Batch {
+        final RejectedRows unmatchedLines;
+        final List<RegulatoryCase> cases = new ArrayList<>(BATCH_SIZE);
+        final List<Payment> payments = new ArrayList<>(BATCH_SIZE);
+        final List<String> lines = new ArrayList<>(BATCH_SIZE);
+        final List<Long> lineNumbers = new ArrayList<>(BATCH_SIZE);
+        final Set<String> references = new HashSet<>();
+        long appliedPayments;
+        long appliedCents;
+
+        Batch(RejectedRows unmatchedLines) {
+            this.unmatchedLines = unmatchedLines;
+        }
+
+        void add(RegulatoryCase regulatoryCase, Payment payment, String line, long lineNumber) {
+            cases.add(regulatoryCase);
+            payments.add(payment);
+            lines.add(line);
+            lineNumbers.add(lineNumber);
+            if (payment.getReferenceNumber() != null) {
+                references.add(payment.getReferenceNumber());
+            }
+        }
+
+        int size() {
+            return payments.size();
+        }
+
+        void apply() {
+            if (payments.isEmpty()) {
+                return;
+            }
+            BitSet skipped = caseManager.recordPayments(cases, payments);
+            for (int i = 0; i < payments.size(); i++) {
+                if (skipped.get(i)) {
+                    unmatchedLines.write(lines.get(i), "line " + lineNumbers.get(i) + ": case "
+                            + cases.get(i).getCaseId() + " is archived");
+                } else {
+                    appliedPayments++;
+                    appliedCents += payments.get(i).getAmountCents();
+                }
+            }
+            cases.clear();
+            payments.clear();
+            lines.clear();
+            lineNumbers.clear();
+            references.clear();
+        }
+    }
+
+    /**
+     * Counters of a finished reconciliation
+     */
+    @Value
+    public static class ReconciliationResult {
+        // Non-blank statement lines
+        long lines;
+        long appliedPayments;
+        long appliedCents;
+        // Lines whose transaction reference had already been recorded
+        long duplicateLines;
+        long unmatchedLines;
+        long elapsedNanos;
+
+        @Override
+        public String toString() {
+            return lines + " lines, " + appliedPayments + " payments of $" + Money.format(appliedCents)
+                    + " applied, " + duplicateLines + " already reconciled, " + unmatchedLines + " unmatched in "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms";
+        }
+    }
+}
@@ -1,28 +1,73 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 import lombok.Data;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 
 /**
- * Represents an action taken on a regulatory case
+ * Represents an action taken on a regulatory case.
+ * Actions are stored as structured events (type, template, arguments and timestamp);
+ * the human-readable description is only rendered when it is requested.
  */
 @Data
-@RequiredArgsConstructor
 public class CaseAction {
-    private final String id = UUID.randomUUID().toString();
-    
     @NonNull
-    private ActionType actionType;
+    private final ActionType actionType;
     
     @NonNull
-    private String description;
+    private final ActionTemplate template;
+    
+    private final Object[] arguments;
     
-    private final LocalDateTime actionDate = LocalDateTime.now();
+    // Milliseconds since the epoch
+    private final long timestamp;
     
     private String performedBy = "System";
     
+    /**
+     * Creates an action with a free-text description
+     * @param actionType The type of action
+     * @param description Description of the action
+     */
+    public CaseAction(@NonNull ActionType actionType, @NonNull String description) {
+        this(actionType, ActionTemplate.FREE_TEXT, TimeSource.currentTimeMillis(), description);
+    }
+    
+    /**
+     * Creates an action whose description is rendered from a template
+     * @param actionType The type of action
+     * @param template The description template
+     * @param timestamp The time of the action in milliseconds since the epoch
+     * @param arguments The values inserted into the template
+     */
+    public CaseAction(@NonNull ActionType actionType, @NonNull ActionTemplate template, long timestamp,
+                      Object... arguments) {
+        if (arguments.length != template.getArgumentCount()) {
+            throw new IllegalArgumentException("Template " + template + " expects "
+                    + template.getArgumentCount() + " arguments");
+        }
+        this.actionType = actionType;
+        this.template = template;
+        this.timestamp = timestamp;
+        this.arguments = arguments;
+    }
+    
+    /**
+     * Renders the description of the action
+     * @return The human-readable description
+     */
+    public String getDescription() {
+        return template.render(arguments);
+    }
+    
+    /**
+     * Gets the date and time of the action in the time zone of the TimeSource clock
+     * @return The action date
+     */
+    public LocalDateTime getActionDate() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), TimeSource.getClock().getZone());
+    }
+    
     /**
      * Records the user who performed this action
      * @param username The username of the user who performed the action
@@ -33,7 +78,7 @@ public class CaseAction {
     
     @Override
     public String toString() {
-        return "Action [Type=" + actionType + ", Description=" + description + 
-               ", Date=" + actionDate + ", By=" + performedBy + "]";
+        return "Action [Type=" + actionType + ", Description=" + getDescription() + 
+               ", Date=" + getActionDate() + ", By=" + performedBy + "]";
     }
 }
@@ -0,0 +1,517 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * HTTP/JSON API over a case manager, built on the JDK's HTTP server, so that many counter terminals
+ * and kiosks can work with one instance at the same time.
+ * <p>
+ * Every request runs on a virtual thread of its own when the JVM supports them (Java 21 and later);
+ * older JVMs use a pool of REQUEST_THREADS platform threads. Requests block while their changes are
+ * made durable, which costs a virtual thread next to nothing.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>POST /cases - records an offense: offenderName, address, dateOfBirth or offenderId of a known
+ * offender, location, offenseDate, offenseType; returns the case</li>
+ * <li>GET /cases/{id} - returns the case with its payments and history</li>
+ * <li>POST /cases/{id}/payments - records a payment: amount (e.g. "12.50"), optional method and reference;
+ * returns the payment with the case, so that the case's new version is known for the next change</li>
+ * <li>POST /cases/{id}/appeal - files an appeal: reason</li>
+ * <li>POST /cases/{id}/appeal/decision - decides the appeal: approved, reason, reviewer</li>
+ * <li>GET /reports/{monthly-fines|payment-status|offense-types|statute-of-limitations} - streams a text
+ * report; the statute of limitations report takes a warningDays query parameter. A report that fails
+ * after streaming has begun is cut off, as its status has already been sent</li>
+ * <li>GET /metrics - request counts and latency percentiles per endpoint</li>
+ * </ul>
+ * Cases are returned with their version. A change that carries the version of the case it is based on
+ * (optional "version" member of the POST bodies above) is only made if the case is still at that version;
+ * a change without a version is applied to the case as it is when the change is made, after any concurrent
+ * change, and never conflicts on the version.
+ * <p>
+ * Errors are returned as {"error": message} with status 400 for invalid requests, 404 for unknown
+ * cases and 409 for conflicts. A 409 has one of two meanings:
+ * <ul>
+ * <li>{"error": message, "version": current} - the case changed since the version the request carried.
+ * The client reads the case again (GET /cases/{id}), decides whether the change still applies and, if
+ * so, retries it with the version just read</li>
+ * <li>{"error": message} - the case does not allow the change in its current state, for example an
+ * appeal that has already been filed or decided, or a case that has been archived. Retrying the same
+ * request fails the same way</li>
+ * </ul>
+ */
+@Slf4j
+public class CaseApiServer implements Closeable {
+    private static final int REQUEST_THREADS = Integer.getInteger("rom.httpThreads", 256);
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int DEFAULT_WARNING_DAYS = 30;
+
+    private final CaseManager caseManager;
+    private final ReportGenerator reportGenerator;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // Latencies by endpoint, in the order the endpoints are listed by /metrics
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+    private CaseApiServer(CaseManager caseManager, HttpServer server, ExecutorService executor) {
+        this.caseManager = caseManager;
+        this.reportGenerator = new ReportGenerator(caseManager);
+        this.server = server;
+        this.executor = executor;
+        for (String endpoint : new String[] {
+                "POST /cases", "GET /cases/{id}", "POST /cases/{id}/payments", "POST /cases/{id}/appeal",
+                "POST /cases/{id}/appeal/decision", "GET /reports/{report}"}) {
+            latencies.put(endpoint, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Starts serving a case manager
+     * @param caseManager The case manager
+     * @param address The address to listen on
+     * @return The running server
+     * @throws IOException if the server cannot listen on the address
+     */
+    public static CaseApiServer start(CaseManager caseManager, InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 1024);
+        CaseApiServer api = new CaseApiServer(caseManager, server, requestExecutor());
+        server.createContext("/cases", api::handleCases);
+        server.createContext("/reports/", api::handleReports);
+        server.createContext("/metrics", api::handleMetrics);
+        server.setExecutor(api.executor);
+        server.start();
+        log.info("Case API listening on {}", server.getAddress());
+        return api;
+    }
+
+    /**
+     * Creates the executor that runs the requests: a virtual thread per request if the JVM has them
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            // Looked up reflectively, so that the server still runs on JVMs before Java 21
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Serving requests on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            log.info("Virtual threads are not available; serving requests on {} threads", REQUEST_THREADS);
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newFixedThreadPool(REQUEST_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "case-api-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return The address the server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for running requests and stops the server
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleCases(HttpExchange exchange) throws IOException {
+        // "", "cases", case ID, sub-resources
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        String method = exchange.getRequestMethod();
+
+        if (path.length < 2 || !path[1].equals("cases")) {
+            sendError(exchange, 404, "No endpoint " + method + " " + exchange.getRequestURI().getPath());
+        } else if (path.length == 2) {
+            serve(exchange, "POST", "POST /cases", () -> recordOffense(exchange));
+        } else if (path.length == 3) {
+            serve(exchange, "GET", "GET /cases/{id}", () -> sendJson(exchange, 200, caseJson(new Json.Writer(), findCase(path[2]), true)));
+        } else if (path.length == 4 && path[3].equals("payments")) {
+            serve(exchange, "POST", "POST /cases/{id}/payments", () -> recordPayment(exchange, findCase(path[2])));
+        } else if (path.length == 4 && path[3].equals("appeal")) {
+            serve(exchange, "POST", "POST /cases/{id}/appeal", () -> fileAppeal(exchange, findCase(path[2])));
+        } else if (path.length == 5 && path[3].equals("appeal") && path[4].equals("decision")) {
+            serve(exchange, "POST", "POST /cases/{id}/appeal/decision", () -> decideAppeal(exchange, findCase(path[2])));
+        } else {
+            sendError(exchange, 404, "No endpoint " + method + " " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private void handleReports(HttpExchange exchange) throws IOException {
+        String report = exchange.getRequestURI().getPath().substring("/reports/".length());
+        serve(exchange, "GET", "GET /reports/{report}", () -> writeReport(exchange, report));
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method " + exchange.getRequestMethod() + " is not allowed");
+            return;
+        }
+        Json.Writer json = new Json.Writer().beginObject();
+        for (Map.Entry<String, LatencyHistogram> endpoint : latencies.entrySet()) {
+            LatencyHistogram histogram = endpoint.getValue();
+            json.name(endpoint.getKey()).beginObject()
+                    .field("count", histogram.getCount())
+                    .field("p50Micros", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(50)))
+                    .field("p99Micros", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(99)))
+                    .field("p999Micros", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(99.9)))
+                    .field("maxMicros", TimeUnit.NANOSECONDS.toMicros(histogram.getMaxNanos()))
+                    .endObject();
+        }
+        sendJson(exchange, 200, json.endObject());
+    }
+
+    /**
+     * Runs a request, records its latency and turns exceptions into error responses
+     * @param exchange The exchange
+     * @param method The HTTP method the endpoint accepts
+     * @param endpoint The endpoint, as listed by /metrics
+     * @param handler Sends the response
+     */
+    private void serve(HttpExchange exchange, String method, String endpoint, Handler handler) throws IOException {
+        long startTime = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals(method)) {
+                sendError(exchange, 405, "Method " + exchange.getRequestMethod() + " is not allowed");
+                return;
+            }
+            handler.handle();
+        } catch (NotFoundException e) {
+            sendError(exchange, 404, e.getMessage());
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (CaseManager.VersionConflictException e) {
+            sendConflict(exchange, e);
+        } catch (IllegalStateException e) {
+            sendError(exchange, 409, e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("{} failed", endpoint, e);
+            sendError(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+            latencies.get(endpoint).record(System.nanoTime() - startTime);
+        }
+    }
+
+    private void recordOffense(HttpExchange exchange) throws IOException {
+        Map<String, Object> request = readBody(exchange);
+        Offender offender;
+        String offenderId = optionalString(request, "offenderId");
+        if (offenderId != null) {
+            offender = caseManager.getOffenderById(offenderId);
+            if (offender == null) {
+                throw new IllegalArgumentException("Unknown offender " + offenderId);
+            }
+        } else {
+            offender = new Offender(string(request, "offenderName"), string(request, "address"),
+                    LocalDate.parse(string(request, "dateOfBirth")));
+        }
+        Offense offense = new Offense(offender, string(request, "location"),
+                LocalDate.parse(string(request, "offenseDate")), OffenseType.valueOf(string(request, "offenseType")));
+
+        RegulatoryCase regulatoryCase = caseManager.createNewCase(offense);
+        sendJson(exchange, 201, caseJson(new Json.Writer(), regulatoryCase, false));
+    }
+
+    private void recordPayment(HttpExchange exchange, RegulatoryCase regulatoryCase) throws IOException {
+        Map<String, Object> request = readBody(exchange);
+        long amountCents = Money.parse(string(request, "amount"));
+        if (amountCents <= 0) {
+            throw new IllegalArgumentException("The amount must be positive");
+        }
+        String method = optionalString(request, "method");
+        PaymentMethod paymentMethod = method != null ? PaymentMethod.valueOf(method) : PaymentMethod.BANK_TRANSFER;
+
+        Payment payment = caseManager.recordPayment(regulatoryCase, amountCents, paymentMethod,
+                optionalString(request, "reference"), expectedVersion(request));
+        // The case is rendered after the payment, in a state and version that include it
+        Json.Writer json = paymentJson(new Json.Writer(), payment, false).name("case");
+        sendJson(exchange, 201, caseJson(json, regulatoryCase, false).endObject());
+    }
+
+    private void fileAppeal(HttpExchange exchange, RegulatoryCase regulatoryCase) throws IOException {
+        Map<String, Object> request = readBody(exchange);
+        caseManager.fileAppeal(regulatoryCase, string(request, "reason"), expectedVersion(request));
+        sendJson(exchange, 201, caseJson(new Json.Writer(), regulatoryCase, false));
+    }
+
+    private void decideAppeal(HttpExchange exchange, RegulatoryCase regulatoryCase) throws IOException {
+        Map<String, Object> request = readBody(exchange);
+        Object approved = request.get("approved");
+        if (!(approved instanceof Boolean)) {
+            throw new IllegalArgumentException("approved must be true or false");
+        }
+        caseManager.decideAppeal(regulatoryCase, (Boolean) approved, string(request, "reason"),
+                string(request, "reviewer"), expectedVersion(request));
+        sendJson(exchange, 200, caseJson(new Json.Writer(), regulatoryCase, false));
+    }
+
+    private void writeReport(HttpExchange exchange, String report) throws IOException {
+        Report writer;
+        switch (report) {
+            case "monthly-fines":
+                writer = reportGenerator::writeMonthlyFineStatistics;
+                break;
+            case "payment-status":
+                writer = reportGenerator::writePaymentStatusReport;
+                break;
+            case "offense-types":
+                writer = reportGenerator::writeOffenseTypeDistribution;
+                break;
+            case "statute-of-limitations":
+                String warningDays = queryParameter(exchange, "warningDays");
+                int days = warningDays != null ? Integer.parseInt(warningDays) : DEFAULT_WARNING_DAYS;
+                writer = out -> reportGenerator.writeStatuteOfLimitationsReport(out, days);
+                break;
+            default:
+                throw new NotFoundException("No report " + report);
+        }
+
+        // Streamed as it is written, so the size of a report does not matter
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            writer.writeTo(out);
+        }
+    }
+
+    private RegulatoryCase findCase(String caseId) {
+        RegulatoryCase regulatoryCase = caseManager.getCaseById(caseId);
+        if (regulatoryCase == null) {
+            throw new NotFoundException("No case " + caseId);
+        }
+        return regulatoryCase;
+    }
+
+    /**
+     * Renders a case; it is read through the case manager, so that it is rendered in a consistent state.
+     * Each read renders into a writer of its own, as a read that overlapped a change is discarded
+     */
+    private Json.Writer caseJson(Json.Writer into, RegulatoryCase regulatoryCase, boolean withHistory) {
+        return into.append(caseManager.readCase(regulatoryCase, rc -> {
+            Offense offense = rc.getOffense();
+            Offender offender = offense.getOffender();
+            Fine fine = rc.getFine();
+            Json.Writer json = new Json.Writer().beginObject()
+                    .field("caseId", rc.getCaseId())
+                    .field("version", rc.getVersion())
+                    .field("status", rc.getStatus())
+                    .field("creationDate", rc.getCreationDate())
+                    .field("closedDate", rc.getClosedDate())
+                    .field("archived", rc.isArchived());
+            json.name("offense").beginObject()
+                    .field("offenseType", offense.getOffenseType())
+                    .field("offenseDate", offense.getOffenseDate())
+                    .field("location", offense.getLocation())
+                    .endObject();
+            json.name("offender").beginObject()
+                    .field("offenderId", offender.getId())
+                    .field("fullName", offender.getFullName())
+                    .field("address", offender.getAddress())
+                    .field("dateOfBirth", offender.getDateOfBirth())
+                    .endObject();
+            json.name("fine").beginObject()
+                    .field("amount", Money.format(fine.getAmountCents()))
+                    .field("totalPaid", Money.format(fine.getTotalPaidCents()))
+                    .field("paymentStatus", fine.getPaymentStatus())
+                    .field("paymentDeadline", fine.getPaymentDeadline())
+                    .endObject();
+
+            Appeal appeal = rc.getAppeal();
+            if (appeal != null) {
+                json.name("appeal").beginObject()
+                        .field("reason", appeal.getReason())
+                        .field("filingDate", appeal.getFilingDate())
+                        .field("decisionDate", appeal.getDecisionDate())
+                        .field("approved", appeal.isApproved())
+                        .field("decisionReason", appeal.getDecisionReason())
+                        .field("reviewedBy", appeal.getReviewedBy())
+                        .endObject();
+            }
+
+            if (withHistory) {
+                json.name("payments").beginArray();
+                for (Payment payment : fine.getPaymentHistory()) {
+                    paymentJson(json, payment, true);
+                }
+                json.endArray();
+                json.name("history").beginArray();
+                for (CaseAction action : rc.getCaseHistory()) {
+                    json.beginObject()
+                            .field("date", action.getActionDate())
+                            .field("type", action.getActionType())
+                            .field("description", action.getDescription())
+                            .field("performedBy", action.getPerformedBy())
+                            .endObject();
+                }
+                json.endArray();
+            }
+            return json.endObject();
+        }));
+    }
+
+    /**
+     * Renders a payment
+     * @param json The writer
+     * @param payment The payment
+     * @param complete Whether to end the object; otherwise the caller adds members and ends it
+     * @return The writer
+     */
+    private static Json.Writer paymentJson(Json.Writer json, Payment payment, boolean complete) {
+        json.beginObject()
+                .field("paymentId", payment.getId())
+                .field("amount", Money.format(payment.getAmountCents()))
+                .field("paymentDate", payment.getPaymentDate())
+                .field("method", payment.getPaymentMethod())
+                .field("reference", payment.getReferenceNumber());
+        return complete ? json.endObject() : json;
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                if (body.size() + read > MAX_BODY_BYTES) {
+                    throw new IllegalArgumentException("The request body exceeds " + MAX_BODY_BYTES + " bytes");
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return Json.parseObject(body.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String string(Map<String, Object> request, String name) {
+        String value = optionalString(request, name);
+        if (value == null) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return value;
+    }
+
+    private static String optionalString(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static long expectedVersion(Map<String, Object> request) {
+        Object value = request.get("version");
+        if (value == null) {
+            return CaseManager.ANY_VERSION;
+        }
+        if (!(value instanceof Long) || (Long) value < 0) {
+            throw new IllegalArgumentException("version must be a non-negative integer");
+        }
+        return (Long) value;
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0 && URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8).equals(name)) {
+                return URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Json.Writer json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        try {
+            // A response whose status has been sent, like a streamed report, can only be cut off by closing it
+            if (exchange.getResponseCode() != -1) {
+                log.warn("{} {} failed after its response had begun: {}", exchange.getRequestMethod(),
+                        exchange.getRequestURI(), message);
+                return;
+            }
+            sendJson(exchange, status, new Json.Writer().beginObject().field("error", message).endObject());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendConflict(HttpExchange exchange, CaseManager.VersionConflictException conflict)
+            throws IOException {
+        try {
+            sendJson(exchange, 409, new Json.Writer().beginObject()
+                    .field("error", conflict.getMessage())
+                    .field("version", conflict.getCurrentVersion())
+                    .endObject());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends the response to a request
+     */
+    private interface Handler {
+        void handle() throws IOException;
+    }
+
+    /**
+     * Writes a report
+     */
+    private interface Report {
+        void writeTo(Appendable out) throws IOException;
+    }
+
+    /**
+     * Thrown for a request for a case or report that does not exist
+     */
+    private static class NotFoundException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotFoundException(String message) {
+            super(message);
+        }
+    }
+}
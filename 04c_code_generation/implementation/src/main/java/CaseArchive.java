@@ -0,0 +1,335 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only file of the closed cases the CaseManager has moved out of memory.
+ * <p>
+ * Every entry holds one case in the snapshot encoding together with its offender, so an entry can be
+ * read on its own. In memory, each archived case is a summary row in an off-heap store, which also holds
+ * the file offset of the case's entry, so archived cases add next to nothing to the heap. A case can
+ * be archived more than once, when a restart brought it back into memory from an older snapshot or
+ * from the database; the latest entry of a case is the valid one.
+ * <p>
+ * Layout: magic, version, then the entries, each framed like a write-ahead log record as its length,
+ * the CRC32 of its length and payload, and the payload: the case ID, the offender's ID, name, address and
+ * date of birth, and the case. An entry torn by a crash while it was appended is cut off when the archive
+ * is opened. Any other invalid entry, such as one whose length is corrupt or one followed by a valid entry,
+ * fails the opening and the file is left as it is, since the archive is the only copy of archived cases.
+ */
+@Slf4j
+class CaseArchive implements Closeable {
+    private static final int MAGIC = 0x524F4D41;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int ENTRY_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final UnaryOperator<Offender> offenderResolver;
+
+    // Summaries of the archived cases, with the offsets of their valid entries as references
+    private final OffHeapCaseStore cases = new OffHeapCaseStore();
+
+    // End of the last complete entry, where the next one is appended
+    private long end;
+
+    private CaseArchive(Path file, UnaryOperator<Offender> offenderResolver) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.offenderResolver = offenderResolver;
+    }
+
+    /**
+     * Opens an archive, creating it if it does not exist, and hands the latest entry of each case to a restorer.
+     * Only the cases the restorer accepts are archived cases afterwards; the others are held in memory again
+     * @param file The archive file
+     * @param offenderResolver Maps the offender read from an entry to the offender the case is linked to
+     * @param restorer Receives the cases; returns false for a case that is held in memory
+     * @return The archive
+     * @throws IOException if the archive cannot be read or is not a case archive
+     */
+    static CaseArchive open(Path file, UnaryOperator<Offender> offenderResolver,
+                            Predicate<RegulatoryCase> restorer) throws IOException {
+        CaseArchive archive = new CaseArchive(file, offenderResolver);
+        try {
+            archive.load(restorer);
+        } catch (IOException | RuntimeException e) {
+            archive.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    private void load(Predicate<RegulatoryCase> restorer) throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(header, 0);
+            channel.force(true);
+            end = HEADER_SIZE;
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException(file + " is not a case archive");
+        }
+
+        // The first pass finds the complete entries, the second restores them from the last to the first,
+        // so that only the latest entry of a case is restored
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        long[] positions = new long[1024];
+        int entryCount = 0;
+        try (DataInputStream in = openEntries()) {
+            byte[] entry;
+            while ((entry = readEntry(in, position, size)) != null) {
+                if (entryCount == positions.length) {
+                    positions = Arrays.copyOf(positions, entryCount * 2);
+                }
+                positions[entryCount++] = position;
+                position += ENTRY_HEADER_SIZE + entry.length;
+            }
+        }
+        end = position;
+        if (end < size) {
+            log.warn("Discarding a torn entry of {} bytes at the end of {}", size - end, file);
+            channel.truncate(end);
+        }
+
+        Set<String> heldInMemory = new HashSet<>();
+        for (int i = entryCount - 1; i >= 0; i--) {
+            byte[] entry = readEntryAt(positions[i]);
+            String caseId = caseIdOf(entry);
+            if (!cases.contains(caseId) && !heldInMemory.contains(caseId)) {
+                RegulatoryCase regulatoryCase = decode(entry);
+                if (restorer.test(regulatoryCase)) {
+                    cases.put(regulatoryCase, positions[i]);
+                } else {
+                    heldInMemory.add(caseId);
+                }
+            }
+        }
+        log.info("Found {} archived cases in {}, {} KB off the heap", cases.size(), file,
+                cases.offHeapBytes() / 1024);
+    }
+
+    /**
+     * Appends a case; it only becomes an archived case once indexed. The caller must hold the case's lock
+     * @param regulatoryCase The case
+     * @return The offset of the entry
+     * @throws IOException if the archive cannot be written
+     */
+    long append(RegulatoryCase regulatoryCase) throws IOException {
+        Offender offender = regulatoryCase.getOffense().getOffender();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        CaseSnapshot.writeString(out, regulatoryCase.getCaseId());
+        CaseSnapshot.writeString(out, offender.getId());
+        CaseSnapshot.writeString(out, offender.getFullName());
+        CaseSnapshot.writeString(out, offender.getAddress());
+        CaseSnapshot.writeDate(out, offender.getDateOfBirth());
+        CaseSnapshot.writeCaseRecord(out, regulatoryCase);
+
+        byte[] framed = bytes.toByteArray();
+        ByteBuffer entry = ByteBuffer.wrap(framed);
+        entry.putInt(0, framed.length - ENTRY_HEADER_SIZE);
+        entry.putInt(Integer.BYTES, WriteAheadLog.checksum(framed, ENTRY_HEADER_SIZE, framed.length - ENTRY_HEADER_SIZE));
+        synchronized (this) {
+            long offset = end;
+            writeFully(entry, offset);
+            end += entry.capacity();
+            return offset;
+        }
+    }
+
+    /**
+     * Forces all appended entries to disk
+     * @throws IOException if the archive cannot be forced
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Makes an appended entry the archived copy of its case. The caller must hold the case's lock
+     * @param regulatoryCase The case
+     * @param offset The offset returned by append()
+     */
+    void index(RegulatoryCase regulatoryCase, long offset) {
+        cases.put(regulatoryCase, offset);
+    }
+
+    /**
+     * @param caseId The case ID
+     * @return true if the case is archived
+     */
+    boolean contains(String caseId) {
+        return cases.contains(caseId);
+    }
+
+    /**
+     * @return The number of archived cases
+     */
+    int size() {
+        return cases.size();
+    }
+
+    /**
+     * Passes the summary of every archived case to an action, without reading the archive file
+     * @param action Receives a view positioned on each archived case in turn
+     */
+    void forEach(Consumer<OffHeapCaseStore.CaseView> action) {
+        cases.forEach(action);
+    }
+
+    /**
+     * @return The end of the entries appended so far, to be passed to forEachCase()
+     */
+    synchronized long end() {
+        return end;
+    }
+
+    /**
+     * Reads the archived cases of the entries up to a position of the archive file, in the order the cases
+     * were archived. The position must have been taken while no cases were being archived; entries appended
+     * after it are skipped, so the cases archived meanwhile are not read
+     * @param scanEnd The end of the entries to read, as returned by end()
+     * @param action Receives a read-only copy of each archived case
+     * @throws IOException if the archive cannot be read
+     */
+    void forEachCase(long scanEnd, Consumer<RegulatoryCase> action) throws IOException {
+        long position = HEADER_SIZE;
+        try (DataInputStream in = openEntries()) {
+            byte[] entry;
+            while (position < scanEnd && (entry = readEntry(in, position, scanEnd)) != null) {
+                // Only the latest entry of a case is its archived copy
+                if (cases.referenceOf(caseIdOf(entry)) == position) {
+                    action.accept(decode(entry));
+                }
+                position += ENTRY_HEADER_SIZE + entry.length;
+            }
+        }
+    }
+
+    /**
+     * Reads an archived case
+     * @param caseId The case ID
+     * @return A read-only copy of the case, or null if the case is not archived
+     * @throws IOException if the entry cannot be read
+     */
+    RegulatoryCase find(String caseId) throws IOException {
+        long offset = cases.referenceOf(caseId);
+        return offset < 0 ? null : decode(readEntryAt(offset));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private RegulatoryCase decode(byte[] entry) throws IOException {
+        CaseSnapshot.Reader in = new CaseSnapshot.Reader(ByteBuffer.wrap(entry));
+        in.readString();
+        String offenderId = in.readString();
+        Offender offender = new Offender(in.readString(), in.readString(), in.readDate());
+        offender.setId(offenderId);
+        Offender resolved = offenderResolver.apply(offender);
+
+        RegulatoryCase regulatoryCase = CaseSnapshot.readCaseRecord(in, id -> resolved);
+        regulatoryCase.setArchived(true);
+        return regulatoryCase;
+    }
+
+    private static String caseIdOf(byte[] entry) throws IOException {
+        return new CaseSnapshot.Reader(ByteBuffer.wrap(entry)).readString();
+    }
+
+    private DataInputStream openEntries() throws IOException {
+        // A stream of its own, so that reading does not move the channel's position
+        InputStream in = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ).position(HEADER_SIZE));
+        return new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    /**
+     * Reads the next entry of a sequential scan.
+     * Only an entry that reaches the end of the scanned range, with no valid entry after it, can be torn;
+     * any other invalid entry fails the scan
+     * @param in The entries, positioned at the entry
+     * @param position The position of the entry
+     * @param size The end of the scanned range
+     * @return The payload of the entry, or null at the end of the range or at a torn last entry
+     * @throws IOException if the file cannot be read or holds a corrupt entry
+     */
+    private byte[] readEntry(DataInputStream in, long position, long size) throws IOException {
+        if (size - position < ENTRY_HEADER_SIZE) {
+            return null;
+        }
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt entry length " + length + " at position " + position + " of " + file);
+        }
+        if (length <= size - position - ENTRY_HEADER_SIZE) {
+            byte[] entry = in.readNBytes(length);
+            if (WriteAheadLog.checksum(entry) == checksum) {
+                return entry;
+            }
+            if (position + ENTRY_HEADER_SIZE + length < size) {
+                throw new IOException("Corrupt entry at position " + position + " of " + file);
+            }
+        }
+        if (WriteAheadLog.validRecordFollows(channel, position + 1, size)) {
+            throw new IOException("Corrupt entry at position " + position + " of " + file
+                    + " is followed by valid entries");
+        }
+        return null;
+    }
+
+    private byte[] readEntryAt(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        readFully(header, offset);
+        ByteBuffer entry = ByteBuffer.allocate(header.getInt(0));
+        readFully(entry, offset + ENTRY_HEADER_SIZE);
+        if (WriteAheadLog.checksum(entry.array()) != header.getInt(Integer.BYTES)) {
+            throw new IOException("Corrupt entry at position " + offset + " of " + file);
+        }
+        return entry.array();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
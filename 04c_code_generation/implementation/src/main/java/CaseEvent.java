@@ -0,0 +1,53 @@
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A case lifecycle event. Events are slots of the ring buffer of a CaseEventBus that are
+ * overwritten for every lap of the ring, so publishing an event allocates nothing
+ */
+@Getter
+@ToString
+public final class CaseEvent {
+    private CaseEventType type;
+    
+    private String caseId;
+    
+    private String offenderId;
+    
+    private OffenseType offenseType;
+    
+    // Status before and after the event; equal unless the event changed the status
+    private CaseStatus oldStatus;
+    
+    private CaseStatus newStatus;
+    
+    // Fine amount of a created case or amount of a recorded payment, 0 otherwise
+    private long amountCents;
+    
+    // Time of the event in milliseconds since the epoch
+    private long timestamp;
+    
+    CaseEvent() {
+    }
+    
+    /**
+     * Overwrites the slot with a new event
+     * @param type The event type
+     * @param regulatoryCase The case the event happened to
+     * @param oldStatus The status before the event
+     * @param newStatus The status after the event
+     * @param amountCents The amount of the event, or 0
+     */
+    void set(CaseEventType type, RegulatoryCase regulatoryCase, CaseStatus oldStatus, CaseStatus newStatus,
+             long amountCents) {
+        Offense offense = regulatoryCase.getOffense();
+        this.type = type;
+        this.caseId = regulatoryCase.getCaseId();
+        this.offenderId = offense.getOffender().getId();
+        this.offenseType = offense.getOffenseType();
+        this.oldStatus = oldStatus;
+        this.newStatus = newStatus;
+        this.amountCents = amountCents;
+        this.timestamp = TimeSource.currentTimeMillis();
+    }
+}
@@ -0,0 +1,320 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-process bus of case lifecycle events, built on a pre-allocated ring buffer.
+ * <p>
+ * Publishers claim the next sequence number, overwrite the event slot it maps to and mark the slot
+ * as published; no lock is taken and nothing is allocated. Every subscription has a thread of its own
+ * that hands all events published since its last run to its handler as one batch, so a slow handler
+ * falls behind without slowing down the publishers or the other subscriptions, until the slowest
+ * subscription is a whole ring behind. What a publisher does then is the bus's FullRingPolicy.
+ * <p>
+ * Publishers are the threads that mutate cases, and they publish while they hold the case's lock. With
+ * FullRingPolicy.BLOCK, a publisher that finds the ring full waits for the slowest subscription to free
+ * the slot it claimed: it spins, then yields, then parks for PARK_NANOS at a time. Meanwhile no other
+ * mutation of the cases on that lock stripe can proceed, so no event is lost but a stalled handler stalls
+ * the case manager. With FullRingPolicy.DROP, such a publisher drops its event instead and counts it, so
+ * mutations never wait for handlers and subscriptions may miss events.
+ * <p>
+ * Subscriptions are made before the bus is started. Handlers must not publish events themselves,
+ * directly or by mutating cases, as a full ring would then wait for the handler that is publishing.
+ */
+@Slf4j
+public class CaseEventBus implements Closeable {
+    // Spins of an idle thread before it starts to yield, and yields before it starts to park
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final CaseEvent[] events;
+    private final int mask;
+    private final FullRingPolicy fullRingPolicy;
+
+    // Sequence number of the event each slot holds, once it is completely written
+    private final AtomicLongArray publishedSequences;
+
+    // Next sequence number to claim
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    // Events dropped by FullRingPolicy.DROP
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    // Set by start(); the subscriptions that publishers wait for when the ring is full
+    private volatile Subscription[] started;
+
+    // Lower bound of the sequence of the slowest subscription, so publishers rarely read every subscription's;
+    // racing publishers may store an older value, which only costs a fresh read
+    private volatile long slowestSequenceSeen = -1;
+
+    private volatile boolean closed;
+
+    /**
+     * What a publisher does when the slowest subscription is a whole ring behind
+     */
+    public enum FullRingPolicy {
+        /** Wait until the slowest subscription has handled the oldest event; no event is lost */
+        BLOCK,
+        /** Drop the event, so that publishers never wait for subscriptions */
+        DROP
+    }
+
+    /**
+     * Creates a bus whose publishers wait when the ring is full
+     * @param capacity The number of event slots; a power of two
+     */
+    public CaseEventBus(int capacity) {
+        this(capacity, FullRingPolicy.BLOCK);
+    }
+
+    /**
+     * Creates a bus
+     * @param capacity The number of event slots; a power of two
+     * @param fullRingPolicy What a publisher does when the ring is full
+     */
+    public CaseEventBus(int capacity, FullRingPolicy fullRingPolicy) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+        }
+        events = new CaseEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new CaseEvent();
+        }
+        mask = capacity - 1;
+        this.fullRingPolicy = fullRingPolicy;
+        publishedSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            publishedSequences.set(i, -1);
+        }
+    }
+
+    /**
+     * Subscribes a handler to all events published after the bus has been started
+     * @param name The name of the subscription, used for its thread
+     * @param handler The handler
+     * @throws IllegalStateException if the bus has been started
+     */
+    public synchronized void subscribe(String name, CaseEventHandler handler) {
+        if (started != null) {
+            throw new IllegalStateException("Subscriptions must be made before the bus is started");
+        }
+        subscriptions.add(new Subscription(name, handler));
+    }
+
+    /**
+     * Starts the threads of the subscriptions; events published before are dropped
+     */
+    public synchronized void start() {
+        if (started != null) {
+            throw new IllegalStateException("The bus is already started");
+        }
+        started = subscriptions.toArray(new Subscription[0]);
+        for (Subscription subscription : started) {
+            subscription.thread.start();
+        }
+    }
+
+    /**
+     * Publishes an event. Events published before the bus is started or after it is closed are dropped,
+     * and so are events that find the ring full if the bus drops events then
+     * @param type The event type
+     * @param regulatoryCase The case the event happened to
+     * @param oldStatus The status before the event
+     * @param newStatus The status after the event
+     * @param amountCents The amount of the event, or 0
+     */
+    void publish(CaseEventType type, RegulatoryCase regulatoryCase, CaseStatus oldStatus, CaseStatus newStatus,
+                 long amountCents) {
+        Subscription[] subscribers = started;
+        if (subscribers == null || subscribers.length == 0 || closed) {
+            return;
+        }
+
+        long sequence;
+        if (fullRingPolicy == FullRingPolicy.DROP) {
+            sequence = tryClaim(subscribers);
+            if (sequence < 0) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+        } else {
+            sequence = nextSequence.getAndIncrement();
+
+            // The slot still holds the event of the previous lap until every subscription has handled it
+            long wrapPoint = sequence - events.length;
+            if (wrapPoint > slowestSequenceSeen) {
+                long slowest;
+                for (int idle = 0; wrapPoint > (slowest = slowestSequence(subscribers)); idle++) {
+                    if (closed) {
+                        return;
+                    }
+                    idle(idle);
+                }
+                slowestSequenceSeen = slowest;
+            }
+        }
+
+        int slot = (int) sequence & mask;
+        events[slot].set(type, regulatoryCase, oldStatus, newStatus, amountCents);
+        publishedSequences.set(slot, sequence);
+    }
+
+    /**
+     * Claims the next sequence number unless its slot still holds an event not handled by every subscription
+     * @param subscribers The started subscriptions
+     * @return The claimed sequence number, or -1 if the ring is full
+     */
+    private long tryClaim(Subscription[] subscribers) {
+        while (true) {
+            long sequence = nextSequence.get();
+            long wrapPoint = sequence - events.length;
+            if (wrapPoint > slowestSequenceSeen) {
+                long slowest = slowestSequence(subscribers);
+                if (wrapPoint > slowest) {
+                    return -1;
+                }
+                slowestSequenceSeen = slowest;
+            }
+            // Subscriptions only move forward, so the slot is still free if no other publisher claimed it
+            if (nextSequence.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of events published so far, including those still being written
+     * @return The number of claimed sequence numbers
+     */
+    public long getPublishedCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Gets the number of events dropped because the ring was full
+     * @return The number of dropped events; always 0 if publishers wait when the ring is full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets how far the slowest subscription is behind the publishers
+     * @return The number of published events not yet handled by every subscription
+     */
+    public long getBacklog() {
+        Subscription[] subscribers = started;
+        if (subscribers == null || subscribers.length == 0) {
+            return 0;
+        }
+        return nextSequence.get() - 1 - slowestSequence(subscribers);
+    }
+
+    /**
+     * Stops accepting events, lets every subscription handle the events published so far and stops their threads.
+     * Events published while the bus is closing may be dropped
+     */
+    @Override
+    public void close() {
+        Subscription[] subscribers;
+        synchronized (this) {
+            closed = true;
+            subscribers = started;
+        }
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscription subscription : subscribers) {
+            LockSupport.unpark(subscription.thread);
+            try {
+                subscription.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static long slowestSequence(Subscription[] subscribers) {
+        long slowest = Long.MAX_VALUE;
+        for (Subscription subscription : subscribers) {
+            slowest = Math.min(slowest, subscription.sequence.get());
+        }
+        return slowest;
+    }
+
+    /**
+     * Backs off while waiting: spins first, then yields, then parks briefly
+     * @param idle The number of times the caller has waited in a row
+     */
+    private static void idle(int idle) {
+        if (idle < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * A handler with its thread and its progress through the ring
+     */
+    private final class Subscription {
+        private final String name;
+        private final CaseEventHandler handler;
+        private final Thread thread;
+
+        // Sequence number of the last event handled
+        private final AtomicLong sequence = new AtomicLong(-1);
+
+        Subscription(String name, CaseEventHandler handler) {
+            this.name = name;
+            this.handler = handler;
+            this.thread = new Thread(this::run, "case-events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Hands batches of published events to the handler until the bus is closed and drained
+         */
+        private void run() {
+            long next = sequence.get() + 1;
+            int idle = 0;
+            while (true) {
+                long available = next - 1;
+                while (publishedSequences.get((int) (available + 1) & mask) == available + 1) {
+                    available++;
+                }
+
+                if (available < next) {
+                    if (closed) {
+                        return;
+                    }
+                    idle(idle++);
+                    continue;
+                }
+
+                for (long current = next; current <= available; current++) {
+                    try {
+                        handler.onEvent(events[(int) current & mask], current, current == available);
+                    } catch (RuntimeException e) {
+                        log.error("Case event handler {} failed on event {}", name, current, e);
+                    }
+                }
+                sequence.set(available);
+                next = available + 1;
+                idle = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the case lifecycle events of a CaseEventBus by type, and the amounts paid, so that the
+ * activity since startup is known without scanning the cases
+ */
+public class CaseEventCounter implements CaseEventHandler {
+    private static final CaseEventType[] TYPES = CaseEventType.values();
+    
+    private final AtomicLongArray counts = new AtomicLongArray(TYPES.length);
+    private final AtomicLong paidCents = new AtomicLong();
+    
+    @Override
+    public void onEvent(CaseEvent event, long sequence, boolean endOfBatch) {
+        counts.incrementAndGet(event.getType().ordinal());
+        if (event.getType() == CaseEventType.PAYMENT_RECORDED) {
+            paidCents.addAndGet(event.getAmountCents());
+        }
+    }
+    
+    /**
+     * @param type The event type
+     * @return The number of events of the type handled so far
+     */
+    public long getCount(CaseEventType type) {
+        return counts.get(type.ordinal());
+    }
+    
+    /**
+     * @return The sum of the recorded payments in cents
+     */
+    public long getPaidCents() {
+        return paidCents.get();
+    }
+    
+    /**
+     * Formats the counts as a report
+     * @return The report
+     */
+    public String generateReport() {
+        StringBuilder report = new StringBuilder("\n=== Case Activity Since Startup ===\n");
+        for (CaseEventType type : TYPES) {
+            report.append(type).append(": ").append(getCount(type)).append('\n');
+        }
+        report.append("Amount paid: ").append(Money.format(getPaidCents())).append('\n');
+        return report.toString();
+    }
+}
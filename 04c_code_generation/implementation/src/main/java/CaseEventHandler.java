@@ -0,0 +1,14 @@
+/**
+ * Consumes the events of a CaseEventBus on the subscription's own thread
+ */
+@FunctionalInterface
+public interface CaseEventHandler {
+    /**
+     * Called for every published event, in publication order. The event object is a slot of the
+     * ring buffer that is reused once the call returns, so values needed later must be copied
+     * @param event The event
+     * @param sequence The sequence number of the event on the bus
+     * @param endOfBatch true if no further event is available right now, e.g. to flush buffered work
+     */
+    void onEvent(CaseEvent event, long sequence, boolean endOfBatch);
+}
@@ -0,0 +1,12 @@
+/**
+ * Enum representing the kinds of case lifecycle events published on a CaseEventBus
+ */
+public enum CaseEventType {
+    CASE_CREATED,
+    STATUS_CHANGED,
+    PAYMENT_RECORDED,
+    APPEAL_FILED,
+    APPEAL_DECIDED,
+    REMINDER_SENT,
+    CASE_ARCHIVED
+}
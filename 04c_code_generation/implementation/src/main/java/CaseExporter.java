@@ -0,0 +1,371 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exports cases, their fines and payments as a compressed, column oriented binary file for analysis.
+ * <p>
+ * Each case is copied into a row in a consistent state without holding up changes to it; rows are encoded
+ * and written without holding any lock of the CaseManager, so neither changes to cases nor checkpoints or
+ * archiving wait for the export.
+ * Rows are collected in row groups of at most ROWS_PER_GROUP rows; a full group is written column by
+ * column and its buffers are reused, so memory use does not depend on the number of cases. Within a
+ * group every column is encoded on its own and then compressed with Deflate:
+ * <ul>
+ * <li>enums (offense type, case status, payment status, payment method) are one byte dictionary codes;
+ * the dictionaries, i.e. the enum names in code order, are written in the file header</li>
+ * <li>dates are zig-zag varint deltas to the previous row of the same column and group;
+ * nullable dates add 1 to the encoded delta and use 0 for null</li>
+ * <li>amounts are varint cents</li>
+ * <li>strings are a varint of the UTF-8 length plus 1, 0 for null, followed by the bytes</li>
+ * </ul>
+ * Layout: magic, version, dictionaries, row groups, a 0 byte, the case and payment counts, magic.
+ * A dictionary is its name, its size and its entries. A row group is its kind (CASE_GROUP or
+ * PAYMENT_GROUP), its row count, its column count and the columns, each as encoded length,
+ * compressed length and compressed bytes.
+ * <p>
+ * Case columns: case_id, offender_id, offense_type, status, offense_date, creation_date, closed_date,
+ * fine_amount_cents, total_paid_cents, payment_status, payment_deadline, payment_count.
+ * Payment columns: amount_cents, payment_date, payment_method, reference_number. Payments are written
+ * in the order of their cases; payment_count tells how many of the next payments belong to a case.
+ */
+@Slf4j
+public class CaseExporter {
+    private static final int MAGIC = 0x524F4D43;
+    private static final int VERSION = 1;
+    private static final int ROWS_PER_GROUP = 1 << 16;
+
+    private static final byte CASE_GROUP = 1;
+    private static final byte PAYMENT_GROUP = 2;
+
+    private final CaseManager caseManager;
+
+    /**
+     * Creates an exporter
+     * @param caseManager The case manager holding the cases to export
+     */
+    public CaseExporter(CaseManager caseManager) {
+        this.caseManager = caseManager;
+    }
+
+    /**
+     * Exports all cases, including the archived ones. Cases keep changing during the export; each case
+     * is exported once, in a consistent state, even if it is archived while the export runs
+     * @param file The export file; replaced if it exists
+     * @return The export counters
+     * @throws IOException if the file cannot be written
+     */
+    public ExportResult export(Path file) throws IOException {
+        long startTime = System.nanoTime();
+        long caseCount;
+        long paymentCount;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(4);
+            writeDictionary(out, "offense_type", OffenseType.values());
+            writeDictionary(out, "case_status", CaseStatus.values());
+            writeDictionary(out, "payment_status", PaymentStatus.values());
+            writeDictionary(out, "payment_method", PaymentMethod.values());
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                CaseGroup cases = new CaseGroup(out, deflater);
+                PaymentGroup payments = new PaymentGroup(out, deflater);
+                try {
+                    caseManager.forEachCaseIncludingArchived(CaseRow::new, row -> {
+                        cases.add(row);
+                        for (PaymentRow payment : row.payments) {
+                            payments.add(payment);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                cases.write();
+                payments.write();
+
+                out.writeByte(0);
+                out.writeLong(cases.total);
+                out.writeLong(payments.total);
+                out.writeInt(MAGIC);
+                caseCount = cases.total;
+                paymentCount = payments.total;
+            } finally {
+                deflater.end();
+            }
+        }
+
+        ExportResult result = new ExportResult(caseCount, paymentCount, Files.size(file),
+                System.nanoTime() - startTime);
+        log.info("Exported to {}: {}", file, result);
+        return result;
+    }
+
+    private static void writeDictionary(DataOutputStream out, String name, Enum<?>[] values) throws IOException {
+        out.writeUTF(name);
+        out.writeShort(values.length);
+        for (Enum<?> value : values) {
+            out.writeUTF(value.name());
+        }
+    }
+
+    /**
+     * A row group being filled, with one buffer per column
+     */
+    private abstract static class RowGroup {
+        private final DataOutputStream out;
+        private final Deflater deflater;
+        private final byte kind;
+        private final Column[] columns;
+        private byte[] compressed = new byte[1 << 16];
+        private int rows;
+        long total;
+
+        RowGroup(DataOutputStream out, Deflater deflater, byte kind, int columnCount) {
+            this.out = out;
+            this.deflater = deflater;
+            this.kind = kind;
+            this.columns = new Column[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columns[i] = new Column();
+            }
+        }
+
+        Column column(int index) {
+            return columns[index];
+        }
+
+        /**
+         * Counts a row whose columns have been filled, writing the group once it is full
+         */
+        void rowAdded() {
+            rows++;
+            total++;
+            if (rows == ROWS_PER_GROUP) {
+                try {
+                    write();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Writes the rows collected so far as one group and starts a new one
+         * @throws IOException if the group cannot be written
+         */
+        void write() throws IOException {
+            if (rows == 0) {
+                return;
+            }
+            out.writeByte(kind);
+            out.writeInt(rows);
+            out.writeByte(columns.length);
+            for (Column column : columns) {
+                deflater.reset();
+                deflater.setInput(column.bytes, 0, column.length);
+                deflater.finish();
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+                out.writeInt(column.length);
+                out.writeInt(compressedLength);
+                out.write(compressed, 0, compressedLength);
+                column.clear();
+            }
+            rows = 0;
+        }
+    }
+
+    private static class CaseGroup extends RowGroup {
+        CaseGroup(DataOutputStream out, Deflater deflater) {
+            super(out, deflater, CASE_GROUP, 12);
+        }
+
+        void add(CaseRow row) {
+            column(0).writeString(row.caseId);
+            column(1).writeString(row.offenderId);
+            column(2).writeByte(row.offenseType.ordinal());
+            column(3).writeByte(row.status.ordinal());
+            column(4).writeDate(row.offenseDate);
+            column(5).writeDate(row.creationDate);
+            column(6).writeNullableDate(row.closedDate);
+            column(7).writeVarLong(row.fineAmountCents);
+            column(8).writeVarLong(row.totalPaidCents);
+            column(9).writeByte(row.paymentStatus.ordinal());
+            column(10).writeDate(row.paymentDeadline);
+            column(11).writeVarLong(row.payments.length);
+            rowAdded();
+        }
+    }
+
+    private static class PaymentGroup extends RowGroup {
+        PaymentGroup(DataOutputStream out, Deflater deflater) {
+            super(out, deflater, PAYMENT_GROUP, 4);
+        }
+
+        void add(PaymentRow payment) {
+            column(0).writeVarLong(payment.amountCents);
+            column(1).writeDate(payment.paymentDate);
+            column(2).writeByte(payment.paymentMethod.ordinal());
+            column(3).writeString(payment.referenceNumber);
+            rowAdded();
+        }
+    }
+
+    /**
+     * The values of a case and its payments, copied while the case is read in a consistent state
+     */
+    private static class CaseRow {
+        final String caseId;
+        final String offenderId;
+        final OffenseType offenseType;
+        final CaseStatus status;
+        final LocalDate offenseDate;
+        final LocalDate creationDate;
+        final LocalDate closedDate;
+        final long fineAmountCents;
+        final long totalPaidCents;
+        final PaymentStatus paymentStatus;
+        final LocalDate paymentDeadline;
+        final PaymentRow[] payments;
+
+        CaseRow(RegulatoryCase regulatoryCase) {
+            Offense offense = regulatoryCase.getOffense();
+            Fine fine = regulatoryCase.getFine();
+            this.caseId = regulatoryCase.getCaseId();
+            this.offenderId = offense.getOffender().getId();
+            this.offenseType = offense.getOffenseType();
+            this.status = regulatoryCase.getStatus();
+            this.offenseDate = offense.getOffenseDate();
+            this.creationDate = regulatoryCase.getCreationDate();
+            this.closedDate = regulatoryCase.getClosedDate();
+            this.fineAmountCents = fine.getAmountCents();
+            this.totalPaidCents = fine.getTotalPaidCents();
+            this.paymentStatus = fine.getPaymentStatus();
+            this.paymentDeadline = fine.getPaymentDeadline();
+
+            List<Payment> paymentHistory = fine.getPaymentHistory();
+            this.payments = new PaymentRow[paymentHistory.size()];
+            for (int i = 0; i < payments.length; i++) {
+                payments[i] = new PaymentRow(paymentHistory.get(i));
+            }
+        }
+    }
+
+    private static class PaymentRow {
+        final long amountCents;
+        final LocalDate paymentDate;
+        final PaymentMethod paymentMethod;
+        final String referenceNumber;
+
+        PaymentRow(Payment payment) {
+            this.amountCents = payment.getAmountCents();
+            this.paymentDate = payment.getPaymentDate();
+            this.paymentMethod = payment.getPaymentMethod();
+            this.referenceNumber = payment.getReferenceNumber();
+        }
+    }
+
+    /**
+     * The encoded values of one column of a row group
+     */
+    private static class Column {
+        byte[] bytes = new byte[1 << 12];
+        int length;
+        // The last date written to this column of the group, as epoch day
+        private long previousDate;
+
+        void clear() {
+            length = 0;
+            previousDate = 0;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeDate(LocalDate date) {
+            long epochDay = date.toEpochDay();
+            writeVarLong(zigZag(epochDay - previousDate));
+            previousDate = epochDay;
+        }
+
+        void writeNullableDate(LocalDate date) {
+            if (date == null) {
+                writeByte(0);
+                return;
+            }
+            long epochDay = date.toEpochDay();
+            writeVarLong(zigZag(epochDay - previousDate) + 1);
+            previousDate = epochDay;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    /**
+     * Counters of a finished export
+     */
+    @Value
+    public static class ExportResult {
+        long cases;
+        long payments;
+        long bytes;
+        long elapsedNanos;
+
+        @Override
+        public String toString() {
+            return cases + " cases and " + payments + " payments in " + bytes + " bytes in "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms";
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of the actions of all cases in memory-mapped segment files, so that the history
+ * of a case costs the heap a position and a count instead of a growing list of actions.
+ * <p>
+ * Every record holds the position of the previous record of the same case, so the history of a case
+ * is a chain that is read backwards from its last record, and reading it only pages in that case's
+ * records. A record is the previous position, the length of the action and the action in the snapshot
+ * encoding; records never cross the end of a segment.
+ * <p>
+ * The log is not a durable store: the history is persisted with the cases by the journal and snapshot
+ * or by the repository. Segments left over from an earlier run are deleted when the log is opened.
+ * Closing the log deletes its segments; histories kept in the log cannot be read afterwards. A mapping is
+ * released when its buffer is garbage collected, and the disk space of its deleted file is freed then.
+ */
+@Slf4j
+class CaseHistoryLog implements Closeable {
+    /** Position of the record before the first record of a case */
+    static final long NO_RECORD = -1;
+
+    private static final int SEGMENT_SIZE = 1 << 26;
+    private static final int RECORD_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+
+    // Replaced by a longer copy when a segment is added
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    // Held shared while a segment is accessed and exclusively while the log is closed, so that an access
+    // either completes before the segments are released or fails
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    // Position of the next record
+    private long end;
+
+    private CaseHistoryLog(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens an empty history log, deleting the segments of an earlier run
+     * @param directory The directory of the segment files, created if it does not exist
+     * @return The history log
+     * @throws IOException if the directory cannot be created or cleared
+     */
+    static CaseHistoryLog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stale) {
+                Files.delete(segment);
+            }
+        }
+        return new CaseHistoryLog(directory);
+    }
+
+    /**
+     * Appends an action of a case
+     * @param previous The position of the case's last record, or NO_RECORD for its first action
+     * @param action The action
+     * @return The position of the new record
+     * @throws IllegalStateException if the log is closed
+     */
+    long append(long previous, CaseAction action) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            CaseSnapshot.writeAction(new DataOutputStream(bytes), action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int size = RECORD_HEADER_SIZE + bytes.size();
+        if (size > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Case action of " + size + " bytes is too large for the history log");
+        }
+
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            long position;
+            ByteBuffer segment;
+            synchronized (this) {
+                if (end % SEGMENT_SIZE + size > SEGMENT_SIZE) {
+                    end += SEGMENT_SIZE - end % SEGMENT_SIZE;
+                }
+                position = end;
+                if (position / SEGMENT_SIZE == segments.length) {
+                    addSegment();
+                }
+                segment = segments[(int) (position / SEGMENT_SIZE)];
+                end += size;
+            }
+
+            // Records are written outside the lock; a record is only read after its position is returned
+            int offset = (int) (position % SEGMENT_SIZE);
+            segment.putLong(offset, previous);
+            segment.putInt(offset + Long.BYTES, bytes.size());
+            segment.put(offset + RECORD_HEADER_SIZE, bytes.toByteArray());
+            return position;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the newest actions of a case
+     * @param last The position of the case's last record, or NO_RECORD
+     * @param count The maximum number of actions to read
+     * @return Unmodifiable list of the actions, oldest first
+     * @throws IllegalStateException if the log is closed
+     */
+    List<CaseAction> read(long last, int count) {
+        List<CaseAction> actions = new ArrayList<>();
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            MappedByteBuffer[] segments = this.segments;
+            for (long position = last; position != NO_RECORD && actions.size() < count; ) {
+                ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+                int offset = (int) (position % SEGMENT_SIZE);
+                int length = segment.getInt(offset + Long.BYTES);
+                ByteBuffer record = segment.slice(offset + RECORD_HEADER_SIZE, length);
+                actions.add(CaseSnapshot.readAction(new CaseSnapshot.Reader(record)));
+                position = segment.getLong(offset);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        Collections.reverse(actions);
+        return Collections.unmodifiableList(actions);
+    }
+
+    /**
+     * Deletes the segments, once no thread accesses them any more, and drops the log's references to them
+     * @throws IOException if a segment file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        MappedByteBuffer[] released;
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            released = segments;
+            segments = new MappedByteBuffer[0];
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        for (int i = 0; i < released.length; i++) {
+            Files.deleteIfExists(segmentFile(i));
+        }
+        log.debug("Released {} case history segments in {}", released.length, directory);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The case history log is closed");
+        }
+    }
+
+    private Path segmentFile(int index) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private void addSegment() {
+        Path file = segmentFile(segments.length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            MappedByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[segments.length] = segment;
+            segments = grown;
+            log.debug("Added case history segment {}", file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not add a history segment " + file, e);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Journal of case mutations, stored in a write-ahead log.
+ * Each record holds the input of one CaseManager mutation, the IDs it generated and its timestamp.
+ * Replaying the records in order re-executes the mutations under a clock fixed to the original
+ * timestamps, which rebuilds the same cases, fines, payments, appeals and derived state.
+ * Records a case already reflects (because it was restored from a snapshot taken after them)
+ * are skipped, using the journal position each case remembers for its last mutation.
+ * <p>
+ * A mutation's record is encoded, and the journal checked to be writable, before the mutation is applied,
+ * and appended after it. A mutation the journal cannot take is thereby rejected without changing the case;
+ * only a log that is closed or fails between the check and the append leaves one mutation unjournaled,
+ * and such a log rejects every later append, so the case manager stops taking changes.
+ */
+@Slf4j
+public class CaseJournal implements Closeable {
+    private enum RecordType {
+        CASE_CREATED,
+        PAYMENT_RECORDED,
+        APPEAL_FILED,
+        APPEAL_DECIDED,
+        REMINDER_SENT
+    }
+    
+    private static final RecordType[] RECORD_TYPES = RecordType.values();
+    private static final OffenseType[] OFFENSE_TYPES = OffenseType.values();
+    private static final PaymentMethod[] PAYMENT_METHODS = PaymentMethod.values();
+    
+    private final WriteAheadLog writeAheadLog;
+    
+    /**
+     * Opens (or creates) a journal file
+     * @param file The journal file
+     * @throws IOException if the file cannot be opened
+     */
+    public CaseJournal(Path file) throws IOException {
+        this.writeAheadLog = new WriteAheadLog(file);
+    }
+    
+    /**
+     * Encodes the creation of a case
+     * @param regulatoryCase The new case
+     * @return The record to append
+     */
+    byte[] caseCreated(RegulatoryCase regulatoryCase) {
+        Offense offense = regulatoryCase.getOffense();
+        Offender offender = offense.getOffender();
+        
+        RecordBuilder record = new RecordBuilder(RecordType.CASE_CREATED);
+        record.string(regulatoryCase.getCaseId());
+        record.string(regulatoryCase.getFine().getId());
+        record.string(offense.getId());
+        record.string(offender.getId());
+        record.string(offender.getFullName());
+        record.string(offender.getAddress());
+        record.date(offender.getDateOfBirth());
+        record.string(offense.getLocation());
+        record.date(offense.getOffenseDate());
+        record.ordinal(offense.getOffenseType());
+        record.nullableString(offense.getEvidenceDescription());
+        return record.toByteArray();
+    }
+    
+    /**
+     * Encodes the creation of several cases
+     * @param regulatoryCases The new cases, in the order they are created
+     * @return The records to append, in the same order
+     */
+    List<byte[]> casesCreated(List<RegulatoryCase> regulatoryCases) {
+        List<byte[]> records = new ArrayList<>(regulatoryCases.size());
+        for (RegulatoryCase regulatoryCase : regulatoryCases) {
+            records.add(caseCreated(regulatoryCase));
+        }
+        return records;
+    }
+    
+    /**
+     * Encodes a payment
+     * @param regulatoryCase The case the payment is made for
+     * @param payment The payment
+     * @return The record to append
+     */
+    byte[] paymentRecorded(RegulatoryCase regulatoryCase, Payment payment) {
+        RecordBuilder record = new RecordBuilder(RecordType.PAYMENT_RECORDED);
+        record.string(regulatoryCase.getCaseId());
+        record.string(payment.getId());
+        record.number(payment.getAmountCents());
+        record.ordinal(payment.getPaymentMethod());
+        record.nullableString(payment.getReferenceNumber());
+        return record.toByteArray();
+    }
+    
+    /**
+     * Encodes a filed appeal
+     * @param regulatoryCase The appealed case
+     * @param appealId The ID the appeal gets
+     * @param reason The appeal reason
+     * @return The record to append
+     */
+    byte[] appealFiled(RegulatoryCase regulatoryCase, String appealId, String reason) {
+        RecordBuilder record = new RecordBuilder(RecordType.APPEAL_FILED);
+        record.string(regulatoryCase.getCaseId());
+        record.string(appealId);
+        record.string(reason);
+        return record.toByteArray();
+    }
+    
+    /**
+     * Encodes an appeal decision
+     * @param regulatoryCase The appealed case
+     * @param approved Whether the appeal is approved
+     * @param reason The decision reason
+     * @param reviewerName The name of the reviewer
+     * @return The record to append
+     */
+    byte[] appealDecided(RegulatoryCase regulatoryCase, boolean approved, String reason, String reviewerName) {
+        RecordBuilder record = new RecordBuilder(RecordType.APPEAL_DECIDED);
+        record.string(regulatoryCase.getCaseId());
+        record.flag(approved);
+        record.string(reason);
+        record.string(reviewerName);
+        return record.toByteArray();
+    }
+    
+    /**
+     * Encodes a payment reminder
+     * @param regulatoryCase The reminded case
+     * @param today The evaluation date of the reminder run
+     * @return The record to append
+     */
+    byte[] reminderSent(RegulatoryCase regulatoryCase, LocalDate today) {
+        RecordBuilder record = new RecordBuilder(RecordType.REMINDER_SENT);
+        record.string(regulatoryCase.getCaseId());
+        record.date(today);
+        return record.toByteArray();
+    }
+    
+    /**
+     * Fails if records can no longer be appended, because the journal is closed or a write has failed.
+     * Called before a mutation, together with encoding its record, so that a mutation the journal
+     * would reject is never applied
+     */
+    void checkWritable() {
+        writeAheadLog.checkWritable();
+    }
+    
+    /**
+     * Appends an encoded record
+     * @param record The record
+     * @return The journal position to wait for
+     */
+    long append(byte[] record) {
+        return writeAheadLog.append(record);
+    }
+    
+    /**
+     * Appends several encoded records with one append to the log
+     * @param records The records, in order
+     * @return The journal position to wait for, per record
+     */
+    long[] append(List<byte[]> records) {
+        return writeAheadLog.append(records);
+    }
+    
+    /**
+     * Gets the position after the last journaled record, durable or not
+     * @return The appended position
+     */
+    long getAppendedPosition() {
+        return writeAheadLog.getAppendedPosition();
+    }
+    
+    /**
+     * Blocks until the journal is durable up to a position
+     * @param position A position returned by one of the record methods
+     */
+    void awaitDurable(long position) {
+        writeAheadLog.awaitDurable(position);
+    }
+    
+    /**
+     * Re-executes all journaled mutations against a case manager without journaling them again
+     * @param caseManager The case manager to rebuild, which must not have a journal attached yet
+     * @param fromPosition The journal position to start at
+     * @return The journal position after the last replayed record
+     * @throws IOException if the journal cannot be read
+     */
+    long replay(CaseManager caseManager, long fromPosition) throws IOException {
+        Clock systemClock = TimeSource.getClock();
+        long[] replayed = new long[1];
+        try {
+            long end = writeAheadLog.replay(fromPosition, (record, position) -> {
+                if (apply(caseManager, record, position, systemClock)) {
+                    replayed[0]++;
+                }
+            });
+            log.info("Replayed {} journal records", replayed[0]);
+            return end;
+        } finally {
+            TimeSource.setClock(systemClock);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        writeAheadLog.close();
+    }
+    
+    /**
+     * Decodes one record and applies it to the case manager unless the case already reflects it
+     * @param caseManager The case manager being rebuilt
+     * @param payload The record payload
+     * @param position The journal position after the record
+     * @param systemClock The clock whose zone the fixed replay clock uses
+     * @return true if the record was applied
+     */
+    private boolean apply(CaseManager caseManager, ByteBuffer payload, long position, Clock systemClock) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(payload.array(), payload.position(), payload.remaining()));
+            RecordType type = RECORD_TYPES[in.readUnsignedByte()];
+            long timestamp = in.readLong();
+            TimeSource.setClock(Clock.fixed(Instant.ofEpochMilli(timestamp), systemClock.getZone()));
+            
+            String caseId = in.readUTF();
+            RegulatoryCase regulatoryCase = caseManager.getCaseById(caseId);
+            if (type == RecordType.CASE_CREATED) {
+                if (regulatoryCase != null) {
+                    return false;
+                }
+            } else if (regulatoryCase == null) {
+                throw new IllegalStateException("Journal refers to unknown case " + caseId);
+            } else if (regulatoryCase.getJournalPosition() >= position) {
+                return false;
+            }
+            
+            switch (type) {
+                case CASE_CREATED:
+                    replayCaseCreated(caseManager, caseId, in);
+                    break;
+                case PAYMENT_RECORDED: {
+                    String paymentId = in.readUTF();
+                    Payment payment = new Payment(in.readLong(), PAYMENT_METHODS[in.readUnsignedByte()]);
+                    payment.setId(paymentId);
+                    payment.setReferenceNumber(readNullableString(in));
+                    caseManager.recordPayment(regulatoryCase, payment);
+                    break;
+                }
+                case APPEAL_FILED: {
+                    String appealId = in.readUTF();
+                    caseManager.fileAppeal(regulatoryCase, in.readUTF(), appealId);
+                    break;
+                }
+                case APPEAL_DECIDED: {
+                    boolean approved = in.readBoolean();
+                    caseManager.decideAppeal(regulatoryCase, approved, in.readUTF(), in.readUTF());
+                    break;
+                }
+                case REMINDER_SENT:
+                    caseManager.sendReminder(regulatoryCase, LocalDate.ofEpochDay(in.readLong()));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record type " + type);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private void replayCaseCreated(CaseManager caseManager, String caseId, DataInputStream in) throws IOException {
+        String fineId = in.readUTF();
+        String offenseId = in.readUTF();
+        String offenderId = in.readUTF();
+        String fullName = in.readUTF();
+        String address = in.readUTF();
+        LocalDate dateOfBirth = LocalDate.ofEpochDay(in.readLong());
+        
+        Offender offender = caseManager.getOffenderById(offenderId);
+        if (offender == null) {
+            offender = new Offender(fullName, address, dateOfBirth);
+            offender.setId(offenderId);
+        }
+        
+        Offense offense = new Offense(offender, in.readUTF(), LocalDate.ofEpochDay(in.readLong()),
+                OFFENSE_TYPES[in.readUnsignedByte()]);
+        offense.setId(offenseId);
+        offense.setEvidenceDescription(readNullableString(in));
+        
+        caseManager.createNewCase(offense, caseId, fineId);
+    }
+    
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    /**
+     * Encodes the fields of one record: type, timestamp and the record-specific values
+     */
+    private static class RecordBuilder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        
+        RecordBuilder(RecordType type) {
+            ordinal(type);
+            try {
+                out.writeLong(TimeSource.currentTimeMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        void string(String value) {
+            try {
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        void nullableString(String value) {
+            flag(value != null);
+            if (value != null) {
+                string(value);
+            }
+        }
+        
+        void date(LocalDate value) {
+            number(value.toEpochDay());
+        }
+        
+        void number(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        void ordinal(Enum<?> value) {
+            try {
+                out.writeByte(value.ordinal());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        void flag(boolean value) {
+            try {
+                out.writeBoolean(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -1,71 +1,1022 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
 
 /**
- * Manages all regulatory cases in the system
+ * Manages all regulatory cases in the system.
+ * All public methods are safe to call from multiple threads: lookups are lock-free,
+ * and mutations of an individual case are serialized through a striped lock.
+ * A case manager created with open() records every mutation in a journal and returns
+ * from a mutating call only once the mutation is durable; given a snapshot file, its
+ * checkpoints bound the part of the journal that is replayed on startup.
  */
-public class CaseManager {
-    // In-memory storage of cases (would be replaced by database in a real application)
-    private Map<String, RegulatoryCase> cases = new HashMap<>();
-    private Map<String, Offender> offenders = new HashMap<>();
+@Slf4j
+public class CaseManager implements Closeable {
+    // Storage of the cases and offenders
+    private final CaseRepository repository;
+    
+    // Offenders by name and date of birth, for resolving offenders of imported offenses
+    private final Map<String, Offender> offendersByNaturalKey = new ConcurrentHashMap<>();
+    
+    // Secondary indexes (case ID -> case), kept current on every status transition
+    private final Map<CaseStatus, Map<String, RegulatoryCase>> casesByStatus = new EnumMap<>(CaseStatus.class);
+    private final Map<String, Map<String, RegulatoryCase>> casesByOffender = new ConcurrentHashMap<>();
+    private final Map<OffenseType, Map<String, RegulatoryCase>> casesByOffenseType = new EnumMap<>(OffenseType.class);
+    
+    // Cases by the reference numbers of their payments (e.g., bank transaction IDs)
+    private final Map<String, RegulatoryCase> casesByPaymentReference = new ConcurrentHashMap<>();
+    
+    // Open (not closed) cases ordered by the date their statute of limitations expires
+    private final ConcurrentNavigableMap<ExpiryKey, RegulatoryCase> openCasesByExpiry = new ConcurrentSkipListMap<>();
+    
+    // Unpaid cases ordered by the date their next reminder is due
+    private final ReminderScheduler reminderScheduler = new ReminderScheduler();
+    
+    // Running report aggregates, updated on case creation and payment
+    private final CaseStatistics statistics = new CaseStatistics();
+    
+    // Journal of all mutations, or null for a purely in-memory case manager
+    private CaseJournal journal;
+    
+    // Snapshot written by checkpoint(), or null if the journal is always replayed in full
+    private Path snapshotFile;
+    
+    // Journal position of the latest snapshot written or loaded, -1 if there is none
+    private volatile long snapshotPosition = -1;
+    
+    // Closed cases moved out of memory by archiveClosedCases(), or null if cases are never archived
+    private CaseArchive archive;
+    
+    // Memory-mapped log the case histories are kept in, or null to keep them on the heap
+    private volatile CaseHistoryLog historyLog;
+    
+    // Bus the case lifecycle events are published on, or null if they are not published
+    private volatile CaseEventBus eventBus;
+    
+    // Runs the partitions of reminder runs; the common pool is kept free of their lock waits and I/O
+    private final ForkJoinPool reminderPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("case-reminders-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+    
+    // Runs scheduled checkpoints and archiving
+    private ScheduledExecutorService maintenanceExecutor;
+    private boolean checkpointsScheduled;
+    
+    // Striped locks guarding case mutations; the stripe count is a power of two
+    private final ReentrantLock[] caseLocks;
+    
+    /** Expected version of a change that applies to the case in whatever state it is */
+    public static final long ANY_VERSION = -1;
     
     // Configuration parameters
     private static final int PAYMENT_DEADLINE_DAYS = 30;
     private static final int STATUTE_OF_LIMITATIONS_MONTHS = 24;
     private static final int REMINDER_INTERVAL_DAYS = 14;
     
+    private static final int LOCK_STRIPES_PER_CORE = 16;
+    
+    // Optimistic reads of a case that keeps changing before a reader takes the case's lock
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 8;
+    
+    // Attempts of a change based on a read of a case before changeCase() gives up on a case that keeps changing
+    private static final int CHANGE_ATTEMPTS = 8;
+    
+    // Due cases a reminder run hands to one fork-join task at most
+    private static final int REMINDER_PARTITION_SIZE = 1_024;
+    
+    /**
+     * Creates a case manager that keeps its cases in memory
+     */
+    public CaseManager() {
+        this(new InMemoryCaseRepository());
+    }
+    
+    /**
+     * Creates a case manager on a repository; the cases already stored in it are indexed
+     * @param repository The storage of the cases and offenders
+     */
+    public CaseManager(CaseRepository repository) {
+        this.repository = repository;
+        for (CaseStatus status : CaseStatus.values()) {
+            casesByStatus.put(status, new ConcurrentHashMap<>());
+        }
+        for (OffenseType offenseType : OffenseType.values()) {
+            casesByOffenseType.put(offenseType, new ConcurrentHashMap<>());
+        }
+        
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * LOCK_STRIPES_PER_CORE - 1) << 1;
+        caseLocks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            caseLocks[i] = new ReentrantLock();
+        }
+        
+        for (Offender offender : repository.findAllOffenders()) {
+            offendersByNaturalKey.putIfAbsent(naturalKey(offender.getFullName(), offender.getDateOfBirth()), offender);
+        }
+        for (RegulatoryCase regulatoryCase : repository.findAll()) {
+            indexStoredCase(regulatoryCase);
+        }
+    }
+    
+    /**
+     * Creates a case manager on a repository with an archive for closed cases;
+     * the cases stored in the repository and the archive are indexed
+     * @param repository The storage of the cases and offenders
+     * @param archiveFile The case archive, created if it does not exist
+     * @throws IOException if the archive cannot be read
+     */
+    public CaseManager(CaseRepository repository, Path archiveFile) throws IOException {
+        this(repository);
+        attachArchive(archiveFile);
+    }
+    
+    /**
+     * Opens a case manager backed by a journal file.
+     * The mutations recorded in the file are replayed first; afterwards every mutation is journaled.
+     * @param journalFile The journal file, created if it does not exist
+     * @return The case manager with all journaled cases restored
+     * @throws IOException if the journal cannot be read or opened for writing
+     */
+    public static CaseManager open(Path journalFile) throws IOException {
+        return open(journalFile, null);
+    }
+    
+    /**
+     * Opens a case manager backed by a journal file and checkpointed to a snapshot file.
+     * The snapshot, if one exists, is loaded first and only the journal records written after it
+     * are replayed; afterwards every mutation is journaled.
+     * @param journalFile The journal file, created if it does not exist
+     * @param snapshotFile The snapshot file written by checkpoint(), or null to replay the whole journal
+     * @return The case manager with all journaled cases restored
+     * @throws IOException if the snapshot or the journal cannot be read, or the journal cannot be opened
+     */
+    public static CaseManager open(Path journalFile, Path snapshotFile) throws IOException {
+        return open(journalFile, snapshotFile, null);
+    }
+    
+    /**
+     * Opens a case manager backed by a journal file, checkpointed to a snapshot file and with an archive
+     * for closed cases. The snapshot, if one exists, is loaded first, then the archive, and finally the
+     * journal records written after the snapshot are replayed; afterwards every mutation is journaled.
+     * @param journalFile The journal file, created if it does not exist
+     * @param snapshotFile The snapshot file written by checkpoint()
+     * @param archiveFile The case archive, created if it does not exist, or null to keep all cases in memory
+     * @return The case manager with all journaled cases restored
+     * @throws IOException if the snapshot, the archive or the journal cannot be read, or the journal cannot be opened
+     */
+    public static CaseManager open(Path journalFile, Path snapshotFile, Path archiveFile) throws IOException {
+        if (archiveFile != null && snapshotFile == null) {
+            throw new IllegalArgumentException("A case archive needs a snapshot file");
+        }
+        
+        CaseManager caseManager = new CaseManager();
+        long journalPosition = 0;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            journalPosition = CaseSnapshot.load(snapshotFile, caseManager::restoreCase);
+            caseManager.snapshotPosition = journalPosition;
+        }
+        // Archived cases are older than the snapshot, so they count as previous offenses of replayed cases
+        if (archiveFile != null) {
+            caseManager.attachArchive(archiveFile);
+        }
+        
+        CaseJournal journal = new CaseJournal(journalFile);
+        journal.replay(caseManager, journalPosition);
+        caseManager.journal = journal;
+        caseManager.snapshotFile = snapshotFile;
+        return caseManager;
+    }
+    
+    /**
+     * Writes a snapshot of all cases, so that the next startup only replays the journal written after it.
+     * Mutations continue while the snapshot is written; each case is only locked while it is copied
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (journal == null || snapshotFile == null) {
+            throw new IllegalStateException("Checkpoints need a case manager opened with a snapshot file");
+        }
+        
+        long startTime = System.nanoTime();
+        long journalPosition = journal.getAppendedPosition();
+        try (CaseSnapshot.Writer writer = CaseSnapshot.create(snapshotFile, journalPosition)) {
+            for (Offender offender : repository.findAllOffenders()) {
+                synchronized (offender) {
+                    writer.writeOffender(offender);
+                }
+            }
+            for (RegulatoryCase regulatoryCase : repository.findAll()) {
+                ReentrantLock lock = lockFor(regulatoryCase);
+                lock.lock();
+                try {
+                    writer.writeCase(regulatoryCase);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            
+            // The snapshot may contain mutations journaled after its position; they must not get lost in a crash
+            journal.awaitDurable(journal.getAppendedPosition());
+            writer.commit();
+        }
+        snapshotPosition = journalPosition;
+        log.info("Wrote snapshot of {} cases to {} in {} ms",
+                repository.size(), snapshotFile, (System.nanoTime() - startTime) / 1_000_000);
+    }
+    
+    /**
+     * Writes a snapshot periodically in a background thread until the case manager is closed
+     * @param interval The time between two snapshots
+     * @param unit The unit of the interval
+     */
+    public synchronized void scheduleCheckpoints(long interval, TimeUnit unit) {
+        if (checkpointsScheduled) {
+            throw new IllegalStateException("Checkpoints are already scheduled");
+        }
+        checkpointsScheduled = true;
+        maintenanceExecutor().scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                log.error("Checkpoint to {} failed", snapshotFile, e);
+            }
+        }, interval, interval, unit);
+    }
+    
+    /**
+     * Moves the histories of all cases to an append-only log in memory-mapped segment files and keeps the
+     * histories of cases added later there as well, so that the heap used per case no longer grows with
+     * its history. Meant to be called once, right after the case manager has been created or opened
+     * @param directory The directory of the segment files; segments of an earlier run are deleted
+     * @throws IOException if the directory cannot be prepared
+     */
+    public synchronized void keepHistoryIn(Path directory) throws IOException {
+        if (historyLog != null) {
+            throw new IllegalStateException("Case histories are already kept in a history log");
+        }
+        long startTime = System.nanoTime();
+        CaseHistoryLog opened = CaseHistoryLog.open(directory);
+        historyLog = opened;
+        forEachCase(regulatoryCase -> {
+            regulatoryCase.beginMutation();
+            try {
+                regulatoryCase.moveHistoryTo(opened);
+            } finally {
+                regulatoryCase.endMutation();
+            }
+        });
+        log.info("Moved case histories to {} in {} ms", directory,
+                (System.nanoTime() - startTime) / 1_000_000);
+    }
+    
+    /**
+     * Archives closed cases periodically in a background thread until the case manager is closed
+     * @param closedForDays The number of days a case must have been closed to be archived
+     * @param interval The time between two archiving runs
+     * @param unit The unit of the interval
+     */
+    public synchronized void scheduleArchiving(int closedForDays, long interval, TimeUnit unit) {
+        if (archive == null) {
+            throw new IllegalStateException("Archiving needs a case manager with an archive file");
+        }
+        maintenanceExecutor().scheduleWithFixedDelay(() -> {
+            try {
+                archiveClosedCases(closedForDays);
+            } catch (IOException | RuntimeException e) {
+                log.error("Archiving closed cases failed", e);
+            }
+        }, interval, interval, unit);
+    }
+    
+    private ScheduledExecutorService maintenanceExecutor() {
+        if (maintenanceExecutor == null) {
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "case-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return maintenanceExecutor;
+    }
+    
+    /**
+     * Moves the cases closed more than a number of days ago to the case archive. Only the case ID and
+     * the position in the archive stay in memory; an archived case still counts as a previous offense
+     * of its offender and is still found by getCaseById(), as a read-only copy, but by no other query.
+     * Archived cases stay in the statistics, and so in the reports built from them, and are still exported
+     * by the CaseExporter.
+     * With a journal, a case is only archived once the latest snapshot covers all of its changes,
+     * so that no journal record of an archived case is ever replayed
+     * @param closedForDays The number of days a case must have been closed
+     * @return The number of cases archived
+     * @throws IOException if the archive cannot be written
+     */
+    public synchronized int archiveClosedCases(int closedForDays) throws IOException {
+        if (archive == null) {
+            throw new IllegalStateException("Archiving needs a case manager with an archive file");
+        }
+        
+        long startTime = System.nanoTime();
+        LocalDate closedBefore = TimeSource.today().minusDays(closedForDays);
+        long coveredPosition = journal != null ? snapshotPosition : Long.MAX_VALUE;
+        
+        // Cases are written to the archive first and only dropped from memory once the archive is durable
+        List<ArchivedCase> written = new ArrayList<>();
+        for (RegulatoryCase regulatoryCase : casesByStatus.get(CaseStatus.CLOSED).values()) {
+            ReentrantLock lock = lockFor(regulatoryCase);
+            lock.lock();
+            try {
+                if (isArchivable(regulatoryCase, closedBefore, coveredPosition)) {
+                    written.add(new ArchivedCase(regulatoryCase, archive.append(regulatoryCase),
+                            regulatoryCase.getCaseHistorySize()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (written.isEmpty()) {
+            return 0;
+        }
+        archive.force();
+        
+        int archived = 0;
+        for (ArchivedCase archivedCase : written) {
+            RegulatoryCase regulatoryCase = archivedCase.getRegulatoryCase();
+            Offender offender = regulatoryCase.getOffense().getOffender();
+            synchronized (offender) {
+                ReentrantLock lock = lockFor(regulatoryCase);
+                lock.lock();
+                regulatoryCase.beginMutation();
+                try {
+                    // A case changed after it was written is archived by a later run
+                    if (regulatoryCase.getCaseHistorySize() == archivedCase.getHistorySize()
+                            && isArchivable(regulatoryCase, closedBefore, coveredPosition)) {
+                        archive.index(regulatoryCase, archivedCase.getOffset());
+                        removeFromIndexes(regulatoryCase);
+                        regulatoryCase.setStatusListener(null);
+                        regulatoryCase.setArchived(true);
+                        offender.moveCaseToArchive(regulatoryCase);
+                        repository.remove(regulatoryCase);
+                        publish(CaseEventType.CASE_ARCHIVED, regulatoryCase, regulatoryCase.getStatus(), 0);
+                        archived++;
+                    }
+                } finally {
+                    regulatoryCase.endMutation();
+                    lock.unlock();
+                }
+            }
+        }
+        repository.flush();
+        
+        log.info("Archived {} cases closed before {} in {} ms", archived, closedBefore,
+                (System.nanoTime() - startTime) / 1_000_000);
+        return archived;
+    }
+    
+    private static boolean isArchivable(RegulatoryCase regulatoryCase, LocalDate closedBefore, long coveredPosition) {
+        return !regulatoryCase.isArchived()
+                && regulatoryCase.getStatus() == CaseStatus.CLOSED
+                && regulatoryCase.getClosedDate() != null
+                && regulatoryCase.getClosedDate().isBefore(closedBefore)
+                && regulatoryCase.getJournalPosition() <= coveredPosition;
+    }
+    
+    /**
+     * Opens the case archive and counts the archived cases that are not held in memory
+     * @param archiveFile The case archive
+     * @throws IOException if the archive cannot be read
+     */
+    private void attachArchive(Path archiveFile) throws IOException {
+        archive = CaseArchive.open(archiveFile, this::resolveArchivedOffender, this::restoreArchivedCase);
+    }
+    
+    /**
+     * Links a case read from the archive to the stored offender with the same ID, if there is one
+     * @param offender The offender as read from the archive
+     * @return The stored offender, or the given one
+     */
+    private Offender resolveArchivedOffender(Offender offender) {
+        Offender stored = repository.findOffenderById(offender.getId());
+        return stored != null ? stored : offender;
+    }
+    
+    /**
+     * Counts an archived case as a previous offense of its offender and adds it to the statistics
+     * @param regulatoryCase The archived case
+     * @return false if the case is held in memory, because it was restored from an older snapshot
+     * or the repository still stored it, so that it is not archived
+     */
+    private boolean restoreArchivedCase(RegulatoryCase regulatoryCase) {
+        Offense offense = regulatoryCase.getOffense();
+        if (casesByOffenseType.get(offense.getOffenseType()).containsKey(regulatoryCase.getCaseId())) {
+            return false;
+        }
+        Offender offender = registerOffender(offense.getOffender());
+        offender.addArchivedCase(offense.getOffenseType());
+        statistics.recordNewCase(regulatoryCase);
+        return true;
+    }
+    
+    /**
+     * Closes the journal, if any, after flushing all journaled mutations, the case archive and the history log.
+     * A case manager with a snapshot file writes a final snapshot first, and one with a history log flushes the
+     * repository before it closes the log, as histories kept in the log cannot be read afterwards
+     * @throws IOException if the snapshot cannot be written, the journal cannot be flushed or the history log
+     * cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        reminderPool.shutdown();
+        try {
+            if (journal != null) {
+                try {
+                    if (snapshotFile != null) {
+                        checkpoint();
+                    }
+                } finally {
+                    journal.close();
+                }
+            }
+        } finally {
+            try {
+                if (archive != null) {
+                    archive.close();
+                }
+            } finally {
+                CaseHistoryLog history = historyLog;
+                if (history != null) {
+                    // A repository writes histories when it flushes, so it must not be left any to read from the log
+                    try {
+                        repository.flush();
+                    } finally {
+                        history.close();
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Publishes the lifecycle events of the cases on a bus from now on. Events are published by the
+     * mutating thread while it holds the case's lock, so the events of a case arrive in order; mutations
+     * replayed from the journal on startup publish nothing
+     * @param eventBus The bus, started by the caller
+     */
+    public synchronized void publishEventsTo(CaseEventBus eventBus) {
+        if (this.eventBus != null) {
+            throw new IllegalStateException("Case events are already published");
+        }
+        this.eventBus = eventBus;
+    }
+    
+    /**
+     * Publishes a lifecycle event of a case on the event bus, if there is one; the caller holds the case's lock
+     * @param type The event type
+     * @param regulatoryCase The case, in its state after the event
+     * @param oldStatus The status of the case before the event
+     * @param amountCents The amount of the event, or 0
+     */
+    private void publish(CaseEventType type, RegulatoryCase regulatoryCase, CaseStatus oldStatus, long amountCents) {
+        CaseEventBus bus = eventBus;
+        if (bus != null) {
+            bus.publish(type, regulatoryCase, oldStatus, regulatoryCase.getStatus(), amountCents);
+        }
+    }
+    
+    /**
+     * Flushes the repository and waits until the journal, if any, is durable up to a position
+     * @param position The journal position returned when the mutation was journaled
+     */
+    private void awaitDurable(long position) {
+        repository.flush();
+        if (journal != null) {
+            journal.awaitDurable(position);
+        }
+    }
+    
+    /**
+     * Gets the lock stripe guarding mutations of a case
+     * @param regulatoryCase The case
+     * @return The lock for the case
+     */
+    private ReentrantLock lockFor(RegulatoryCase regulatoryCase) {
+        return caseLocks[stripeOf(regulatoryCase)];
+    }
+    
+    /**
+     * Gets the index of the lock stripe guarding mutations of a case
+     * @param regulatoryCase The case
+     * @return The index into caseLocks
+     */
+    private int stripeOf(RegulatoryCase regulatoryCase) {
+        int hash = regulatoryCase.getCaseId().hashCode();
+        return (hash ^ (hash >>> 16)) & (caseLocks.length - 1);
+    }
+    
+    /**
+     * Applies a function to a case in a consistent state. The case is read optimistically without its lock
+     * and read again if a mutation overlapped the read; only a reader that keeps overlapping mutations
+     * takes the lock, so readers neither wait for each other nor hold up mutations
+     * @param regulatoryCase The case
+     * @param reader Reads the case; must not block, have side effects or call back into the case manager,
+     * and may see the case in an inconsistent state, or fail, on attempts that are discarded
+     * @param <T> The type of the result
+     * @return The result of the function
+     */
+    <T> T readCase(RegulatoryCase regulatoryCase, Function<RegulatoryCase, T> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long stamp = regulatoryCase.getMutationStamp();
+            if ((stamp & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            try {
+                T result = reader.apply(regulatoryCase);
+                if (regulatoryCase.isUnchangedSince(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Failures on a case that changed meanwhile are artifacts of the overlapping mutation
+                if (regulatoryCase.isUnchangedSince(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        
+        ReentrantLock lock = lockFor(regulatoryCase);
+        lock.lock();
+        try {
+            return reader.apply(regulatoryCase);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Makes a change that depends on the state of a case, such as paying off its outstanding amount.
+     * The case is read as by readCase() and the change is made with the version read as expected version;
+     * if the case changed in between, it is read again and the change retried, CHANGE_ATTEMPTS times at most
+     * @param regulatoryCase The case
+     * @param reader Reads what the change depends on, under the conditions of readCase()
+     * @param change Makes the change through this case manager, passing the version it is given on
+     * @param <S> The type of what is read
+     * @param <T> The type of the result
+     * @return The result of the change
+     * @throws VersionConflictException if the case changed before every attempt
+     * @throws IllegalStateException if the case does not allow the change in its current state
+     */
+    public <S, T> T changeCase(RegulatoryCase regulatoryCase, Function<RegulatoryCase, S> reader,
+                               VersionedChange<S, T> change) {
+        for (int attempt = 1; ; attempt++) {
+            VersionedRead<S> read = readCase(regulatoryCase,
+                    rc -> new VersionedRead<>(reader.apply(rc), rc.getVersion()));
+            try {
+                return change.apply(read.getValue(), read.getVersion());
+            } catch (VersionConflictException e) {
+                if (attempt == CHANGE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Hands every case to a consumer while holding the case's lock, so that the consumer sees
+     * each case in a consistent state. Cases keep changing while the iteration goes on
+     * @param consumer Receives the cases; must not block or call back into the case manager
+     */
+    void forEachCase(Consumer<RegulatoryCase> consumer) {
+        for (RegulatoryCase regulatoryCase : repository.findAll()) {
+            ReentrantLock lock = lockFor(regulatoryCase);
+            lock.lock();
+            try {
+                consumer.accept(regulatoryCase);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Reads every case like readCase(), followed by a read-only copy of every archived case, and hands what
+     * was read to a consumer. The cases and the archived entries are taken together under the case manager's
+     * monitor, at a moment no cases are being archived, so each case is read exactly once: a case archived
+     * later is read from memory. Neither the monitor nor a case lock is held while the cases are read and
+     * consumed, so the consumer may block; cases created meanwhile are left out
+     * @param reader Reads a case, under the conditions of readCase()
+     * @param consumer Receives what was read of each case
+     * @param <T> The type of what is read of a case
+     * @throws IOException if the archive cannot be read
+     */
+    <T> void forEachCaseIncludingArchived(Function<RegulatoryCase, T> reader, Consumer<T> consumer)
+            throws IOException {
+        List<RegulatoryCase> cases;
+        long archiveEnd;
+        synchronized (this) {
+            cases = new ArrayList<>(repository.findAll());
+            archiveEnd = archive != null ? archive.end() : 0;
+        }
+        for (RegulatoryCase regulatoryCase : cases) {
+            consumer.accept(readCase(regulatoryCase, reader));
+        }
+        if (archive != null) {
+            // Archived copies are read-only and need no lock
+            archive.forEachCase(archiveEnd, archivedCase -> consumer.accept(reader.apply(archivedCase)));
+        }
+    }
+    
     /**
      * Creates a new regulatory case
      * @param offense The offense details
      * @return The created case
      */
     public RegulatoryCase createNewCase(Offense offense) {
-        // Store offender if not already in system
-        Offender offender = offense.getOffender();
-        if (!offenders.containsKey(offender.getId())) {
-            offenders.put(offender.getId(), offender);
-        } else {
-            // Use the existing offender record to maintain history
-            offender = offenders.get(offender.getId());
-            offense.setOffender(offender);
+        return createNewCase(offense, null, null);
+    }
+    
+    /**
+     * Creates a new regulatory case for each offense.
+     * The offenses are grouped by offender, so that each offender is resolved and locked once per batch;
+     * repeat offense penalties still grow in the order of the offenses, as if the cases were created one
+     * by one. The cases of an offender are published together under their locks and journaled with one
+     * append, and the batch waits for the journal once, after the last case has been journaled
+     * @param offenses The offense details
+     * @return The created cases, in the order of the offenses
+     */
+    public List<RegulatoryCase> createNewCases(Collection<Offense> offenses) {
+        Offense[] batch = offenses.toArray(new Offense[0]);
+        
+        // Keyed by identity, as the equality of offenders walks their whole history
+        Map<Offender, Offender> registeredOffenders = new IdentityHashMap<>();
+        Map<Offender, List<Integer>> batchIndexesByOffender = new IdentityHashMap<>();
+        for (int i = 0; i < batch.length; i++) {
+            Offender offender = registeredOffenders.computeIfAbsent(batch[i].getOffender(), this::registerOffender);
+            batch[i].setOffender(offender);
+            batchIndexesByOffender.computeIfAbsent(offender, key -> new ArrayList<>()).add(i);
         }
         
-        // Calculate fine amount based on offense type and history
-        double fineAmount = calculateFineAmount(offense);
-        Fine fine = new Fine(fineAmount, PAYMENT_DEADLINE_DAYS);
+        RegulatoryCase[] created = new RegulatoryCase[batch.length];
+        long journalPosition = 0;
+        for (Map.Entry<Offender, List<Integer>> offenderOffenses : batchIndexesByOffender.entrySet()) {
+            journalPosition = Math.max(journalPosition,
+                    addNewCases(offenderOffenses.getKey(), offenderOffenses.getValue(), batch, created));
+        }
         
-        // Create the case
-        RegulatoryCase regulatoryCase = new RegulatoryCase(offense, fine);
-        regulatoryCase.updateStatus(CaseStatus.FINE_ISSUED, "Fine notice issued");
+        awaitDurable(journalPosition);
+        return Arrays.asList(created);
+    }
+    
+    /**
+     * Creates a new regulatory case for each offense of a stream, as one batch
+     * @param offenses The offense details
+     * @return The created cases, in the order of the offenses
+     */
+    public List<RegulatoryCase> createNewCases(Stream<Offense> offenses) {
+        return createNewCases(offenses.collect(Collectors.toList()));
+    }
+    
+    /**
+     * Creates a new regulatory case, reusing the IDs of a replayed journal record if given
+     * @param offense The offense details
+     * @param caseId The case ID to restore, or null to keep the generated one
+     * @param fineId The fine ID to restore, or null to keep the generated one
+     * @return The created case
+     */
+    RegulatoryCase createNewCase(Offense offense, String caseId, String fineId) {
+        RegulatoryCase regulatoryCase = addNewCase(offense, caseId, fineId);
+        awaitDurable(regulatoryCase.getJournalPosition());
+        return regulatoryCase;
+    }
+    
+    /**
+     * Creates, indexes and journals a new case without waiting for the journal to become durable
+     * @param offense The offense details
+     * @param caseId The case ID to restore, or null to keep the generated one
+     * @param fineId The fine ID to restore, or null to keep the generated one
+     * @return The created case
+     */
+    private RegulatoryCase addNewCase(Offense offense, String caseId, String fineId) {
+        // Use the existing offender record, if any, to maintain history
+        Offender offender = registerOffender(offense.getOffender());
+        offense.setOffender(offender);
         
-        // Add to offender's history
-        offender.addCaseToHistory(regulatoryCase);
+        RegulatoryCase regulatoryCase;
         
-        // Store the case
-        cases.put(regulatoryCase.getCaseId(), regulatoryCase);
+        // Pricing depends on the offender's history, so cases of one offender are created one at a time
+        synchronized (offender) {
+            // Calculate fine amount based on offense type and history
+            long fineAmountCents = calculateFineAmount(offense);
+            Fine fine = new Fine(fineAmountCents, PAYMENT_DEADLINE_DAYS);
+            if (fineId != null) {
+                fine.setId(fineId);
+            }
+            
+            regulatoryCase = new RegulatoryCase(offense, fine);
+            if (caseId != null) {
+                regulatoryCase.setCaseId(caseId);
+            }
+            regulatoryCase.setStatuteExpiryDate(offense.getOffenseDate().plusMonths(STATUTE_OF_LIMITATIONS_MONTHS));
+            byte[] record = prepareRecord(() -> journal.caseCreated(regulatoryCase));
+            
+            // The case lock keeps later mutations of the case, and checkpoints, out until it is journaled
+            ReentrantLock lock = lockFor(regulatoryCase);
+            lock.lock();
+            try {
+                // Issue the fine, index the case, then let the status listener track its transitions
+                regulatoryCase.updateStatus(CaseStatus.FINE_ISSUED, "Fine notice issued");
+                addToIndexes(regulatoryCase);
+                regulatoryCase.setStatusListener(this::onStatusChanged);
+                
+                // Add to offender's history
+                offender.addCaseToHistory(regulatoryCase);
+                
+                // The first reminder is due the day after the payment deadline
+                reminderScheduler.schedule(regulatoryCase, regulatoryCase.getFine().getPaymentDeadline().plusDays(1));
+                statistics.recordNewCase(regulatoryCase);
+                
+                // Store the case
+                repository.add(regulatoryCase);
+                publish(CaseEventType.CASE_CREATED, regulatoryCase, CaseStatus.CREATED, fineAmountCents);
+                
+                if (record != null) {
+                    regulatoryCase.setJournalPosition(journal.append(record));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
         
         return regulatoryCase;
     }
     
+    /**
+     * Creates, publishes and journals the cases of one offender of a batch without waiting for the journal
+     * to become durable
+     * @param offender The registered offender of the offenses
+     * @param batchIndexes The positions of the offender's offenses in the batch, in batch order
+     * @param batch The offenses of the batch
+     * @param created Receives each created case at the position of its offense
+     * @return The journal position after the last of the cases, 0 without a journal
+     */
+    private long addNewCases(Offender offender, List<Integer> batchIndexes, Offense[] batch, RegulatoryCase[] created) {
+        List<RegulatoryCase> cases = new ArrayList<>(batchIndexes.size());
+        BitSet stripes = new BitSet(caseLocks.length);
+        
+        synchronized (offender) {
+            // The cases are not published yet, so the batch's earlier cases are counted here
+            int[] batchOffenseCounts = new int[OffenseType.values().length];
+            for (int batchIndex : batchIndexes) {
+                Offense offense = batch[batchIndex];
+                OffenseType offenseType = offense.getOffenseType();
+                int previousOffenses = offender.getOffenseCount(offenseType) + batchOffenseCounts[offenseType.ordinal()]++;
+                Fine fine = new Fine(calculateFineAmount(offenseType, previousOffenses), PAYMENT_DEADLINE_DAYS);
+                
+                RegulatoryCase regulatoryCase = new RegulatoryCase(offense, fine);
+                regulatoryCase.setStatuteExpiryDate(offense.getOffenseDate().plusMonths(STATUTE_OF_LIMITATIONS_MONTHS));
+                
+                // Issued before it is indexed, so the case enters the status index once, in its final bucket
+                regulatoryCase.updateStatus(CaseStatus.FINE_ISSUED, "Fine notice issued");
+                cases.add(regulatoryCase);
+                stripes.set(stripeOf(regulatoryCase));
+                created[batchIndex] = regulatoryCase;
+            }
+            List<byte[]> records = prepareRecord(() -> journal.casesCreated(cases));
+            
+            // Stripes are locked in ascending order, so batches of different offenders cannot deadlock
+            for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+                caseLocks[stripe].lock();
+            }
+            try {
+                Map<String, RegulatoryCase> offenderCases = casesByOffender.computeIfAbsent(offender.getId(),
+                        id -> new ConcurrentHashMap<>(cases.size()));
+                for (RegulatoryCase regulatoryCase : cases) {
+                    addToIndexes(regulatoryCase, offenderCases);
+                    regulatoryCase.setStatusListener(this::onStatusChanged);
+                    offender.addCaseToHistory(regulatoryCase);
+                    reminderScheduler.schedule(regulatoryCase, regulatoryCase.getFine().getPaymentDeadline().plusDays(1));
+                    statistics.recordNewCase(regulatoryCase);
+                    repository.add(regulatoryCase);
+                    publish(CaseEventType.CASE_CREATED, regulatoryCase, CaseStatus.CREATED,
+                            regulatoryCase.getFine().getAmountCents());
+                }
+                
+                if (records == null) {
+                    return 0;
+                }
+                long[] journalPositions = journal.append(records);
+                for (int i = 0; i < journalPositions.length; i++) {
+                    cases.get(i).setJournalPosition(journalPositions[i]);
+                }
+                return journalPositions[journalPositions.length - 1];
+            } finally {
+                for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+                    caseLocks[stripe].unlock();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Stores an offender if not already in the system
+     * @param offender The offender
+     * @return The stored offender with the same ID
+     */
+    private Offender registerOffender(Offender offender) {
+        Offender existing = repository.addOffenderIfAbsent(offender);
+        if (existing != null) {
+            return existing;
+        }
+        offendersByNaturalKey.putIfAbsent(naturalKey(offender.getFullName(), offender.getDateOfBirth()), offender);
+        return offender;
+    }
+    
+    /**
+     * Finds the offender with a name and date of birth, creating one if there is none yet.
+     * Imported offenses carry no offender ID, so this is how their repeat offenses are recognized;
+     * a new offender is stored with its first case
+     * @param fullName The full name
+     * @param address The address, used if a new offender is created
+     * @param dateOfBirth The date of birth
+     * @return The offender
+     */
+    public Offender resolveOffender(String fullName, String address, LocalDate dateOfBirth) {
+        return offendersByNaturalKey.computeIfAbsent(naturalKey(fullName, dateOfBirth),
+                key -> new Offender(fullName, address, dateOfBirth));
+    }
+    
+    private static String naturalKey(String fullName, LocalDate dateOfBirth) {
+        return fullName + '|' + dateOfBirth;
+    }
+    
+    /**
+     * Adds a case restored from a snapshot, rebuilding the state derived from it.
+     * The case must already be linked into its offender's history
+     * @param regulatoryCase The restored case
+     */
+    private void restoreCase(RegulatoryCase regulatoryCase) {
+        registerOffender(regulatoryCase.getOffense().getOffender());
+        repository.add(regulatoryCase);
+        indexStoredCase(regulatoryCase);
+    }
+    
+    /**
+     * Rebuilds the indexes, statistics and reminder schedule entries of a stored case
+     * @param regulatoryCase The stored case
+     */
+    private void indexStoredCase(RegulatoryCase regulatoryCase) {
+        addToIndexes(regulatoryCase);
+        regulatoryCase.setStatusListener(this::onStatusChanged);
+        statistics.recordNewCase(regulatoryCase);
+        for (Payment payment : regulatoryCase.getFine().getPaymentHistory()) {
+            if (payment.getReferenceNumber() != null) {
+                casesByPaymentReference.put(payment.getReferenceNumber(), regulatoryCase);
+            }
+        }
+        
+        CaseStatus status = regulatoryCase.getStatus();
+        if (status != CaseStatus.PAID && status != CaseStatus.CLOSED) {
+            LocalDate lastReminder = regulatoryCase.getLastReminderDate();
+            reminderScheduler.schedule(regulatoryCase, lastReminder != null
+                    ? lastReminder.plusDays(REMINDER_INTERVAL_DAYS)
+                    : regulatoryCase.getFine().getPaymentDeadline().plusDays(1));
+        }
+    }
+    
+    /**
+     * Adds a case to the status, offender and offense type indexes,
+     * moving its history to the history log if there is one
+     * @param regulatoryCase The case to index
+     */
+    private void addToIndexes(RegulatoryCase regulatoryCase) {
+        addToIndexes(regulatoryCase, casesByOffender.computeIfAbsent(
+                regulatoryCase.getOffense().getOffender().getId(), id -> new ConcurrentHashMap<>()));
+    }
+    
+    /**
+     * Adds a case to the indexes, given its offender's entry in the offender index
+     * @param regulatoryCase The case to index
+     * @param offenderCases The cases of the case's offender
+     */
+    private void addToIndexes(RegulatoryCase regulatoryCase, Map<String, RegulatoryCase> offenderCases) {
+        String caseId = regulatoryCase.getCaseId();
+        Offense offense = regulatoryCase.getOffense();
+        
+        CaseHistoryLog history = historyLog;
+        if (history != null) {
+            regulatoryCase.moveHistoryTo(history);
+        }
+        casesByStatus.get(regulatoryCase.getStatus()).put(caseId, regulatoryCase);
+        offenderCases.put(caseId, regulatoryCase);
+        casesByOffenseType.get(offense.getOffenseType()).put(caseId, regulatoryCase);
+        
+        if (regulatoryCase.getStatus() != CaseStatus.CLOSED) {
+            openCasesByExpiry.put(ExpiryKey.of(regulatoryCase), regulatoryCase);
+        }
+    }
+    
+    /**
+     * Removes an archived case from all indexes
+     * @param regulatoryCase The case to remove
+     */
+    private void removeFromIndexes(RegulatoryCase regulatoryCase) {
+        String caseId = regulatoryCase.getCaseId();
+        Offense offense = regulatoryCase.getOffense();
+        
+        casesByStatus.get(regulatoryCase.getStatus()).remove(caseId);
+        Map<String, RegulatoryCase> offenderCases = casesByOffender.get(offense.getOffender().getId());
+        if (offenderCases != null) {
+            offenderCases.remove(caseId);
+        }
+        casesByOffenseType.get(offense.getOffenseType()).remove(caseId);
+        openCasesByExpiry.remove(ExpiryKey.of(regulatoryCase));
+        
+        // Compared by identity, as the equality of cases walks their offender's whole history
+        for (Payment payment : regulatoryCase.getFine().getPaymentHistory()) {
+            if (payment.getReferenceNumber() != null) {
+                casesByPaymentReference.computeIfPresent(payment.getReferenceNumber(),
+                        (reference, indexed) -> indexed == regulatoryCase ? null : indexed);
+            }
+        }
+    }
+    
+    /**
+     * Moves a case between status index buckets when its status changes.
+     * Closing a case also removes it from the statute of limitations index
+     * @param regulatoryCase The case whose status changed
+     * @param oldStatus The previous status
+     * @param newStatus The new status
+     */
+    private void onStatusChanged(RegulatoryCase regulatoryCase, CaseStatus oldStatus, CaseStatus newStatus) {
+        if (oldStatus == newStatus) {
+            return;
+        }
+        casesByStatus.get(oldStatus).remove(regulatoryCase.getCaseId());
+        casesByStatus.get(newStatus).put(regulatoryCase.getCaseId(), regulatoryCase);
+        publish(CaseEventType.STATUS_CHANGED, regulatoryCase, oldStatus, 0);
+        
+        if (newStatus == CaseStatus.CLOSED) {
+            openCasesByExpiry.remove(ExpiryKey.of(regulatoryCase));
+        } else if (oldStatus == CaseStatus.CLOSED) {
+            openCasesByExpiry.put(ExpiryKey.of(regulatoryCase), regulatoryCase);
+        }
+    }
+    
     /**
      * Calculates the fine amount based on offense type and offender history
      * @param offense The offense details
-     * @return The calculated fine amount
+     * @return The calculated fine amount in cents
      */
-    private double calculateFineAmount(Offense offense) {
+    private long calculateFineAmount(Offense offense) {
         OffenseType offenseType = offense.getOffenseType();
-        Offender offender = offense.getOffender();
-        
-        // Start with base fine
-        double baseFine = offenseType.getBaseFineAmount();
-        
+        return calculateFineAmount(offenseType, offense.getOffender().getOffenseCount(offenseType));
+    }
+    
+    /**
+     * Calculates the fine amount of an offense type for an offender with a number of previous offenses
+     * @param offenseType The offense type
+     * @param previousOffenses The offender's previous offenses of the type
+     * @return The calculated fine amount in cents
+     */
+    private long calculateFineAmount(OffenseType offenseType, int previousOffenses) {
         // Apply penalty factor for repeat offenders
         double penaltyFactor = 1.0;
-        int previousOffenses = offender.getOffenseCount(offenseType);
         
         if (previousOffenses > 0) {
             // Increase penalty factor for each previous offense of the same type
@@ -76,33 +1027,170 @@ public class CaseManager {
     }
     
     /**
-     * Retrieves a case by its ID
+     * Passes the summary of every archived case to an action. The summaries are read from memory
+     * outside the heap; use getCaseById() for the complete case
+     * @param action Receives a view positioned on each archived case in turn; the view is reused
+     */
+    public void forEachArchivedCase(Consumer<OffHeapCaseStore.CaseView> action) {
+        if (archive != null) {
+            archive.forEach(action);
+        }
+    }
+    
+    /**
+     * Retrieves a case by its ID. An archived case is read from the case archive;
+     * every call returns a new read-only copy of it
      * @param caseId The case ID
      * @return The case or null if not found
      */
     public RegulatoryCase getCaseById(String caseId) {
-        return cases.get(caseId);
+        if (archive != null && archive.contains(caseId)) {
+            try {
+                return archive.find(caseId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return repository.findById(caseId);
     }
     
     /**
      * Records a payment for a case
      * @param regulatoryCase The case
-     * @param amount The payment amount
+     * @param amountCents The payment amount in cents
      * @return The payment object
      */
-    public Payment recordPayment(RegulatoryCase regulatoryCase, double amount) {
-        Payment payment = new Payment(amount, PaymentMethod.BANK_TRANSFER);
-        regulatoryCase.recordPayment(payment);
-        
-        // Check if case can be closed due to full payment
-        if (regulatoryCase.getFine().getPaymentStatus() == PaymentStatus.PAID &&
-            regulatoryCase.getAppeal() == null) {
-            regulatoryCase.closeCase("Fine paid in full");
+    public Payment recordPayment(RegulatoryCase regulatoryCase, long amountCents) {
+        return recordPayment(regulatoryCase, new Payment(amountCents, PaymentMethod.BANK_TRANSFER));
+    }
+    
+    /**
+     * Records a payment for a case
+     * @param regulatoryCase The case
+     * @param amountCents The payment amount in cents
+     * @param paymentMethod The payment method
+     * @param referenceNumber The reference number of the payment (e.g., bank transaction ID), or null
+     * @return The payment object
+     */
+    public Payment recordPayment(RegulatoryCase regulatoryCase, long amountCents, PaymentMethod paymentMethod,
+                                 String referenceNumber) {
+        return recordPayment(regulatoryCase, amountCents, paymentMethod, referenceNumber, ANY_VERSION);
+    }
+    
+    /**
+     * Records a payment for a case unless the case has changed since it was read
+     * @param regulatoryCase The case
+     * @param amountCents The payment amount in cents
+     * @param paymentMethod The payment method
+     * @param referenceNumber The reference number of the payment (e.g., bank transaction ID), or null
+     * @param expectedVersion The version of the case the payment is based on, or ANY_VERSION
+     * @return The payment object
+     * @throws VersionConflictException if the case is at another version
+     */
+    public Payment recordPayment(RegulatoryCase regulatoryCase, long amountCents, PaymentMethod paymentMethod,
+                                 String referenceNumber, long expectedVersion) {
+        Payment payment = new Payment(amountCents, paymentMethod);
+        payment.setReferenceNumber(referenceNumber);
+        awaitDurable(addPayment(regulatoryCase, payment, expectedVersion));
+        return payment;
+    }
+    
+    /**
+     * Records a batch of payments, each for the case at the same position.
+     * A payment for a case that has been archived in the meantime is skipped; the other payments are
+     * still recorded. The batch waits for the journal once, after the last payment has been journaled
+     * @param regulatoryCases The cases
+     * @param payments The payments
+     * @return The positions of the payments that were skipped because their case is archived
+     */
+    public BitSet recordPayments(List<RegulatoryCase> regulatoryCases, List<Payment> payments) {
+        if (regulatoryCases.size() != payments.size()) {
+            throw new IllegalArgumentException("Expected one payment per case");
         }
         
+        BitSet skipped = new BitSet();
+        long journalPosition = 0;
+        for (int i = 0; i < payments.size(); i++) {
+            RegulatoryCase regulatoryCase = regulatoryCases.get(i);
+            try {
+                journalPosition = Math.max(journalPosition, addPayment(regulatoryCase, payments.get(i), ANY_VERSION));
+            } catch (IllegalStateException e) {
+                // Archiving is final, so an archived case is what rejected the payment
+                if (!regulatoryCase.isArchived()) {
+                    throw e;
+                }
+                skipped.set(i);
+            }
+        }
+        awaitDurable(journalPosition);
+        return skipped;
+    }
+    
+    /**
+     * Records a prepared payment for a case
+     * @param regulatoryCase The case
+     * @param payment The payment
+     * @return The payment object
+     */
+    Payment recordPayment(RegulatoryCase regulatoryCase, Payment payment) {
+        awaitDurable(addPayment(regulatoryCase, payment, ANY_VERSION));
         return payment;
     }
     
+    /**
+     * Records and journals a payment without waiting for the journal to become durable
+     * @param regulatoryCase The case
+     * @param payment The payment
+     * @param expectedVersion The version of the case the payment is based on, or ANY_VERSION
+     * @return The journal position to wait for, 0 without a journal
+     */
+    private long addPayment(RegulatoryCase regulatoryCase, Payment payment, long expectedVersion) {
+        long journalPosition = 0;
+        ReentrantLock lock = lockFor(regulatoryCase);
+        lock.lock();
+        regulatoryCase.beginMutation();
+        try {
+            checkNotArchived(regulatoryCase);
+            checkVersion(regulatoryCase, expectedVersion);
+            byte[] record = prepareRecord(() -> journal.paymentRecorded(regulatoryCase, payment));
+            Fine fine = regulatoryCase.getFine();
+            PaymentStatus previousStatus = fine.getPaymentStatus();
+            CaseStatus previousCaseStatus = regulatoryCase.getStatus();
+            regulatoryCase.recordPayment(payment);
+            statistics.paymentStatusChanged(previousStatus, fine.getPaymentStatus(), fine.getAmountCents());
+            if (payment.getReferenceNumber() != null) {
+                casesByPaymentReference.put(payment.getReferenceNumber(), regulatoryCase);
+            }
+            
+            // Check if case can be closed due to full payment
+            if (regulatoryCase.getFine().getPaymentStatus() == PaymentStatus.PAID &&
+                regulatoryCase.getAppeal() == null) {
+                regulatoryCase.closeCase("Fine paid in full");
+            }
+            repository.update(regulatoryCase);
+            publish(CaseEventType.PAYMENT_RECORDED, regulatoryCase, previousCaseStatus, payment.getAmountCents());
+            
+            if (record != null) {
+                journalPosition = journal.append(record);
+                regulatoryCase.setJournalPosition(journalPosition);
+            }
+        } finally {
+            regulatoryCase.endMutation();
+            lock.unlock();
+        }
+        
+        return journalPosition;
+    }
+    
+    /**
+     * Finds the case a payment with a reference number was recorded for
+     * @param referenceNumber The reference number of the payment
+     * @return The case or null if no payment has the reference number
+     */
+    public RegulatoryCase getCaseByPaymentReference(String referenceNumber) {
+        return casesByPaymentReference.get(referenceNumber);
+    }
+    
     /**
      * Files an appeal for a case
      * @param regulatoryCase The case
@@ -110,7 +1198,68 @@ public class CaseManager {
      * @return The appeal object
      */
     public Appeal fileAppeal(RegulatoryCase regulatoryCase, String reason) {
-        return regulatoryCase.fileAppeal(reason);
+        return fileAppeal(regulatoryCase, reason, null, ANY_VERSION);
+    }
+    
+    /**
+     * Files an appeal for a case unless the case has changed since it was read
+     * @param regulatoryCase The case
+     * @param reason The appeal reason
+     * @param expectedVersion The version of the case the appeal is based on, or ANY_VERSION
+     * @return The appeal object
+     * @throws VersionConflictException if the case is at another version
+     */
+    public Appeal fileAppeal(RegulatoryCase regulatoryCase, String reason, long expectedVersion) {
+        return fileAppeal(regulatoryCase, reason, null, expectedVersion);
+    }
+    
+    /**
+     * Files an appeal for a case, reusing the ID of a replayed journal record if given
+     * @param regulatoryCase The case
+     * @param reason The appeal reason
+     * @param appealId The appeal ID to restore, or null to keep the generated one
+     * @return The appeal object
+     */
+    Appeal fileAppeal(RegulatoryCase regulatoryCase, String reason, String appealId) {
+        return fileAppeal(regulatoryCase, reason, appealId, ANY_VERSION);
+    }
+    
+    /**
+     * Files an appeal for a case
+     * @param regulatoryCase The case
+     * @param reason The appeal reason
+     * @param appealId The appeal ID to restore, or null to keep the generated one
+     * @param expectedVersion The version of the case the appeal is based on, or ANY_VERSION
+     * @return The appeal object
+     */
+    private Appeal fileAppeal(RegulatoryCase regulatoryCase, String reason, String appealId, long expectedVersion) {
+        Appeal appeal;
+        long journalPosition = 0;
+        ReentrantLock lock = lockFor(regulatoryCase);
+        lock.lock();
+        regulatoryCase.beginMutation();
+        try {
+            checkNotArchived(regulatoryCase);
+            checkVersion(regulatoryCase, expectedVersion);
+            String id = appealId != null ? appealId : Ids.next();
+            byte[] record = prepareRecord(() -> journal.appealFiled(regulatoryCase, id, reason));
+            CaseStatus previousStatus = regulatoryCase.getStatus();
+            appeal = regulatoryCase.fileAppeal(reason);
+            appeal.setId(id);
+            repository.update(regulatoryCase);
+            publish(CaseEventType.APPEAL_FILED, regulatoryCase, previousStatus, 0);
+            
+            if (record != null) {
+                journalPosition = journal.append(record);
+                regulatoryCase.setJournalPosition(journalPosition);
+            }
+        } finally {
+            regulatoryCase.endMutation();
+            lock.unlock();
+        }
+        
+        awaitDurable(journalPosition);
+        return appeal;
     }
     
     /**
@@ -122,27 +1271,174 @@ public class CaseManager {
      */
     public void decideAppeal(RegulatoryCase regulatoryCase, boolean approved, 
                             String reason, String reviewerName) {
-        regulatoryCase.decideAppeal(approved, reason, reviewerName);
+        decideAppeal(regulatoryCase, approved, reason, reviewerName, ANY_VERSION);
+    }
+    
+    /**
+     * Decides on an appeal unless the case has changed since it was read
+     * @param regulatoryCase The case
+     * @param approved Whether the appeal is approved
+     * @param reason The decision reason
+     * @param reviewerName The name of the reviewer
+     * @param expectedVersion The version of the case the decision is based on, or ANY_VERSION
+     * @throws VersionConflictException if the case is at another version
+     */
+    public void decideAppeal(RegulatoryCase regulatoryCase, boolean approved, String reason, String reviewerName,
+                             long expectedVersion) {
+        long journalPosition = 0;
+        ReentrantLock lock = lockFor(regulatoryCase);
+        lock.lock();
+        regulatoryCase.beginMutation();
+        try {
+            checkNotArchived(regulatoryCase);
+            checkVersion(regulatoryCase, expectedVersion);
+            byte[] record = prepareRecord(() -> journal.appealDecided(regulatoryCase, approved, reason, reviewerName));
+            CaseStatus previousStatus = regulatoryCase.getStatus();
+            regulatoryCase.decideAppeal(approved, reason, reviewerName);
+            
+            if (approved) {
+                regulatoryCase.closeCase("Appeal approved");
+            }
+            repository.update(regulatoryCase);
+            publish(CaseEventType.APPEAL_DECIDED, regulatoryCase, previousStatus, 0);
+            
+            if (record != null) {
+                journalPosition = journal.append(record);
+                regulatoryCase.setJournalPosition(journalPosition);
+            }
+        } finally {
+            regulatoryCase.endMutation();
+            lock.unlock();
+        }
         
-        if (approved) {
-            regulatoryCase.closeCase("Appeal approved");
+        awaitDurable(journalPosition);
+    }
+    
+    /**
+     * Encodes the journal record of a mutation before the mutation is applied and checks that the journal
+     * can take it, so that a record the journal would reject leaves the case unchanged
+     * @param encoder Encodes the record
+     * @return The record, or null without a journal
+     */
+    private <T> T prepareRecord(Supplier<T> encoder) {
+        if (journal == null) {
+            return null;
+        }
+        T record = encoder.get();
+        journal.checkWritable();
+        return record;
+    }
+    
+    /**
+     * Rejects a change based on an outdated read of a case. The caller must hold the case's lock
+     * @param regulatoryCase The case
+     * @param expectedVersion The version of the case the change is based on, or ANY_VERSION
+     * @throws VersionConflictException if the case is at another version
+     */
+    private static void checkVersion(RegulatoryCase regulatoryCase, long expectedVersion) {
+        if (expectedVersion != ANY_VERSION && regulatoryCase.getVersion() != expectedVersion) {
+            throw new VersionConflictException(regulatoryCase, expectedVersion);
+        }
+    }
+    
+    /**
+     * Rejects changes to an archived case. The caller must hold the case's lock
+     * @param regulatoryCase The case
+     */
+    private static void checkNotArchived(RegulatoryCase regulatoryCase) {
+        if (regulatoryCase.isArchived()) {
+            throw new IllegalStateException("Case " + regulatoryCase.getCaseId() + " is archived");
         }
     }
     
     /**
-     * Processes reminders for all cases with overdue payments
+     * Processes reminders for all cases with overdue payments.
+     * Only cases whose reminder has become due are visited; a case that is still unpaid
+     * after its reminder is scheduled again after the reminder interval. The due cases are
+     * split into partitions that are reminded in parallel in a fork-join pool of the case manager,
+     * and the run waits for the journal once, after the last reminder has been journaled.
+     * A partition that fails puts the cases it has not reminded back on the schedule, so that
+     * the next run reminds them
      * @return The number of reminders sent
      */
     public int processReminders() {
-        int remindersSent = 0;
+        LocalDate today = TimeSource.today();
+        List<RegulatoryCase> due = reminderScheduler.pollDue(today);
         
-        for (RegulatoryCase regulatoryCase : cases.values()) {
-            if (regulatoryCase.sendReminder()) {
-                remindersSent++;
+        ReminderRun run = reminderPool.invoke(new ReminderSweep(due, 0, due.size(), today));
+        awaitDurable(run.getJournalPosition());
+        return run.getRemindersSent();
+    }
+    
+    /**
+     * Sends a reminder for a case whose scheduled reminder is due and schedules the next one
+     * @param regulatoryCase The case
+     * @param today The evaluation date of the reminder run
+     * @return true if a reminder was sent
+     */
+    boolean sendReminder(RegulatoryCase regulatoryCase, LocalDate today) {
+        long journalPosition = remind(regulatoryCase, today);
+        if (journalPosition < 0) {
+            return false;
+        }
+        reminderScheduler.schedule(regulatoryCase, today.plusDays(REMINDER_INTERVAL_DAYS));
+        awaitDurable(journalPosition);
+        return true;
+    }
+    
+    /**
+     * Puts a due case that a failed reminder run did not get to, or failed on, back on the schedule.
+     * It is due again on the day of the run, unless the run recorded a reminder for it before failing
+     * @param regulatoryCase The case
+     * @param today The evaluation date of the reminder run
+     */
+    private void rescheduleAfterFailure(RegulatoryCase regulatoryCase, LocalDate today) {
+        LocalDate lastReminder = readCase(regulatoryCase, RegulatoryCase::getLastReminderDate);
+        LocalDate dueDate = lastReminder != null ? lastReminder.plusDays(REMINDER_INTERVAL_DAYS) : today;
+        reminderScheduler.schedule(regulatoryCase, dueDate.isAfter(today) ? dueDate : today);
+    }
+    
+    /**
+     * Sends a reminder for a case whose scheduled reminder is due, without scheduling the next one
+     * and without waiting for the journal to become durable
+     * @param regulatoryCase The case
+     * @param today The evaluation date of the reminder run
+     * @return The journal position to wait for, 0 without a journal, or -1 if no reminder was sent
+     */
+    private long remind(RegulatoryCase regulatoryCase, LocalDate today) {
+        ReentrantLock lock = lockFor(regulatoryCase);
+        lock.lock();
+        regulatoryCase.beginMutation();
+        try {
+            if (regulatoryCase.isArchived()) {
+                return -1;
             }
+            
+            // A reminder sent since this entry was scheduled makes the entry stale
+            LocalDate lastReminder = regulatoryCase.getLastReminderDate();
+            if (lastReminder != null && today.isBefore(lastReminder.plusDays(REMINDER_INTERVAL_DAYS))) {
+                return -1;
+            }
+            
+            // Paid or closed cases are dropped from the schedule for good; a stale entry
+            // scheduled after the case lock is released is skipped by the check above
+            byte[] record = prepareRecord(() -> journal.reminderSent(regulatoryCase, today));
+            CaseStatus previousStatus = regulatoryCase.getStatus();
+            if (!regulatoryCase.sendReminder(today)) {
+                return -1;
+            }
+            repository.update(regulatoryCase);
+            publish(CaseEventType.REMINDER_SENT, regulatoryCase, previousStatus, 0);
+            long journalPosition = 0;
+            if (record != null) {
+                journalPosition = journal.append(record);
+                regulatoryCase.setJournalPosition(journalPosition);
+            }
+            return journalPosition;
+        } finally {
+            regulatoryCase.endMutation();
+            lock.unlock();
         }
-        
-        return remindersSent;
     }
     
     /**
@@ -151,9 +1447,16 @@ public class CaseManager {
      * @return List of cases with the specified status
      */
     public List<RegulatoryCase> getCasesByStatus(CaseStatus status) {
-        return cases.values().stream()
-                .filter(c -> c.getStatus() == status)
-                .collect(Collectors.toList());
+        return new ArrayList<>(casesByStatus.get(status).values());
+    }
+    
+    /**
+     * Gets cases by their offense type
+     * @param offenseType The offense type to filter by
+     * @return List of cases with the specified offense type
+     */
+    public List<RegulatoryCase> getCasesByOffenseType(OffenseType offenseType) {
+        return new ArrayList<>(casesByOffenseType.get(offenseType).values());
     }
     
     /**
@@ -162,16 +1465,21 @@ public class CaseManager {
      * @return List of cases approaching statute of limitations
      */
     public List<RegulatoryCase> getCasesApproachingStatuteOfLimitations(int warningDays) {
-        LocalDate warningDate = LocalDate.now().plusDays(warningDays);
+        return new ArrayList<>(casesApproachingStatuteOfLimitations(warningDays));
+    }
+    
+    /**
+     * Gets a live view of the cases that are approaching statute of limitations, ordered by expiry date.
+     * Iterating the view copies nothing; it reflects cases opened or closed while it is iterated
+     * @param warningDays Days before expiration to include in warning list
+     * @return Unmodifiable view of the cases approaching statute of limitations
+     */
+    public Collection<RegulatoryCase> casesApproachingStatuteOfLimitations(int warningDays) {
+        LocalDate warningDate = TimeSource.today().plusDays(warningDays);
         
-        return cases.values().stream()
-                .filter(c -> c.getStatus() != CaseStatus.CLOSED)
-                .filter(c -> {
-                    LocalDate expirationDate = c.getOffense().getOffenseDate()
-                            .plusMonths(STATUTE_OF_LIMITATIONS_MONTHS);
-                    return !expirationDate.isAfter(warningDate);
-                })
-                .collect(Collectors.toList());
+        // Every key of the warning date sorts before the first key of the following day
+        ExpiryKey upperBound = new ExpiryKey(warningDate.plusDays(1), "");
+        return Collections.unmodifiableCollection(openCasesByExpiry.headMap(upperBound).values());
     }
     
     /**
@@ -179,7 +1487,7 @@ public class CaseManager {
      * @return List of all cases
      */
     public List<RegulatoryCase> getAllCases() {
-        return new ArrayList<>(cases.values());
+        return new ArrayList<>(repository.findAll());
     }
     
     /**
@@ -188,9 +1496,16 @@ public class CaseManager {
      * @return List of cases for the offender
      */
     public List<RegulatoryCase> getCasesByOffender(String offenderId) {
-        return cases.values().stream()
-                .filter(c -> c.getOffense().getOffender().getId().equals(offenderId))
-                .collect(Collectors.toList());
+        Map<String, RegulatoryCase> offenderCases = casesByOffender.get(offenderId);
+        return offenderCases == null ? new ArrayList<>() : new ArrayList<>(offenderCases.values());
+    }
+    
+    /**
+     * Gets the running report aggregates
+     * @return The case statistics
+     */
+    public CaseStatistics getStatistics() {
+        return statistics;
     }
     
     /**
@@ -199,6 +1514,155 @@ public class CaseManager {
      * @return The offender or null if not found
      */
     public Offender getOffenderById(String offenderId) {
-        return offenders.get(offenderId);
+        return repository.findOffenderById(offenderId);
+    }
+    
+    /**
+     * Reminds a range of the due cases of a reminder run, splitting it in halves down to
+     * REMINDER_PARTITION_SIZE cases; the results of the halves are merged
+     */
+    private class ReminderSweep extends RecursiveTask<ReminderRun> {
+        private static final long serialVersionUID = 1L;
+        
+        private final List<RegulatoryCase> due;
+        private final int from;
+        private final int to;
+        private final LocalDate today;
+        
+        ReminderSweep(List<RegulatoryCase> due, int from, int to, LocalDate today) {
+            this.due = due;
+            this.from = from;
+            this.to = to;
+            this.today = today;
+        }
+        
+        @Override
+        protected ReminderRun compute() {
+            if (to - from > REMINDER_PARTITION_SIZE) {
+                int middle = (from + to) >>> 1;
+                ReminderSweep firstHalf = new ReminderSweep(due, from, middle, today);
+                firstHalf.fork();
+                ReminderRun secondHalf = new ReminderSweep(due, middle, to, today).compute();
+                return firstHalf.join().merge(secondHalf);
+            }
+            
+            List<RegulatoryCase> reminded = new ArrayList<>();
+            long journalPosition = 0;
+            int next = from;
+            try {
+                for (; next < to; next++) {
+                    RegulatoryCase regulatoryCase = due.get(next);
+                    long position = remind(regulatoryCase, today);
+                    if (position >= 0) {
+                        reminded.add(regulatoryCase);
+                        journalPosition = Math.max(journalPosition, position);
+                    }
+                }
+            } finally {
+                // One scheduler update per partition instead of one per case
+                reminderScheduler.scheduleAll(reminded, today.plusDays(REMINDER_INTERVAL_DAYS));
+                for (int i = next; i < to; i++) {
+                    rescheduleAfterFailure(due.get(i), today);
+                }
+            }
+            return new ReminderRun(reminded.size(), journalPosition);
+        }
+    }
+    
+    /**
+     * Outcome of reminding part of the due cases of a reminder run
+     */
+    @Value
+    private static class ReminderRun {
+        int remindersSent;
+        
+        // Journal position after the last reminder journaled, 0 if none was
+        long journalPosition;
+        
+        /**
+         * Combines the outcomes of two parts of a reminder run
+         * @param other The outcome of the other part
+         * @return The combined outcome
+         */
+        ReminderRun merge(ReminderRun other) {
+            return new ReminderRun(remindersSent + other.remindersSent, Math.max(journalPosition, other.journalPosition));
+        }
+    }
+    
+    /**
+     * Makes a change to a case based on a read of the case
+     * @param <S> The type of what was read
+     * @param <T> The type of the result
+     */
+    @FunctionalInterface
+    public interface VersionedChange<S, T> {
+        /**
+         * @param read What was read
+         * @param version The version of the case it was read at, to be passed on as expected version
+         * @return The result of the change
+         */
+        T apply(S read, long version);
+    }
+    
+    /**
+     * Thrown when a change is refused because the case changed since the read it is based on.
+     * Reading the case again and retrying may succeed, unlike for other IllegalStateExceptions
+     */
+    @Getter
+    public static class VersionConflictException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+        
+        private final String caseId;
+        private final long expectedVersion;
+        private final long currentVersion;
+        
+        VersionConflictException(RegulatoryCase regulatoryCase, long expectedVersion) {
+            super("Case " + regulatoryCase.getCaseId() + " is at version " + regulatoryCase.getVersion()
+                    + ", not " + expectedVersion);
+            this.caseId = regulatoryCase.getCaseId();
+            this.expectedVersion = expectedVersion;
+            this.currentVersion = regulatoryCase.getVersion();
+        }
+    }
+    
+    /**
+     * A value read from a case with the version of the case it was read at
+     */
+    @Value
+    private static class VersionedRead<S> {
+        S value;
+        long version;
+    }
+    
+    /**
+     * A case written to the archive, with the size of its history at that time
+     */
+    @Value
+    private static class ArchivedCase {
+        RegulatoryCase regulatoryCase;
+        long offset;
+        int historySize;
+    }
+    
+    /**
+     * Key of the statute of limitations index, ordered by expiry date and then case ID
+     */
+    @Value
+    private static class ExpiryKey implements Comparable<ExpiryKey> {
+        @NonNull
+        LocalDate expiryDate;
+        
+        @NonNull
+        String caseId;
+        
+        static ExpiryKey of(RegulatoryCase regulatoryCase) {
+            return new ExpiryKey(regulatoryCase.getStatuteExpiryDate(), regulatoryCase.getCaseId());
+        }
+        
+        @Override
+        public int compareTo(ExpiryKey other) {
+            int byDate = expiryDate.compareTo(other.expiryDate);
+            return byDate != 0 ? byDate : caseId.compareTo(other.caseId);
+        }
     }
 }
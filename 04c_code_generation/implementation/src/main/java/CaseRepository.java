@@ -0,0 +1,73 @@
+import java.util.Collection;
+
+/**
+ * Storage of the cases and offenders of a CaseManager.
+ * <p>
+ * The CaseManager works on the case objects the repository hands out and keeps its indexes on them,
+ * so a repository returns the same object for the same case for as long as it is open. Changes are
+ * handed to the repository while the case's lock is held; a repository may defer writing them until
+ * flush(), which the CaseManager calls before a mutating call returns.
+ */
+public interface CaseRepository {
+    /**
+     * Finds a case by its ID
+     * @param caseId The case ID
+     * @return The case or null if not found
+     */
+    RegulatoryCase findById(String caseId);
+
+    /**
+     * Gets all cases
+     * @return The cases, in no particular order
+     */
+    Collection<RegulatoryCase> findAll();
+
+    /**
+     * Gets the number of cases
+     * @return The number of cases
+     */
+    int size();
+
+    /**
+     * Adds a new case; its offender must have been added before
+     * @param regulatoryCase The case
+     */
+    void add(RegulatoryCase regulatoryCase);
+
+    /**
+     * Records that a stored case has changed
+     * @param regulatoryCase The case
+     */
+    void update(RegulatoryCase regulatoryCase);
+
+    /**
+     * Removes a case that has been moved to the case archive; its offender stays
+     * @param regulatoryCase The case
+     */
+    void remove(RegulatoryCase regulatoryCase);
+
+    /**
+     * Finds an offender by ID
+     * @param offenderId The offender ID
+     * @return The offender or null if not found
+     */
+    Offender findOffenderById(String offenderId);
+
+    /**
+     * Gets all offenders
+     * @return The offenders, in no particular order
+     */
+    Collection<Offender> findAllOffenders();
+
+    /**
+     * Adds an offender unless one with the same ID exists
+     * @param offender The offender
+     * @return The existing offender with the same ID, or null if the offender was added
+     */
+    Offender addOffenderIfAbsent(Offender offender);
+
+    /**
+     * Writes all changes handed to the repository so far
+     */
+    void flush();
+}
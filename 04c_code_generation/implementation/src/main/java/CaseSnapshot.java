@@ -0,0 +1,540 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compact binary snapshot of all offenders and cases, taken at a journal position.
+ * Startup loads the latest snapshot and replays only the journal records after that position.
+ * <p>
+ * A snapshot is taken while cases keep changing: every offender is written under its monitor
+ * and every case under its case lock. A case is only restored if its offender's history, as
+ * written in the snapshot, lists it; cases created after their offender was written have all
+ * of their journal records after the snapshot position and are rebuilt by the replay instead.
+ * Derived state (indexes, offense counters, statistics and reminder schedule) is not stored
+ * but rebuilt while the cases are restored.
+ * <p>
+ * Layout: magic, version, journal position, the offender section, the case section, magic.
+ * Each section is a sequence of entries, each preceded by a 1 byte, and is ended by a 0 byte.
+ */
+@Slf4j
+public class CaseSnapshot {
+    private static final int MAGIC = 0x524F4D53;
+    private static final int VERSION = 1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    // Type tags of action arguments
+    private static final byte NULL_ARGUMENT = 0;
+    private static final byte STRING_ARGUMENT = 1;
+    private static final byte LONG_ARGUMENT = 2;
+    private static final byte CASE_STATUS_ARGUMENT = 3;
+    private static final byte OFFENSE_TYPE_ARGUMENT = 4;
+    private static final byte PAYMENT_METHOD_ARGUMENT = 5;
+
+    // Mapping the file in windows keeps snapshots larger than 2 GB readable
+    private static final long MAPPING_WINDOW_SIZE = 1L << 30;
+
+    private static final CaseStatus[] CASE_STATUSES = CaseStatus.values();
+    private static final OffenseType[] OFFENSE_TYPES = OffenseType.values();
+    private static final PaymentStatus[] PAYMENT_STATUSES = PaymentStatus.values();
+    private static final PaymentMethod[] PAYMENT_METHODS = PaymentMethod.values();
+    private static final ActionType[] ACTION_TYPES = ActionType.values();
+    private static final ActionTemplate[] ACTION_TEMPLATES = ActionTemplate.values();
+
+    private CaseSnapshot() {
+    }
+
+    /**
+     * Starts writing a snapshot. Nothing is visible at the target path until the writer is committed
+     * @param file The snapshot file
+     * @param journalPosition The journal position the snapshot reflects at least
+     * @return The writer
+     * @throws IOException if the temporary file cannot be created
+     */
+    public static Writer create(Path file, long journalPosition) throws IOException {
+        return new Writer(file, journalPosition);
+    }
+
+    /**
+     * Loads a snapshot, handing every restorable case to a consumer.
+     * Cases are restored offender by offender in the order of the offender's history,
+     * with the history already linked
+     * @param file The snapshot file
+     * @param restorer Receives the restored cases
+     * @return The journal position to replay from
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static long load(Path file, Consumer<RegulatoryCase> restorer) throws IOException {
+        try (Reader in = new Reader(file)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a case snapshot");
+            }
+            long journalPosition = in.readLong();
+
+            Map<String, Offender> offenders = new HashMap<>();
+            Map<Offender, String[]> histories = new HashMap<>();
+            List<Offender> offenderOrder = new ArrayList<>();
+            while (in.readByte() != 0) {
+                Offender offender = new Offender(in.readString(), in.readString(), in.readDate());
+                offender.setId(in.readString());
+                String[] history = new String[in.readInt()];
+                for (int i = 0; i < history.length; i++) {
+                    history[i] = in.readString();
+                }
+                offenders.put(offender.getId(), offender);
+                histories.put(offender, history);
+                offenderOrder.add(offender);
+            }
+
+            Map<String, RegulatoryCase> cases = new HashMap<>();
+            while (in.readByte() != 0) {
+                RegulatoryCase regulatoryCase = readCaseRecord(in, offenders::get);
+                if (regulatoryCase != null) {
+                    cases.put(regulatoryCase.getCaseId(), regulatoryCase);
+                }
+            }
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is truncated");
+            }
+
+            int restored = 0;
+            for (Offender offender : offenderOrder) {
+                for (String caseId : histories.get(offender)) {
+                    RegulatoryCase regulatoryCase = cases.get(caseId);
+                    if (regulatoryCase != null) {
+                        offender.addCaseToHistory(regulatoryCase);
+                        restorer.accept(regulatoryCase);
+                        restored++;
+                    }
+                }
+            }
+            log.info("Restored {} cases of {} offenders from {} at journal position {}",
+                    restored, offenderOrder.size(), file, journalPosition);
+            return journalPosition;
+        }
+    }
+
+    /**
+     * Reads a case written by writeCaseRecord
+     * @param in The input
+     * @param offenders Looks up the offender of the case by ID
+     * @return The case, not yet linked into its offender's history, or null if the offender is unknown
+     * @throws IOException if the case cannot be read
+     */
+    static RegulatoryCase readCaseRecord(Reader in, Function<String, Offender> offenders) throws IOException {
+        String caseId = in.readString();
+        Offender offender = offenders.apply(in.readString());
+
+        String offenseId = in.readString();
+        String location = in.readString();
+        LocalDate offenseDate = in.readDate();
+        OffenseType offenseType = OFFENSE_TYPES[in.readByte()];
+        String evidenceDescription = in.readString();
+
+        Fine fine = new Fine(in.readLong(), 0);
+        fine.setId(in.readString());
+        fine.setIssueDate(in.readDate());
+        fine.setPaymentDeadline(in.readDate());
+        fine.setPaymentStatus(PAYMENT_STATUSES[in.readByte()]);
+        fine.setTotalPaidCents(in.readLong());
+        int paymentCount = in.readInt();
+        List<Payment> payments = new ArrayList<>(paymentCount);
+        for (int i = 0; i < paymentCount; i++) {
+            Payment payment = new Payment(in.readLong(), PAYMENT_METHODS[in.readByte()]);
+            payment.setId(in.readString());
+            payment.setPaymentDate(in.readDate());
+            payment.setReferenceNumber(in.readString());
+            payments.add(payment);
+        }
+        fine.setPaymentHistory(payments);
+
+        Appeal appeal = null;
+        if (in.readByte() != 0) {
+            appeal = new Appeal(in.readString());
+            appeal.setId(in.readString());
+            appeal.setFilingDate(in.readDate());
+            appeal.setDecisionDate(in.readDate());
+            appeal.setApproved(in.readByte() != 0);
+            appeal.setDecisionReason(in.readString());
+            appeal.setReviewedBy(in.readString());
+            int documentCount = in.readInt();
+            for (int i = 0; i < documentCount; i++) {
+                appeal.addSupportingDocument(in.readString());
+            }
+        }
+
+        CaseStatus status = CASE_STATUSES[in.readByte()];
+        LocalDate creationDate = in.readDate();
+        LocalDate closedDate = in.readDate();
+        LocalDate lastReminderDate = in.readDate();
+        LocalDate statuteExpiryDate = in.readDate();
+        long journalPosition = in.readLong();
+
+        int actionCount = in.readInt();
+        List<CaseAction> history = new ArrayList<>(actionCount);
+        for (int i = 0; i < actionCount; i++) {
+            history.add(readAction(in));
+        }
+
+        if (offender == null) {
+            // The offender was registered after the offender section was written; replay rebuilds the case
+            return null;
+        }
+
+        Offense offense = new Offense(offender, location, offenseDate, offenseType);
+        offense.setId(offenseId);
+        offense.setEvidenceDescription(evidenceDescription);
+
+        RegulatoryCase regulatoryCase = new RegulatoryCase(offense, fine);
+        regulatoryCase.setCaseId(caseId);
+        regulatoryCase.setAppeal(appeal);
+        regulatoryCase.setStatus(status);
+        regulatoryCase.setCreationDate(creationDate);
+        regulatoryCase.setClosedDate(closedDate);
+        regulatoryCase.setLastReminderDate(lastReminderDate);
+        regulatoryCase.setStatuteExpiryDate(statuteExpiryDate);
+        regulatoryCase.setJournalPosition(journalPosition);
+        regulatoryCase.setCaseHistory(history);
+        return regulatoryCase;
+    }
+
+    /**
+     * Reads a case action written by writeAction()
+     * @param in The input
+     * @return The action
+     * @throws IOException if the action cannot be read
+     */
+    static CaseAction readAction(Reader in) throws IOException {
+        ActionType actionType = ACTION_TYPES[in.readByte()];
+        ActionTemplate template = ACTION_TEMPLATES[in.readByte()];
+        long timestamp = in.readLong();
+        String performedBy = in.readString();
+        Object[] arguments = new Object[template.getArgumentCount()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = readArgument(in);
+        }
+        CaseAction action = new CaseAction(actionType, template, timestamp, arguments);
+        action.setPerformedBy(performedBy);
+        return action;
+    }
+
+    private static Object readArgument(Reader in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL_ARGUMENT:
+                return null;
+            case STRING_ARGUMENT:
+                return in.readString();
+            case LONG_ARGUMENT:
+                return in.readLong();
+            case CASE_STATUS_ARGUMENT:
+                return CASE_STATUSES[in.readByte()];
+            case OFFENSE_TYPE_ARGUMENT:
+                return OFFENSE_TYPES[in.readByte()];
+            case PAYMENT_METHOD_ARGUMENT:
+                return PAYMENT_METHODS[in.readByte()];
+            default:
+                throw new IOException("Unknown action argument tag " + tag);
+        }
+    }
+
+    /**
+     * Writes a case with its fine, payments, appeal and history, but not its offender
+     * @param out The output
+     * @param regulatoryCase The case
+     * @throws IOException if the case cannot be written
+     */
+    static void writeCaseRecord(DataOutput out, RegulatoryCase regulatoryCase) throws IOException {
+        Offense offense = regulatoryCase.getOffense();
+        Fine fine = regulatoryCase.getFine();
+        Appeal appeal = regulatoryCase.getAppeal();
+
+        writeString(out, regulatoryCase.getCaseId());
+        writeString(out, offense.getOffender().getId());
+
+        writeString(out, offense.getId());
+        writeString(out, offense.getLocation());
+        writeDate(out, offense.getOffenseDate());
+        out.writeByte(offense.getOffenseType().ordinal());
+        writeString(out, offense.getEvidenceDescription());
+
+        out.writeLong(fine.getAmountCents());
+        writeString(out, fine.getId());
+        writeDate(out, fine.getIssueDate());
+        writeDate(out, fine.getPaymentDeadline());
+        out.writeByte(fine.getPaymentStatus().ordinal());
+        out.writeLong(fine.getTotalPaidCents());
+        out.writeInt(fine.getPaymentHistory().size());
+        for (Payment payment : fine.getPaymentHistory()) {
+            out.writeLong(payment.getAmountCents());
+            out.writeByte(payment.getPaymentMethod().ordinal());
+            writeString(out, payment.getId());
+            writeDate(out, payment.getPaymentDate());
+            writeString(out, payment.getReferenceNumber());
+        }
+
+        out.writeByte(appeal != null ? 1 : 0);
+        if (appeal != null) {
+            writeString(out, appeal.getReason());
+            writeString(out, appeal.getId());
+            writeDate(out, appeal.getFilingDate());
+            writeDate(out, appeal.getDecisionDate());
+            out.writeByte(appeal.isApproved() ? 1 : 0);
+            writeString(out, appeal.getDecisionReason());
+            writeString(out, appeal.getReviewedBy());
+            out.writeInt(appeal.getSupportingDocuments().size());
+            for (String document : appeal.getSupportingDocuments()) {
+                writeString(out, document);
+            }
+        }
+
+        out.writeByte(regulatoryCase.getStatus().ordinal());
+        writeDate(out, regulatoryCase.getCreationDate());
+        writeDate(out, regulatoryCase.getClosedDate());
+        writeDate(out, regulatoryCase.getLastReminderDate());
+        writeDate(out, regulatoryCase.getStatuteExpiryDate());
+        out.writeLong(regulatoryCase.getJournalPosition());
+
+        List<CaseAction> history = regulatoryCase.getCaseHistory();
+        out.writeInt(history.size());
+        for (CaseAction action : history) {
+            writeAction(out, action);
+        }
+    }
+
+    /**
+     * Writes a case action
+     * @param out The output
+     * @param action The action
+     * @throws IOException if the action cannot be written
+     */
+    static void writeAction(DataOutput out, CaseAction action) throws IOException {
+        out.writeByte(action.getActionType().ordinal());
+        out.writeByte(action.getTemplate().ordinal());
+        out.writeLong(action.getTimestamp());
+        writeString(out, action.getPerformedBy());
+        for (Object argument : action.getArguments()) {
+            writeArgument(out, argument);
+        }
+    }
+
+    private static void writeArgument(DataOutput out, Object argument) throws IOException {
+        if (argument == null) {
+            out.writeByte(NULL_ARGUMENT);
+        } else if (argument instanceof String) {
+            out.writeByte(STRING_ARGUMENT);
+            writeString(out, (String) argument);
+        } else if (argument instanceof Long) {
+            out.writeByte(LONG_ARGUMENT);
+            out.writeLong((Long) argument);
+        } else if (argument instanceof CaseStatus) {
+            out.writeByte(CASE_STATUS_ARGUMENT);
+            out.writeByte(((CaseStatus) argument).ordinal());
+        } else if (argument instanceof OffenseType) {
+            out.writeByte(OFFENSE_TYPE_ARGUMENT);
+            out.writeByte(((OffenseType) argument).ordinal());
+        } else if (argument instanceof PaymentMethod) {
+            out.writeByte(PAYMENT_METHOD_ARGUMENT);
+            out.writeByte(((PaymentMethod) argument).ordinal());
+        } else {
+            throw new IllegalArgumentException("Unsupported action argument type " + argument.getClass());
+        }
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeDate(DataOutput out, LocalDate value) throws IOException {
+        out.writeInt(value != null ? Math.toIntExact(value.toEpochDay()) : NO_DATE);
+    }
+
+    /**
+     * Streams a snapshot into a temporary file next to the target
+     * and moves it into place when committed
+     */
+    public static class Writer implements Closeable {
+        private final Path file;
+        private final Path temporaryFile;
+        private final DataOutputStream out;
+        private boolean offendersEnded;
+        private boolean committed;
+
+        private Writer(Path file, long journalPosition) throws IOException {
+            this.file = file;
+            this.temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalPosition);
+        }
+
+        /**
+         * Writes an offender with the IDs of the cases in its history.
+         * The caller must hold the offender's monitor; all offenders are written before the first case
+         * @param offender The offender
+         * @throws IOException if the snapshot cannot be written
+         */
+        public void writeOffender(Offender offender) throws IOException {
+            if (offendersEnded) {
+                throw new IllegalStateException("Offenders must be written before cases");
+            }
+            List<RegulatoryCase> history = offender.getOffenseHistory();
+            out.writeByte(1);
+            writeString(out, offender.getFullName());
+            writeString(out, offender.getAddress());
+            writeDate(out, offender.getDateOfBirth());
+            writeString(out, offender.getId());
+            out.writeInt(history.size());
+            for (RegulatoryCase regulatoryCase : history) {
+                writeString(out, regulatoryCase.getCaseId());
+            }
+        }
+
+        /**
+         * Writes a case. The caller must hold the case's lock
+         * @param regulatoryCase The case
+         * @throws IOException if the snapshot cannot be written
+         */
+        public void writeCase(RegulatoryCase regulatoryCase) throws IOException {
+            endOffenders();
+            out.writeByte(1);
+            writeCaseRecord(out, regulatoryCase);
+        }
+
+        /**
+         * Finishes the snapshot, forces it to disk and atomically replaces the previous snapshot
+         * @throws IOException if the snapshot cannot be written or moved
+         */
+        public void commit() throws IOException {
+            endOffenders();
+            out.writeByte(0);
+            out.writeInt(MAGIC);
+            out.close();
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /**
+         * Discards the snapshot unless it was committed
+         * @throws IOException if the temporary file cannot be deleted
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+
+        private void endOffenders() throws IOException {
+            if (!offendersEnded) {
+                out.writeByte(0);
+                offendersEnded = true;
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot through read-only memory mappings of consecutive windows of the file,
+     * or a record held in a buffer from the buffer's position to its limit
+     */
+    static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private ByteBuffer window;
+
+        Reader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.size = channel.size();
+            map(0);
+        }
+
+        Reader(ByteBuffer buffer) {
+            this.channel = null;
+            this.size = buffer.remaining();
+            this.window = buffer;
+        }
+
+        byte readByte() throws IOException {
+            ensure(Byte.BYTES);
+            return window.get();
+        }
+
+        int readInt() throws IOException {
+            ensure(Integer.BYTES);
+            return window.getInt();
+        }
+
+        long readLong() throws IOException {
+            ensure(Long.BYTES);
+            return window.getLong();
+        }
+
+        String readString() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                return null;
+            }
+            ensure(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        LocalDate readDate() throws IOException {
+            int epochDay = readInt();
+            return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                if (channel != null) {
+                    map(windowStart + window.position());
+                }
+                if (window.remaining() < bytes) {
+                    throw new IOException("Unexpected end of snapshot");
+                }
+            }
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_WINDOW_SIZE, size - position));
+        }
+    }
+}
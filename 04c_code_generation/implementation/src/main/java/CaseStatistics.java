@@ -0,0 +1,101 @@
+import java.time.Month;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running aggregates over all cases, maintained incrementally as cases are created and paid.
+ * Counters and sums (in cents) are primitive slots indexed by Month, PaymentStatus and OffenseType ordinal,
+ * so reports can be rendered without visiting the cases themselves.
+ */
+public class CaseStatistics {
+    private final AtomicLongArray monthlyCounts = new AtomicLongArray(Month.values().length);
+    private final AtomicLongArray monthlyFines = new AtomicLongArray(Month.values().length);
+    
+    private final AtomicLongArray paymentStatusCounts = new AtomicLongArray(PaymentStatus.values().length);
+    private final AtomicLongArray paymentStatusAmounts = new AtomicLongArray(PaymentStatus.values().length);
+    
+    private final AtomicLongArray offenseTypeCounts = new AtomicLongArray(OffenseType.values().length);
+    private final AtomicLongArray offenseTypeAmounts = new AtomicLongArray(OffenseType.values().length);
+    
+    /**
+     * Adds a newly created case to the aggregates
+     * @param regulatoryCase The new case
+     */
+    public void recordNewCase(RegulatoryCase regulatoryCase) {
+        Fine fine = regulatoryCase.getFine();
+        long amountCents = fine.getAmountCents();
+        int month = regulatoryCase.getCreationDate().getMonth().ordinal();
+        int paymentStatus = fine.getPaymentStatus().ordinal();
+        int offenseType = regulatoryCase.getOffense().getOffenseType().ordinal();
+        
+        monthlyCounts.incrementAndGet(month);
+        monthlyFines.addAndGet(month, amountCents);
+        paymentStatusCounts.incrementAndGet(paymentStatus);
+        paymentStatusAmounts.addAndGet(paymentStatus, amountCents);
+        offenseTypeCounts.incrementAndGet(offenseType);
+        offenseTypeAmounts.addAndGet(offenseType, amountCents);
+    }
+    
+    /**
+     * Moves a fine between payment status buckets
+     * @param oldStatus The previous payment status
+     * @param newStatus The new payment status
+     * @param amountCents The fine amount in cents
+     */
+    public void paymentStatusChanged(PaymentStatus oldStatus, PaymentStatus newStatus, long amountCents) {
+        if (oldStatus == newStatus) {
+            return;
+        }
+        paymentStatusCounts.decrementAndGet(oldStatus.ordinal());
+        paymentStatusAmounts.addAndGet(oldStatus.ordinal(), -amountCents);
+        paymentStatusCounts.incrementAndGet(newStatus.ordinal());
+        paymentStatusAmounts.addAndGet(newStatus.ordinal(), amountCents);
+    }
+    
+    /**
+     * @param month The month of case creation
+     * @return The number of cases created in the month
+     */
+    public long getCaseCount(Month month) {
+        return monthlyCounts.get(month.ordinal());
+    }
+    
+    /**
+     * @param month The month of case creation
+     * @return The sum of fines in cents of the cases created in the month
+     */
+    public long getTotalFinesCents(Month month) {
+        return monthlyFines.get(month.ordinal());
+    }
+    
+    /**
+     * @param status The payment status
+     * @return The number of fines currently in the payment status
+     */
+    public long getCaseCount(PaymentStatus status) {
+        return paymentStatusCounts.get(status.ordinal());
+    }
+    
+    /**
+     * @param status The payment status
+     * @return The sum of fines in cents currently in the payment status
+     */
+    public long getTotalAmountCents(PaymentStatus status) {
+        return paymentStatusAmounts.get(status.ordinal());
+    }
+    
+    /**
+     * @param offenseType The offense type
+     * @return The number of cases of the offense type
+     */
+    public long getCaseCount(OffenseType offenseType) {
+        return offenseTypeCounts.get(offenseType.ordinal());
+    }
+    
+    /**
+     * @param offenseType The offense type
+     * @return The sum of fines in cents of the cases of the offense type
+     */
+    public long getTotalFinesCents(OffenseType offenseType) {
+        return offenseTypeAmounts.get(offenseType.ordinal());
+    }
+}
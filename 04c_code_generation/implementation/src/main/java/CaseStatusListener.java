@@ -0,0 +1,13 @@
+/**
+ * Receives notifications whenever a regulatory case changes its status
+ */
+@FunctionalInterface
+public interface CaseStatusListener {
+    /**
+     * Called after the status of a case has been changed
+     * @param regulatoryCase The case whose status changed
+     * @param oldStatus The previous status
+     * @param newStatus The new status
+     */
+    void statusChanged(RegulatoryCase regulatoryCase, CaseStatus oldStatus, CaseStatus newStatus);
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parsing helpers for CSV and TSV files with a header row.
+ * Fields are separated by tabs if the header contains a tab, and by commas otherwise; comma separated
+ * fields may be enclosed in double quotes, in which case the delimiter may appear in them and a doubled
+ * quote stands for one quote
+ */
+final class DelimitedText {
+    private DelimitedText() {
+    }
+
+    /**
+     * Detects the field delimiter of a file from its header
+     * @param header The header row
+     * @return A tab or a comma
+     */
+    static char delimiterOf(String header) {
+        return header.indexOf('\t') >= 0 ? '\t' : ',';
+    }
+
+    /**
+     * Maps the lower case column names of a header to their positions
+     * @param header The header row
+     * @param delimiter The field delimiter
+     * @param requiredColumns The columns the header must contain
+     * @return The column positions; of duplicate names the first one counts
+     * @throws IOException if a required column is missing
+     */
+    static Map<String, Integer> columnsOf(String header, char delimiter, String... requiredColumns) throws IOException {
+        List<String> names = split(header, delimiter);
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            columns.putIfAbsent(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        for (String column : requiredColumns) {
+            if (!columns.containsKey(column)) {
+                throw new IOException("Header lacks the column " + column);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Splits a row into fields
+     * @param line The row
+     * @param delimiter The field delimiter
+     * @return The fields
+     */
+    static List<String> split(String line, char delimiter) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '"' && delimiter != '\t' && field.length() == 0) {
+                quoted = true;
+            } else {
+                field.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
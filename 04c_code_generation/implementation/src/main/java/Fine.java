@@ -1,31 +1,34 @@
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 
 /**
  * Represents a monetary fine associated with a regulatory offense
  */
 @Data
 public class Fine {
-    private final String id = UUID.randomUUID().toString();
-    private double amount;
+    @Setter(AccessLevel.PACKAGE)
+    private String id = Ids.next();
+    // Amounts are in cents
+    private long amountCents;
     private LocalDate issueDate;
     private LocalDate paymentDeadline;
     private PaymentStatus paymentStatus = PaymentStatus.UNPAID;
     private List<Payment> paymentHistory = new ArrayList<>();
-    private double totalPaid = 0.0;
+    private long totalPaidCents = 0;
     
     /**
      * Creates a new fine with the specified amount and calculates the payment deadline
-     * @param amount The monetary amount of the fine
+     * @param amountCents The monetary amount of the fine in cents
      * @param daysToPay The number of days allowed for payment
      */
-    public Fine(double amount, int daysToPay) {
-        this.amount = amount;
-        this.issueDate = LocalDate.now();
+    public Fine(long amountCents, int daysToPay) {
+        this.amountCents = amountCents;
+        this.issueDate = TimeSource.today();
         this.paymentDeadline = issueDate.plusDays(daysToPay);
     }
     
@@ -35,7 +38,7 @@ public class Fine {
      */
     public void recordPayment(Payment payment) {
         paymentHistory.add(payment);
-        totalPaid += payment.getAmount();
+        totalPaidCents += payment.getAmountCents();
         updatePaymentStatus();
     }
     
@@ -43,9 +46,9 @@ public class Fine {
      * Updates the payment status based on the total amount paid
      */
     private void updatePaymentStatus() {
-        if (totalPaid >= amount) {
+        if (totalPaidCents >= amountCents) {
             paymentStatus = PaymentStatus.PAID;
-        } else if (totalPaid > 0) {
+        } else if (totalPaidCents > 0) {
             paymentStatus = PaymentStatus.PARTIALLY_PAID;
         } else {
             paymentStatus = PaymentStatus.UNPAID;
@@ -57,21 +60,31 @@ public class Fine {
      * @return true if the current date is after the payment deadline and the fine is not fully paid
      */
     public boolean isOverdue() {
-        return LocalDate.now().isAfter(paymentDeadline) && paymentStatus != PaymentStatus.PAID;
+        return isOverdue(TimeSource.today());
+    }
+    
+    /**
+     * Checks if the payment is overdue on a given date
+     * @param today The date to check against
+     * @return true if the date is after the payment deadline and the fine is not fully paid
+     */
+    public boolean isOverdue(LocalDate today) {
+        return today.isAfter(paymentDeadline) && paymentStatus != PaymentStatus.PAID;
     }
     
     /**
      * Gets the remaining balance to be paid
-     * @return The amount remaining to be paid
+     * @return The amount remaining to be paid in cents
      */
-    public double getRemainingBalance() {
-        return Math.max(0, amount - totalPaid);
+    public long getRemainingBalanceCents() {
+        return Math.max(0, amountCents - totalPaidCents);
     }
     
     @Override
     public String toString() {
-        return "Fine [Amount=$" + amount + ", Issued=" + issueDate + 
+        return "Fine [Amount=$" + Money.format(amountCents) + ", Issued=" + issueDate + 
                ", Due=" + paymentDeadline + ", Status=" + paymentStatus + 
-               ", Paid=$" + totalPaid + ", Remaining=$" + getRemainingBalance() + "]";
+               ", Paid=$" + Money.format(totalPaidCents) +
+               ", Remaining=$" + Money.format(getRemainingBalanceCents()) + "]";
     }
 }
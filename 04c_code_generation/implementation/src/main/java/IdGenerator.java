@@ -0,0 +1,11 @@
+/**
+ * Source of unique identifiers for cases and their related entities
+ */
+@FunctionalInterface
+public interface IdGenerator {
+    /**
+     * Generates the next identifier
+     * @return A new unique identifier
+     */
+    String nextId();
+}
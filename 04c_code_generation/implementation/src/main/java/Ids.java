@@ -0,0 +1,25 @@
+/**
+ * Holds the identifier generator used by all entities
+ */
+public final class Ids {
+    private static volatile IdGenerator generator = new TimeOrderedIdGenerator();
+    
+    private Ids() {
+    }
+    
+    /**
+     * Generates the next identifier with the configured generator
+     * @return A new unique identifier
+     */
+    public static String next() {
+        return generator.nextId();
+    }
+    
+    /**
+     * Replaces the identifier generator
+     * @param idGenerator The generator to use from now on
+     */
+    public static void setGenerator(IdGenerator idGenerator) {
+        generator = idGenerator;
+    }
+}
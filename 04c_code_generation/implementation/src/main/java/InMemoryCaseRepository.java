@@ -0,0 +1,60 @@
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Case repository that keeps the cases and offenders in memory only.
+ * The case objects are the stored state, so updates and flushes have nothing to do
+ */
+public class InMemoryCaseRepository implements CaseRepository {
+    private final Map<String, RegulatoryCase> cases = new ConcurrentHashMap<>();
+    private final Map<String, Offender> offenders = new ConcurrentHashMap<>();
+
+    @Override
+    public RegulatoryCase findById(String caseId) {
+        return cases.get(caseId);
+    }
+
+    @Override
+    public Collection<RegulatoryCase> findAll() {
+        return cases.values();
+    }
+
+    @Override
+    public int size() {
+        return cases.size();
+    }
+
+    @Override
+    public void add(RegulatoryCase regulatoryCase) {
+        cases.put(regulatoryCase.getCaseId(), regulatoryCase);
+    }
+
+    @Override
+    public void update(RegulatoryCase regulatoryCase) {
+    }
+
+    @Override
+    public void remove(RegulatoryCase regulatoryCase) {
+        cases.remove(regulatoryCase.getCaseId());
+    }
+
+    @Override
+    public Offender findOffenderById(String offenderId) {
+        return offenders.get(offenderId);
+    }
+
+    @Override
+    public Collection<Offender> findAllOffenders() {
+        return offenders.values();
+    }
+
+    @Override
+    public Offender addOffenderIfAbsent(Offender offender) {
+        return offenders.putIfAbsent(offender.getId(), offender);
+    }
+
+    @Override
+    public void flush() {
+    }
+}
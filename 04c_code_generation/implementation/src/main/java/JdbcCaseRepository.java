@@ -0,0 +1,585 @@
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Case repository backed by a relational database through JDBC (tested with H2; the SQL is plain
+ * enough for other databases). The schema is created if it does not exist.
+ * <p>
+ * All stored cases are loaded when the repository is opened, each with its offender and fine in one
+ * query and the payments and histories of all cases in one query each, and kept in an identity map, so
+ * the CaseManager works on one object per case and indexes every case it works on. Lookups are answered
+ * from the identity map without a database round trip; cases written by another process after the
+ * repository was opened are not seen. Changes are turned into statement parameters when they are handed
+ * over (under the case's lock) and written by flush() in one transaction, as JDBC batches of reused
+ * prepared statements; concurrent callers share a flush, like a group commit. The rows of a case moved
+ * to the case archive are deleted.
+ * <p>
+ * The case history is stored with its rendered descriptions, so loaded actions use the FREE_TEXT template.
+ * Supporting documents of appeals are not stored.
+ */
+@Slf4j
+public class JdbcCaseRepository implements CaseRepository, Closeable {
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS offender ("
+                    + "id VARCHAR(64) PRIMARY KEY, "
+                    + "full_name VARCHAR(255) NOT NULL, "
+                    + "address VARCHAR(255) NOT NULL, "
+                    + "date_of_birth DATE NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS regulatory_case ("
+                    + "id VARCHAR(64) PRIMARY KEY, "
+                    + "offender_id VARCHAR(64) NOT NULL REFERENCES offender (id), "
+                    + "history_index INT NOT NULL, "
+                    + "offense_id VARCHAR(64) NOT NULL, "
+                    + "location VARCHAR(255) NOT NULL, "
+                    + "offense_date DATE NOT NULL, "
+                    + "offense_type VARCHAR(32) NOT NULL, "
+                    + "evidence VARCHAR(4000), "
+                    + "fine_id VARCHAR(64) NOT NULL, "
+                    + "fine_amount_cents BIGINT NOT NULL, "
+                    + "fine_issue_date DATE NOT NULL, "
+                    + "payment_deadline DATE NOT NULL, "
+                    + "payment_status VARCHAR(32) NOT NULL, "
+                    + "total_paid_cents BIGINT NOT NULL, "
+                    + "status VARCHAR(32) NOT NULL, "
+                    + "creation_date DATE NOT NULL, "
+                    + "closed_date DATE, "
+                    + "last_reminder_date DATE, "
+                    + "statute_expiry_date DATE, "
+                    + "appeal_id VARCHAR(64), "
+                    + "appeal_reason VARCHAR(4000), "
+                    + "appeal_filing_date DATE, "
+                    + "appeal_decision_date DATE, "
+                    + "appeal_approved BOOLEAN, "
+                    + "appeal_decision_reason VARCHAR(4000), "
+                    + "appeal_reviewed_by VARCHAR(255))",
+            "CREATE TABLE IF NOT EXISTS payment ("
+                    + "case_id VARCHAR(64) NOT NULL REFERENCES regulatory_case (id), "
+                    + "seq INT NOT NULL, "
+                    + "id VARCHAR(64) NOT NULL, "
+                    + "amount_cents BIGINT NOT NULL, "
+                    + "payment_date DATE NOT NULL, "
+                    + "payment_method VARCHAR(32) NOT NULL, "
+                    + "reference_number VARCHAR(255), "
+                    + "PRIMARY KEY (case_id, seq))",
+            "CREATE TABLE IF NOT EXISTS case_action ("
+                    + "case_id VARCHAR(64) NOT NULL REFERENCES regulatory_case (id), "
+                    + "seq INT NOT NULL, "
+                    + "action_type VARCHAR(32) NOT NULL, "
+                    + "description VARCHAR(4000) NOT NULL, "
+                    + "performed_by VARCHAR(255) NOT NULL, "
+                    + "action_time BIGINT NOT NULL, "
+                    + "PRIMARY KEY (case_id, seq))"
+    };
+
+    private static final String INSERT_OFFENDER =
+            "INSERT INTO offender (id, full_name, address, date_of_birth) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_CASE = "INSERT INTO regulatory_case (id, offender_id, history_index, "
+            + "offense_id, location, offense_date, offense_type, evidence, "
+            + "fine_id, fine_amount_cents, fine_issue_date, payment_deadline, payment_status, total_paid_cents, "
+            + "status, creation_date, closed_date, last_reminder_date, statute_expiry_date, "
+            + "appeal_id, appeal_reason, appeal_filing_date, appeal_decision_date, appeal_approved, "
+            + "appeal_decision_reason, appeal_reviewed_by) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_CASE = "UPDATE regulatory_case SET "
+            + "payment_status = ?, total_paid_cents = ?, status = ?, closed_date = ?, last_reminder_date = ?, "
+            + "appeal_id = ?, appeal_reason = ?, appeal_filing_date = ?, appeal_decision_date = ?, "
+            + "appeal_approved = ?, appeal_decision_reason = ?, appeal_reviewed_by = ? "
+            + "WHERE id = ?";
+    private static final String INSERT_PAYMENT = "INSERT INTO payment "
+            + "(case_id, seq, id, amount_cents, payment_date, payment_method, reference_number) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ACTION = "INSERT INTO case_action "
+            + "(case_id, seq, action_type, description, performed_by, action_time) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_PAYMENTS = "DELETE FROM payment WHERE case_id = ?";
+    private static final String DELETE_ACTIONS = "DELETE FROM case_action WHERE case_id = ?";
+    private static final String DELETE_CASE = "DELETE FROM regulatory_case WHERE id = ?";
+
+    // Payments and actions are read by queries of their own; joined side by side they would multiply each other
+    private static final String SELECT_CASES = "SELECT c.*, o.full_name, o.address, o.date_of_birth "
+            + "FROM regulatory_case c JOIN offender o ON o.id = c.offender_id ";
+    private static final String SELECT_ALL_CASES = SELECT_CASES + "ORDER BY c.offender_id, c.history_index";
+    private static final String SELECT_PAYMENTS = "SELECT case_id, seq, id, amount_cents, payment_date, "
+            + "payment_method, reference_number FROM payment ";
+    private static final String SELECT_ALL_PAYMENTS = SELECT_PAYMENTS + "ORDER BY case_id, seq";
+    private static final String SELECT_ACTIONS = "SELECT case_id, seq, action_type, description, performed_by, "
+            + "action_time FROM case_action ";
+    private static final String SELECT_ALL_ACTIONS = SELECT_ACTIONS + "ORDER BY case_id, seq";
+
+    private final Connection connection;
+    private final PreparedStatement insertOffender;
+    private final PreparedStatement insertCase;
+    private final PreparedStatement updateCase;
+    private final PreparedStatement insertPayment;
+    private final PreparedStatement insertAction;
+    private final PreparedStatement deletePayments;
+    private final PreparedStatement deleteActions;
+    private final PreparedStatement deleteCase;
+
+    // Identity maps of all loaded and added cases and offenders
+    private final Map<String, RegulatoryCase> cases = new ConcurrentHashMap<>();
+    private final Map<String, Offender> offenders = new ConcurrentHashMap<>();
+
+    // Number of payments and actions of each case that have been staged already
+    private final Map<String, int[]> stagedChildren = new ConcurrentHashMap<>();
+
+    // Statement parameters waiting for the next flush, in statement order
+    private final Object stagingLock = new Object();
+    private List<Object[]> offenderRows = new ArrayList<>();
+    private List<Object[]> caseRows = new ArrayList<>();
+    private List<Object[]> caseUpdateRows = new ArrayList<>();
+    private List<Object[]> paymentRows = new ArrayList<>();
+    private List<Object[]> actionRows = new ArrayList<>();
+    private List<Object[]> caseRemovalRows = new ArrayList<>();
+
+    /**
+     * Opens the repository on a connection, creating the schema if needed and loading all stored cases.
+     * The repository takes ownership of the connection
+     * @param connection The database connection
+     * @throws SQLException if the schema cannot be created or the cases cannot be loaded
+     */
+    public JdbcCaseRepository(Connection connection) throws SQLException {
+        this.connection = connection;
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+        }
+        connection.commit();
+
+        this.insertOffender = connection.prepareStatement(INSERT_OFFENDER);
+        this.insertCase = connection.prepareStatement(INSERT_CASE);
+        this.updateCase = connection.prepareStatement(UPDATE_CASE);
+        this.insertPayment = connection.prepareStatement(INSERT_PAYMENT);
+        this.insertAction = connection.prepareStatement(INSERT_ACTION);
+        this.deletePayments = connection.prepareStatement(DELETE_PAYMENTS);
+        this.deleteActions = connection.prepareStatement(DELETE_ACTIONS);
+        this.deleteCase = connection.prepareStatement(DELETE_CASE);
+
+        long startTime = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            Map<String, RegulatoryCase> read;
+            try (ResultSet rows = statement.executeQuery(SELECT_ALL_CASES)) {
+                read = readCases(rows);
+            }
+            try (ResultSet rows = statement.executeQuery(SELECT_ALL_PAYMENTS)) {
+                readPayments(rows, read);
+            }
+            try (ResultSet rows = statement.executeQuery(SELECT_ALL_ACTIONS)) {
+                readActions(rows, read);
+            }
+            addLoaded(read.values());
+        }
+        connection.commit();
+        log.info("Loaded {} cases of {} offenders in {} ms",
+                cases.size(), offenders.size(), (System.nanoTime() - startTime) / 1_000_000);
+    }
+
+    @Override
+    public RegulatoryCase findById(String caseId) {
+        return cases.get(caseId);
+    }
+
+    @Override
+    public Collection<RegulatoryCase> findAll() {
+        return cases.values();
+    }
+
+    @Override
+    public int size() {
+        return cases.size();
+    }
+
+    @Override
+    public void add(RegulatoryCase regulatoryCase) {
+        Offense offense = regulatoryCase.getOffense();
+        Fine fine = regulatoryCase.getFine();
+        Appeal appeal = regulatoryCase.getAppeal();
+        List<RegulatoryCase> offenderHistory = offense.getOffender().getOffenseHistory();
+
+        // Compared by identity: the generated equals() of a case walks the offender's whole history
+        int historyIndex = offenderHistory.size() - 1;
+        while (historyIndex >= 0 && offenderHistory.get(historyIndex) != regulatoryCase) {
+            historyIndex--;
+        }
+        // Archived cases have left the history, but their rows may still hold the lower indexes
+        historyIndex += offense.getOffender().getArchivedCaseCount();
+
+        Object[] caseRow = {
+                regulatoryCase.getCaseId(),
+                offense.getOffender().getId(),
+                historyIndex,
+                offense.getId(),
+                offense.getLocation(),
+                offense.getOffenseDate(),
+                offense.getOffenseType().name(),
+                offense.getEvidenceDescription(),
+                fine.getId(),
+                fine.getAmountCents(),
+                fine.getIssueDate(),
+                fine.getPaymentDeadline(),
+                fine.getPaymentStatus().name(),
+                fine.getTotalPaidCents(),
+                regulatoryCase.getStatus().name(),
+                regulatoryCase.getCreationDate(),
+                regulatoryCase.getClosedDate(),
+                regulatoryCase.getLastReminderDate(),
+                regulatoryCase.getStatuteExpiryDate(),
+                appeal != null ? appeal.getId() : null,
+                appeal != null ? appeal.getReason() : null,
+                appeal != null ? appeal.getFilingDate() : null,
+                appeal != null ? appeal.getDecisionDate() : null,
+                appeal != null ? appeal.isApproved() : null,
+                appeal != null ? appeal.getDecisionReason() : null,
+                appeal != null ? appeal.getReviewedBy() : null
+        };
+
+        int[] staged = new int[2];
+        stagedChildren.put(regulatoryCase.getCaseId(), staged);
+        synchronized (stagingLock) {
+            caseRows.add(caseRow);
+            stageChildren(regulatoryCase, staged);
+        }
+        cases.put(regulatoryCase.getCaseId(), regulatoryCase);
+    }
+
+    @Override
+    public void update(RegulatoryCase regulatoryCase) {
+        Fine fine = regulatoryCase.getFine();
+        Appeal appeal = regulatoryCase.getAppeal();
+
+        Object[] updateRow = {
+                fine.getPaymentStatus().name(),
+                fine.getTotalPaidCents(),
+                regulatoryCase.getStatus().name(),
+                regulatoryCase.getClosedDate(),
+                regulatoryCase.getLastReminderDate(),
+                appeal != null ? appeal.getId() : null,
+                appeal != null ? appeal.getReason() : null,
+                appeal != null ? appeal.getFilingDate() : null,
+                appeal != null ? appeal.getDecisionDate() : null,
+                appeal != null ? appeal.isApproved() : null,
+                appeal != null ? appeal.getDecisionReason() : null,
+                appeal != null ? appeal.getReviewedBy() : null,
+                regulatoryCase.getCaseId()
+        };
+
+        int[] staged = stagedChildren.get(regulatoryCase.getCaseId());
+        synchronized (stagingLock) {
+            caseUpdateRows.add(updateRow);
+            stageChildren(regulatoryCase, staged);
+        }
+    }
+
+    /**
+     * Forgets the case and stages the deletion of its rows; the deletion is written after all other staged changes
+     * @param regulatoryCase The case
+     */
+    @Override
+    public void remove(RegulatoryCase regulatoryCase) {
+        String caseId = regulatoryCase.getCaseId();
+        synchronized (stagingLock) {
+            caseRemovalRows.add(new Object[] {caseId});
+        }
+        cases.remove(caseId);
+        stagedChildren.remove(caseId);
+    }
+
+    /**
+     * Stages the payments and actions of a case that have not been staged yet
+     * @param regulatoryCase The case
+     * @param staged The numbers of payments and actions staged before
+     */
+    private void stageChildren(RegulatoryCase regulatoryCase, int[] staged) {
+        String caseId = regulatoryCase.getCaseId();
+
+        List<Payment> payments = regulatoryCase.getFine().getPaymentHistory();
+        for (int seq = staged[0]; seq < payments.size(); seq++) {
+            Payment payment = payments.get(seq);
+            paymentRows.add(new Object[] {
+                    caseId, seq, payment.getId(), payment.getAmountCents(), payment.getPaymentDate(),
+                    payment.getPaymentMethod().name(), payment.getReferenceNumber()
+            });
+        }
+        staged[0] = payments.size();
+
+        // Only the actions added since the last staging are read, which matters for a history kept in a log
+        int seq = staged[1];
+        for (CaseAction action : regulatoryCase.getCaseHistorySince(seq)) {
+            actionRows.add(new Object[] {
+                    caseId, seq++, action.getActionType().name(), action.getDescription(),
+                    action.getPerformedBy(), action.getTimestamp()
+            });
+        }
+        staged[1] = seq;
+    }
+
+    @Override
+    public Offender findOffenderById(String offenderId) {
+        return offenders.get(offenderId);
+    }
+
+    @Override
+    public Collection<Offender> findAllOffenders() {
+        return offenders.values();
+    }
+
+    @Override
+    public Offender addOffenderIfAbsent(Offender offender) {
+        // The insert is staged before the offender becomes visible, so it is flushed before any of its cases
+        Offender stored = offenders.computeIfAbsent(offender.getId(), id -> {
+            synchronized (stagingLock) {
+                offenderRows.add(new Object[] {
+                        offender.getId(), offender.getFullName(), offender.getAddress(), offender.getDateOfBirth()
+                });
+            }
+            return offender;
+        });
+        return stored != offender ? stored : null;
+    }
+
+    /**
+     * Writes all staged changes in one transaction. A caller returns only after the changes it
+     * handed over have been committed, possibly by another caller's flush. If the transaction fails,
+     * the changes stay staged for the next flush
+     */
+    @Override
+    public synchronized void flush() {
+        List<Object[]> offenderBatch;
+        List<Object[]> caseBatch;
+        List<Object[]> caseUpdateBatch;
+        List<Object[]> paymentBatch;
+        List<Object[]> actionBatch;
+        List<Object[]> caseRemovalBatch;
+        synchronized (stagingLock) {
+            if (offenderRows.isEmpty() && caseRows.isEmpty() && caseUpdateRows.isEmpty()
+                    && paymentRows.isEmpty() && actionRows.isEmpty() && caseRemovalRows.isEmpty()) {
+                return;
+            }
+            offenderBatch = offenderRows;
+            caseBatch = caseRows;
+            caseUpdateBatch = caseUpdateRows;
+            paymentBatch = paymentRows;
+            actionBatch = actionRows;
+            caseRemovalBatch = caseRemovalRows;
+            offenderRows = new ArrayList<>();
+            caseRows = new ArrayList<>();
+            caseUpdateRows = new ArrayList<>();
+            paymentRows = new ArrayList<>();
+            actionRows = new ArrayList<>();
+            caseRemovalRows = new ArrayList<>();
+        }
+
+        try {
+            executeBatch(insertOffender, offenderBatch);
+            executeBatch(insertCase, caseBatch);
+            executeBatch(updateCase, caseUpdateBatch);
+            executeBatch(insertPayment, paymentBatch);
+            executeBatch(insertAction, actionBatch);
+            executeBatch(deletePayments, caseRemovalBatch);
+            executeBatch(deleteActions, caseRemovalBatch);
+            executeBatch(deleteCase, caseRemovalBatch);
+            connection.commit();
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            synchronized (stagingLock) {
+                offenderRows.addAll(0, offenderBatch);
+                caseRows.addAll(0, caseBatch);
+                caseUpdateRows.addAll(0, caseUpdateBatch);
+                paymentRows.addAll(0, paymentBatch);
+                actionRows.addAll(0, actionBatch);
+                caseRemovalRows.addAll(0, caseRemovalBatch);
+            }
+            throw new IllegalStateException("Could not write cases", e);
+        }
+    }
+
+    /**
+     * Closes the statements and the connection after a final flush
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            flush();
+        } finally {
+            try {
+                for (PreparedStatement statement : List.of(insertOffender, insertCase, updateCase,
+                        insertPayment, insertAction, deletePayments, deleteActions, deleteCase)) {
+                    statement.close();
+                }
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Could not close the database connection", e);
+            }
+        }
+    }
+
+    private static void executeBatch(PreparedStatement statement, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                statement.setObject(i + 1, row[i]);
+            }
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    /**
+     * Turns the rows of a case query into cases, skipping cases that are loaded already
+     * @param rows The result of a case query
+     * @return The new cases by ID, with empty payment and action histories, in row order
+     * @throws SQLException if the result cannot be read
+     */
+    private Map<String, RegulatoryCase> readCases(ResultSet rows) throws SQLException {
+        Map<String, RegulatoryCase> read = new LinkedHashMap<>();
+        while (rows.next()) {
+            String caseId = rows.getString("id");
+            if (!cases.containsKey(caseId)) {
+                RegulatoryCase regulatoryCase = readCase(rows);
+                regulatoryCase.setCaseHistory(new ArrayList<>());
+                read.put(caseId, regulatoryCase);
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Adds the rows of a payment query to the payment histories of the cases just read.
+     * The rows of a case are consecutive and ordered by sequence number
+     * @param rows The result of a payment query
+     * @param read The cases just read, by ID
+     * @throws SQLException if the result cannot be read
+     */
+    private static void readPayments(ResultSet rows, Map<String, RegulatoryCase> read) throws SQLException {
+        while (rows.next()) {
+            RegulatoryCase regulatoryCase = read.get(rows.getString("case_id"));
+            if (regulatoryCase == null) {
+                continue;
+            }
+            List<Payment> payments = regulatoryCase.getFine().getPaymentHistory();
+            if (rows.getInt("seq") == payments.size()) {
+                Payment payment = new Payment(rows.getLong("amount_cents"),
+                        PaymentMethod.valueOf(rows.getString("payment_method")));
+                payment.setId(rows.getString("id"));
+                payment.setPaymentDate(rows.getObject("payment_date", LocalDate.class));
+                payment.setReferenceNumber(rows.getString("reference_number"));
+                payments.add(payment);
+            }
+        }
+    }
+
+    /**
+     * Sets the histories of the cases just read from the rows of an action query.
+     * The rows of a case are consecutive and ordered by sequence number
+     * @param rows The result of an action query
+     * @param read The cases just read, by ID
+     * @throws SQLException if the result cannot be read
+     */
+    private static void readActions(ResultSet rows, Map<String, RegulatoryCase> read) throws SQLException {
+        RegulatoryCase current = null;
+        List<CaseAction> history = null;
+        while (rows.next()) {
+            String caseId = rows.getString("case_id");
+            if (current == null || !current.getCaseId().equals(caseId)) {
+                current = read.get(caseId);
+                if (current == null) {
+                    continue;
+                }
+                history = new ArrayList<>();
+                current.setCaseHistory(history);
+            }
+            if (rows.getInt("seq") == history.size()) {
+                CaseAction action = new CaseAction(ActionType.valueOf(rows.getString("action_type")),
+                        ActionTemplate.FREE_TEXT, rows.getLong("action_time"), rows.getString("description"));
+                action.setPerformedBy(rows.getString("performed_by"));
+                history.add(action);
+            }
+        }
+    }
+
+    /**
+     * Adds cases that have been read completely to the identity map
+     * @param read The cases
+     */
+    private void addLoaded(Collection<RegulatoryCase> read) {
+        for (RegulatoryCase regulatoryCase : read) {
+            stagedChildren.put(regulatoryCase.getCaseId(), new int[] {
+                    regulatoryCase.getFine().getPaymentHistory().size(), regulatoryCase.getCaseHistorySize()
+            });
+            cases.put(regulatoryCase.getCaseId(), regulatoryCase);
+        }
+    }
+
+    /**
+     * Creates a case, without payments and history, from the case and offender columns of a row
+     * and links it into its offender's history
+     * @param row The current row of a case query
+     * @return The case
+     * @throws SQLException if the row cannot be read
+     */
+    private RegulatoryCase readCase(ResultSet row) throws SQLException {
+        String offenderId = row.getString("offender_id");
+        Offender offender = offenders.get(offenderId);
+        if (offender == null) {
+            offender = new Offender(row.getString("full_name"), row.getString("address"),
+                    row.getObject("date_of_birth", LocalDate.class));
+            offender.setId(offenderId);
+            offenders.put(offenderId, offender);
+        }
+
+        Offense offense = new Offense(offender, row.getString("location"),
+                row.getObject("offense_date", LocalDate.class), OffenseType.valueOf(row.getString("offense_type")));
+        offense.setId(row.getString("offense_id"));
+        offense.setEvidenceDescription(row.getString("evidence"));
+
+        Fine fine = new Fine(row.getLong("fine_amount_cents"), 0);
+        fine.setId(row.getString("fine_id"));
+        fine.setIssueDate(row.getObject("fine_issue_date", LocalDate.class));
+        fine.setPaymentDeadline(row.getObject("payment_deadline", LocalDate.class));
+        fine.setPaymentStatus(PaymentStatus.valueOf(row.getString("payment_status")));
+        fine.setTotalPaidCents(row.getLong("total_paid_cents"));
+
+        RegulatoryCase regulatoryCase = new RegulatoryCase(offense, fine);
+        regulatoryCase.setCaseId(row.getString("id"));
+        regulatoryCase.setStatus(CaseStatus.valueOf(row.getString("status")));
+        regulatoryCase.setCreationDate(row.getObject("creation_date", LocalDate.class));
+        regulatoryCase.setClosedDate(row.getObject("closed_date", LocalDate.class));
+        regulatoryCase.setLastReminderDate(row.getObject("last_reminder_date", LocalDate.class));
+        regulatoryCase.setStatuteExpiryDate(row.getObject("statute_expiry_date", LocalDate.class));
+
+        String appealId = row.getString("appeal_id");
+        if (appealId != null) {
+            Appeal appeal = new Appeal(row.getString("appeal_reason"));
+            appeal.setId(appealId);
+            appeal.setFilingDate(row.getObject("appeal_filing_date", LocalDate.class));
+            appeal.setDecisionDate(row.getObject("appeal_decision_date", LocalDate.class));
+            appeal.setApproved(row.getBoolean("appeal_approved"));
+            appeal.setDecisionReason(row.getString("appeal_decision_reason"));
+            appeal.setReviewedBy(row.getString("appeal_reviewed_by"));
+            regulatoryCase.setAppeal(appeal);
+        }
+
+        offender.addCaseToHistory(regulatoryCase);
+        return regulatoryCase;
+    }
+}
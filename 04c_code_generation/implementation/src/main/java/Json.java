@@ -0,0 +1,304 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the case API: a writer that appends to a StringBuilder, and a parser
+ * for request bodies, which are flat objects of strings, integers, booleans and nulls
+ */
+final class Json {
+    private Json() {
+    }
+
+    /**
+     * Parses a flat JSON object
+     * @param text The JSON text
+     * @return The members in order; strings as String, integers as Long, booleans as Boolean
+     * @throws IllegalArgumentException if the text is not a flat JSON object
+     */
+    static Map<String, Object> parseObject(String text) {
+        Parser parser = new Parser(text);
+        Map<String, Object> members = new LinkedHashMap<>();
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                String name = parser.string();
+                parser.expect(':');
+                members.put(name, parser.value());
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("Unexpected content after the object");
+        }
+        return members;
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            skipWhitespace();
+            if (position == text.length()) {
+                throw error("Value expected");
+            }
+            char c = text.charAt(position);
+            if (c == '"') {
+                return string();
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return number();
+            }
+            if (text.startsWith("true", position)) {
+                position += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", position)) {
+                position += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            throw error("Only strings, integers, booleans and null are supported as values");
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (position == text.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position == text.length()) {
+                    throw error("Unterminated string");
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(escaped);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape \\" + escaped);
+                }
+            }
+        }
+
+        Long number() {
+            int start = position;
+            if (text.charAt(position) == '-') {
+                position++;
+            }
+            while (position < text.length() && text.charAt(position) >= '0' && text.charAt(position) <= '9') {
+                position++;
+            }
+            if (position < text.length() && ".eE".indexOf(text.charAt(position)) >= 0) {
+                throw error("Only integers are supported as numbers");
+            }
+            try {
+                return Long.parseLong(text.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number");
+            }
+        }
+
+        void expect(char expected) {
+            if (!consume(expected)) {
+                throw error("'" + expected + "' expected");
+            }
+        }
+
+        boolean consume(char expected) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " of the JSON body");
+        }
+    }
+
+    /**
+     * Appends JSON to a buffer; names and values are separated by commas as needed
+     */
+    static final class Writer {
+        private final StringBuilder out = new StringBuilder(256);
+        private boolean needsComma;
+
+        Writer beginObject() {
+            separate();
+            out.append('{');
+            needsComma = false;
+            return this;
+        }
+
+        Writer endObject() {
+            out.append('}');
+            needsComma = true;
+            return this;
+        }
+
+        Writer beginArray() {
+            separate();
+            out.append('[');
+            needsComma = false;
+            return this;
+        }
+
+        Writer endArray() {
+            out.append(']');
+            needsComma = true;
+            return this;
+        }
+
+        Writer name(String name) {
+            separate();
+            quote(name);
+            out.append(':');
+            needsComma = false;
+            return this;
+        }
+
+        Writer value(Object value) {
+            separate();
+            if (value == null) {
+                out.append("null");
+            } else {
+                quote(value.toString());
+            }
+            needsComma = true;
+            return this;
+        }
+
+        Writer value(long value) {
+            separate();
+            out.append(value);
+            needsComma = true;
+            return this;
+        }
+
+        Writer value(boolean value) {
+            separate();
+            out.append(value);
+            needsComma = true;
+            return this;
+        }
+
+        /**
+         * Appends a complete value written by another writer
+         */
+        Writer append(Writer value) {
+            separate();
+            out.append(value.out);
+            needsComma = true;
+            return this;
+        }
+
+        Writer field(String name, Object value) {
+            return name(name).value(value);
+        }
+
+        Writer field(String name, long value) {
+            return name(name).value(value);
+        }
+
+        Writer field(String name, boolean value) {
+            return name(name).value(value);
+        }
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+
+        private void separate() {
+            if (needsComma) {
+                out.append(',');
+            }
+        }
+
+        private void quote(String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        out.append("\\\"");
+                        break;
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            out.append("\\u00");
+                            out.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            out.append('"');
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Helpers for monetary amounts, which are represented as a primitive long number of cents
+ * throughout the system so that sums and comparisons are exact
+ */
+public final class Money {
+    private Money() {
+    }
+    
+    /**
+     * Multiplies an amount by a factor, rounding half up to whole cents
+     * @param cents The amount in cents
+     * @param factor The factor to apply
+     * @return The resulting amount in cents
+     */
+    public static long multiply(long cents, double factor) {
+        return Math.round(cents * factor);
+    }
+    
+    /**
+     * Computes the average of a total over a number of items, rounding half up to whole cents
+     * @param totalCents The total amount in cents
+     * @param count The number of items
+     * @return The average amount in cents, or 0 if there are no items
+     */
+    public static long average(long totalCents, long count) {
+        return count > 0 ? Math.round((double) totalCents / count) : 0;
+    }
+    
+    /**
+     * Parses a decimal amount such as "12", "12.5" or "12.50"
+     * @param amount The amount text
+     * @return The amount in cents
+     * @throws NumberFormatException if the text is not an amount with at most two decimals
+     */
+    public static long parse(CharSequence amount) {
+        int length = amount.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            i++;
+        }
+        
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < length; i++) {
+            char c = amount.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9' && decimals < 2) {
+                cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                throw new NumberFormatException("Invalid amount: " + amount);
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid amount: " + amount);
+        }
+        
+        for (int scale = Math.max(decimals, 0); scale < 2; scale++) {
+            cents = Math.multiplyExact(cents, 10);
+        }
+        return negative ? -cents : cents;
+    }
+    
+    /**
+     * Formats an amount with two decimals, e.g. 1250 as "12.50"
+     * @param cents The amount in cents
+     * @return The formatted amount
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(12), cents).toString();
+    }
+    
+    /**
+     * Appends an amount with two decimals to a builder
+     * @param sb The builder to append to
+     * @param cents The amount in cents
+     * @return The builder
+     */
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+        }
+        long units = Math.abs(cents / 100);
+        int fraction = (int) Math.abs(cents % 100);
+        sb.append(units).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+}
@@ -0,0 +1,523 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Table of case summaries held outside the Java heap, so that millions of cases cost the garbage
+ * collector a few hundred buffer objects instead of an object graph per case.
+ * <p>
+ * The CaseArchive keeps the summaries of the archived cases here. Cases in memory, open or closed, are still
+ * RegulatoryCase object graphs on the heap, as they are locked and mutated in place; the heap used by cases
+ * therefore grows with the cases not archived yet, and only archiving closed cases early, e.g. with
+ * CaseManager.scheduleArchiving(), keeps the bulk of a large case load off the heap.
+ * <p>
+ * The fixed-width fields of a case (status, offense type, dates as epoch days, amounts in cents and
+ * the row of its offender) are stored in fixed-size rows of direct buffer slabs. Each offender is
+ * stored once, in a table of its own. Strings are stored as length-prefixed UTF-8 in an append-only
+ * arena of direct chunks, and the rows refer to them by position. Cases and offenders are found by ID
+ * through open-addressing hash tables that are off the heap as well.
+ * <p>
+ * Rows are read through CaseView, a flyweight whose getters mirror those of RegulatoryCase and which
+ * can be moved from row to row. Every row also carries a reference, a number the owner of the store
+ * uses to locate the complete case.
+ * <p>
+ * All methods are thread-safe. A case is stored once and its row never changes or is reused afterwards,
+ * so a view reads its row without locking and always shows the values the case was stored with.
+ */
+public class OffHeapCaseStore {
+    private static final int SLAB_ROWS = 1 << 14;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final long NO_STRING = -1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    // Layout of a case row
+    private static final int CASE_ID = 0;
+    private static final int LOCATION = 8;
+    private static final int REFERENCE = 16;
+    private static final int FINE_AMOUNT = 24;
+    private static final int TOTAL_PAID = 32;
+    private static final int OFFENDER = 40;
+    private static final int OFFENSE_DATE = 44;
+    private static final int CREATION_DATE = 48;
+    private static final int CLOSED_DATE = 52;
+    private static final int PAYMENT_DEADLINE = 56;
+    private static final int STATUS = 60;
+    private static final int OFFENSE_TYPE = 61;
+    private static final int PAYMENT_STATUS = 62;
+    private static final int CASE_ROW_SIZE = 64;
+
+    // Layout of an offender row
+    private static final int OFFENDER_ID = 0;
+    private static final int FULL_NAME = 8;
+    private static final int ADDRESS = 16;
+    private static final int DATE_OF_BIRTH = 24;
+    private static final int OFFENDER_ROW_SIZE = 32;
+
+    private static final CaseStatus[] STATUSES = CaseStatus.values();
+    private static final OffenseType[] OFFENSE_TYPES = OffenseType.values();
+    private static final PaymentStatus[] PAYMENT_STATUSES = PaymentStatus.values();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Arena strings = new Arena();
+    private final Slabs cases = new Slabs(CASE_ROW_SIZE);
+    private final Slabs offenders = new Slabs(OFFENDER_ROW_SIZE);
+    private final HashIndex caseIndex = new HashIndex(cases, CASE_ID);
+    private final HashIndex offenderIndex = new HashIndex(offenders, OFFENDER_ID);
+
+    /**
+     * Stores the summary of a case.
+     * The caller must hold the case's lock, so that the case does not change meanwhile
+     * @param regulatoryCase The case
+     * @param reference The reference to store with the case
+     * @throws IllegalArgumentException if the case is already stored
+     */
+    public void put(RegulatoryCase regulatoryCase, long reference) {
+        Offense offense = regulatoryCase.getOffense();
+        Offender offender = offense.getOffender();
+        Fine fine = regulatoryCase.getFine();
+        byte[] caseId = utf8(regulatoryCase.getCaseId());
+        int caseHash = hash(regulatoryCase.getCaseId());
+
+        lock.writeLock().lock();
+        try {
+            if (caseIndex.find(caseId, caseHash) >= 0) {
+                throw new IllegalArgumentException("Case " + regulatoryCase.getCaseId() + " is already stored");
+            }
+            // The row is complete before the index refers to it
+            int row = cases.allocate();
+            cases.putLong(row, CASE_ID, strings.add(caseId));
+            cases.putLong(row, LOCATION, strings.add(utf8(offense.getLocation())));
+            ByteBuffer slab = cases.slab(row);
+            int offset = cases.offset(row);
+            slab.putLong(offset + REFERENCE, reference);
+            slab.putLong(offset + FINE_AMOUNT, fine.getAmountCents());
+            slab.putLong(offset + TOTAL_PAID, fine.getTotalPaidCents());
+            slab.putInt(offset + OFFENDER, offenderRow(offender));
+            slab.putInt(offset + OFFENSE_DATE, epochDay(offense.getOffenseDate()));
+            slab.putInt(offset + CREATION_DATE, epochDay(regulatoryCase.getCreationDate()));
+            slab.putInt(offset + CLOSED_DATE, epochDay(regulatoryCase.getClosedDate()));
+            slab.putInt(offset + PAYMENT_DEADLINE, epochDay(fine.getPaymentDeadline()));
+            slab.put(offset + STATUS, (byte) regulatoryCase.getStatus().ordinal());
+            slab.put(offset + OFFENSE_TYPE, (byte) offense.getOffenseType().ordinal());
+            slab.put(offset + PAYMENT_STATUS, (byte) fine.getPaymentStatus().ordinal());
+            caseIndex.add(caseHash, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the row of an offender, adding the offender if it is not stored yet.
+     * The caller must hold the write lock
+     */
+    private int offenderRow(Offender offender) {
+        byte[] offenderId = utf8(offender.getId());
+        int offenderHash = hash(offender.getId());
+        int row = offenderIndex.find(offenderId, offenderHash);
+        if (row < 0) {
+            row = offenders.allocate();
+            offenders.putLong(row, OFFENDER_ID, strings.add(offenderId));
+            offenders.putLong(row, FULL_NAME, strings.add(utf8(offender.getFullName())));
+            offenders.putLong(row, ADDRESS, strings.add(utf8(offender.getAddress())));
+            offenders.slab(row).putInt(offenders.offset(row) + DATE_OF_BIRTH, epochDay(offender.getDateOfBirth()));
+            offenderIndex.add(offenderHash, row);
+        }
+        return row;
+    }
+
+    /**
+     * @param caseId The case ID
+     * @return true if the case is stored
+     */
+    public boolean contains(String caseId) {
+        return rowOf(caseId) >= 0;
+    }
+
+    /**
+     * Gets the reference stored with a case
+     * @param caseId The case ID
+     * @return The reference, or -1 if the case is not stored
+     */
+    public long referenceOf(String caseId) {
+        byte[] key = utf8(caseId);
+        int caseHash = hash(caseId);
+        lock.readLock().lock();
+        try {
+            int row = caseIndex.find(key, caseHash);
+            return row < 0 ? -1 : cases.slab(row).getLong(cases.offset(row) + REFERENCE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves a view to a case
+     * @param caseId The case ID
+     * @param view The view to move
+     * @return true if the case is stored; otherwise the view is left where it was
+     */
+    public boolean find(String caseId, CaseView view) {
+        byte[] key = utf8(caseId);
+        int caseHash = hash(caseId);
+        lock.readLock().lock();
+        try {
+            int row = caseIndex.find(key, caseHash);
+            if (row < 0) {
+                return false;
+            }
+            view.moveTo(row);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves one view over all stored cases in the order they were stored.
+     * Cases stored meanwhile wait until the iteration has finished
+     * @param action Receives the view positioned on each case in turn
+     */
+    public void forEach(Consumer<CaseView> action) {
+        CaseView view = new CaseView();
+        lock.readLock().lock();
+        try {
+            for (int row = 0; row < cases.count; row++) {
+                view.moveTo(row);
+                action.accept(view);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates a view that is not positioned on a case yet
+     * @return The view
+     */
+    public CaseView newView() {
+        return new CaseView();
+    }
+
+    /**
+     * @return The number of stored cases
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return caseIndex.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of bytes allocated off the heap
+     */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return cases.bytes() + offenders.bytes() + strings.bytes()
+                    + caseIndex.table.capacity() + offenderIndex.table.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int rowOf(String caseId) {
+        byte[] key = utf8(caseId);
+        int caseHash = hash(caseId);
+        lock.readLock().lock();
+        try {
+            return caseIndex.find(key, caseHash);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int epochDay(LocalDate date) {
+        return date == null ? NO_DATE : (int) date.toEpochDay();
+    }
+
+    private static LocalDate date(int epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Flyweight over one stored case. Its getters mirror those of RegulatoryCase, Offense,
+     * Fine and Offender; strings and dates are created by each call
+     */
+    public final class CaseView {
+        private ByteBuffer slab;
+        private int offset;
+
+        private CaseView() {
+        }
+
+        private void moveTo(int row) {
+            slab = cases.slab(row);
+            offset = cases.offset(row);
+        }
+
+        public String getCaseId() {
+            return strings.get(slab.getLong(offset + CASE_ID));
+        }
+
+        public CaseStatus getStatus() {
+            return STATUSES[slab.get(offset + STATUS)];
+        }
+
+        public LocalDate getCreationDate() {
+            return date(slab.getInt(offset + CREATION_DATE));
+        }
+
+        public LocalDate getClosedDate() {
+            return date(slab.getInt(offset + CLOSED_DATE));
+        }
+
+        public OffenseType getOffenseType() {
+            return OFFENSE_TYPES[slab.get(offset + OFFENSE_TYPE)];
+        }
+
+        public LocalDate getOffenseDate() {
+            return date(slab.getInt(offset + OFFENSE_DATE));
+        }
+
+        public String getLocation() {
+            return strings.get(slab.getLong(offset + LOCATION));
+        }
+
+        public long getFineAmountCents() {
+            return slab.getLong(offset + FINE_AMOUNT);
+        }
+
+        public long getTotalPaidCents() {
+            return slab.getLong(offset + TOTAL_PAID);
+        }
+
+        public PaymentStatus getPaymentStatus() {
+            return PAYMENT_STATUSES[slab.get(offset + PAYMENT_STATUS)];
+        }
+
+        public LocalDate getPaymentDeadline() {
+            return date(slab.getInt(offset + PAYMENT_DEADLINE));
+        }
+
+        public String getOffenderId() {
+            return strings.get(offenders.getLong(offenderRow(), OFFENDER_ID));
+        }
+
+        public String getOffenderFullName() {
+            return strings.get(offenders.getLong(offenderRow(), FULL_NAME));
+        }
+
+        public String getOffenderAddress() {
+            return strings.get(offenders.getLong(offenderRow(), ADDRESS));
+        }
+
+        public LocalDate getOffenderDateOfBirth() {
+            int row = offenderRow();
+            return date(offenders.slab(row).getInt(offenders.offset(row) + DATE_OF_BIRTH));
+        }
+
+        /**
+         * @return The reference stored with the case
+         */
+        public long getReference() {
+            return slab.getLong(offset + REFERENCE);
+        }
+
+        private int offenderRow() {
+            return slab.getInt(offset + OFFENDER);
+        }
+    }
+
+    /**
+     * Fixed-size rows in direct buffers of SLAB_ROWS rows each; rows never move once allocated.
+     * The slabs are only added to under the write lock; views read them without it
+     */
+    private static final class Slabs {
+        private final int rowSize;
+        private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+        private int count;
+
+        Slabs(int rowSize) {
+            this.rowSize = rowSize;
+        }
+
+        int allocate() {
+            if (count == slabs.length * SLAB_ROWS) {
+                ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+                grown[grown.length - 1] = ByteBuffer.allocateDirect(SLAB_ROWS * rowSize);
+                slabs = grown;
+            }
+            return count++;
+        }
+
+        ByteBuffer slab(int row) {
+            return slabs[row / SLAB_ROWS];
+        }
+
+        int offset(int row) {
+            return (row % SLAB_ROWS) * rowSize;
+        }
+
+        long getLong(int row, int field) {
+            return slab(row).getLong(offset(row) + field);
+        }
+
+        void putLong(int row, int field, long value) {
+            slab(row).putLong(offset(row) + field, value);
+        }
+
+        long bytes() {
+            return (long) slabs.length * SLAB_ROWS * rowSize;
+        }
+    }
+
+    /**
+     * Append-only storage of strings; a string is addressed by its chunk index in the upper
+     * and its offset in the lower half of a long
+     */
+    private static final class Arena {
+        // Only added to under the write lock; views read it without it
+        private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+        private int position;
+
+        long add(byte[] utf8) {
+            if (utf8 == null) {
+                return NO_STRING;
+            }
+            int size = Integer.BYTES + utf8.length;
+            if (chunks.length == 0 || position + size > chunks[chunks.length - 1].capacity()) {
+                ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[grown.length - 1] = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, size));
+                chunks = grown;
+                position = 0;
+            }
+            ByteBuffer chunk = chunks[chunks.length - 1];
+            chunk.putInt(position, utf8.length);
+            chunk.put(position + Integer.BYTES, utf8);
+            long reference = (long) (chunks.length - 1) << 32 | position;
+            position += size;
+            return reference;
+        }
+
+        String get(long reference) {
+            if (reference == NO_STRING) {
+                return null;
+            }
+            ByteBuffer chunk = chunks[(int) (reference >>> 32)];
+            int offset = (int) reference;
+            byte[] utf8 = new byte[chunk.getInt(offset)];
+            chunk.get(offset + Integer.BYTES, utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        boolean matches(long reference, byte[] utf8) {
+            if (reference == NO_STRING) {
+                return false;
+            }
+            ByteBuffer chunk = chunks[(int) (reference >>> 32)];
+            int offset = (int) reference;
+            if (chunk.getInt(offset) != utf8.length) {
+                return false;
+            }
+            offset += Integer.BYTES;
+            for (int i = 0; i < utf8.length; i++) {
+                if (chunk.get(offset + i) != utf8[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (ByteBuffer chunk : chunks) {
+                bytes += chunk.capacity();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Hash table from the string key of a row to the row, with linear probing. A slot holds the
+     * hash of the key and the row plus one; 0 marks an empty slot. The caller holds the store's lock
+     */
+    private final class HashIndex {
+        private static final int SLOT_SIZE = 2 * Integer.BYTES;
+
+        private final Slabs rows;
+        private final int keyField;
+        private ByteBuffer table;
+        private int mask;
+        private int size;
+
+        HashIndex(Slabs rows, int keyField) {
+            this.rows = rows;
+            this.keyField = keyField;
+            resize(1 << 10);
+        }
+
+        int find(byte[] key, int hash) {
+            int slot = slotOf(key, hash);
+            return slot < 0 ? -1 : table.getInt(slot * SLOT_SIZE + Integer.BYTES) - 1;
+        }
+
+        void add(int hash, int row) {
+            if ((size + 1) * 2 > mask + 1) {
+                resize((mask + 1) * 2);
+            }
+            insert(hash, row);
+            size++;
+        }
+
+        private int slotOf(byte[] key, int hash) {
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int entry = table.getInt(slot * SLOT_SIZE + Integer.BYTES);
+                if (entry == 0) {
+                    return -1;
+                }
+                if (table.getInt(slot * SLOT_SIZE) == hash && strings.matches(rows.getLong(entry - 1, keyField), key)) {
+                    return slot;
+                }
+            }
+        }
+
+        private void insert(int hash, int row) {
+            int slot = hash & mask;
+            while (table.getInt(slot * SLOT_SIZE + Integer.BYTES) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table.putInt(slot * SLOT_SIZE, hash);
+            table.putInt(slot * SLOT_SIZE + Integer.BYTES, row + 1);
+        }
+
+        private void resize(int capacity) {
+            ByteBuffer old = table;
+            table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+            mask = capacity - 1;
+            if (old != null) {
+                for (int slot = 0; slot < old.capacity() / SLOT_SIZE; slot++) {
+                    int entry = old.getInt(slot * SLOT_SIZE + Integer.BYTES);
+                    if (entry != 0) {
+                        insert(old.getInt(slot * SLOT_SIZE), entry - 1);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,13 @@
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 /**
  * Represents an individual who has committed a regulatory offense
@@ -13,7 +15,8 @@ import lombok.RequiredArgsConstructor;
 @Data
 @RequiredArgsConstructor
 public class Offender {
-    private final String id = UUID.randomUUID().toString();
+    @Setter(AccessLevel.PACKAGE)
+    private String id = Ids.next();
     
     @NonNull
     private String fullName;
@@ -24,14 +27,50 @@ public class Offender {
     @NonNull
     private LocalDate dateOfBirth;
     
+    // Only grows through addCaseToHistory so that the per-type counters stay in step
+    @Setter(AccessLevel.NONE)
     private List<RegulatoryCase> offenseHistory = new ArrayList<>();
     
+    // Number of cases in the history per offense type, indexed by OffenseType ordinal;
+    // archived cases still count although they have left the history
+    @Getter(AccessLevel.NONE)
+    private final int[] offenseCounts = new int[OffenseType.values().length];
+    
+    // Number of cases moved from the history to the case archive
+    @Setter(AccessLevel.NONE)
+    private int archivedCaseCount;
+    
     /**
      * Adds a case to the offender's history
      * @param regulatoryCase The case to add
      */
     public void addCaseToHistory(RegulatoryCase regulatoryCase) {
         offenseHistory.add(regulatoryCase);
+        offenseCounts[regulatoryCase.getOffense().getOffenseType().ordinal()]++;
+    }
+    
+    /**
+     * Removes an archived case from the history; it keeps counting as a previous offense
+     * @param regulatoryCase The archived case
+     */
+    void moveCaseToArchive(RegulatoryCase regulatoryCase) {
+        // Compared by identity: the generated equals() of a case walks this history
+        for (int i = offenseHistory.size() - 1; i >= 0; i--) {
+            if (offenseHistory.get(i) == regulatoryCase) {
+                offenseHistory.remove(i);
+                archivedCaseCount++;
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Counts a case found in the case archive as a previous offense
+     * @param offenseType The offense type of the archived case
+     */
+    void addArchivedCase(OffenseType offenseType) {
+        offenseCounts[offenseType.ordinal()]++;
+        archivedCaseCount++;
     }
     
     /**
@@ -40,8 +79,7 @@ public class Offender {
      * @return true if the offender has previously committed the same type of offense
      */
     public boolean isRepeatOffender(OffenseType offenseType) {
-        return offenseHistory.stream()
-                .anyMatch(c -> c.getOffense().getOffenseType() == offenseType);
+        return offenseCounts[offenseType.ordinal()] > 0;
     }
     
     /**
@@ -50,14 +88,12 @@ public class Offender {
      * @return The number of previous offenses
      */
     public int getOffenseCount(OffenseType offenseType) {
-        return (int) offenseHistory.stream()
-                .filter(c -> c.getOffense().getOffenseType() == offenseType)
-                .count();
+        return offenseCounts[offenseType.ordinal()];
     }
     
     @Override
     public String toString() {
         return "Offender [ID=" + id + ", Name=" + fullName + ", DOB=" + dateOfBirth + 
-               ", Address=" + address + ", Previous offenses=" + offenseHistory.size() + "]";
+               ", Address=" + address + ", Previous offenses=" + (offenseHistory.size() + archivedCaseCount) + "]";
     }
 }
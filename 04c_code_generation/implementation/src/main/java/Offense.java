@@ -1,15 +1,17 @@
 import java.time.LocalDate;
-import java.util.UUID;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 /*Represents a specific regulatory offense incident*/
 @Data
 @RequiredArgsConstructor
 public class Offense {
-    private final String id = UUID.randomUUID().toString();
+    @Setter(AccessLevel.PACKAGE)
+    private String id = Ids.next();
 
     @NonNull
     private Offender offender;
@@ -0,0 +1,540 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.Getter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Imports offenses in bulk from CSV or TSV files, such as the daily uploads of camera and warden devices.
+ * <p>
+ * The file is read as a stream of chunks of rows. The reading thread parses the rows and routes the valid
+ * ones by offender (name and date of birth) to one of several worker threads, which turn them into cases.
+ * All rows of an offender are handled by the same worker in file order, so the fines of repeat offenses in
+ * an upload are calculated as if the rows were imported one by one. Only a bounded number of chunks is in
+ * flight at any time, so memory use does not depend on the file size.
+ * <p>
+ * The first line is a header naming the columns offender_name, offender_address, offender_date_of_birth,
+ * location, offense_date, offense_type and, optionally, evidence; other columns are ignored.
+ * Fields are separated by tabs if the header contains a tab, and by commas otherwise; comma separated
+ * fields may be quoted with double quotes. Dates are ISO dates (YYYY-MM-DD) and offense types are
+ * OffenseType names. Rows that cannot be imported are written to a side file with an error column added.
+ * <p>
+ * If creating cases fails, no further chunks are imported and the import fails with an
+ * ImportFailedException that lists which lines got their cases and which did not.
+ */
+@Slf4j
+public class OffenseImporter {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+    private static final String[] REQUIRED_COLUMNS = {
+            "offender_name", "offender_address", "offender_date_of_birth", "location", "offense_date", "offense_type"
+    };
+    private static final String EVIDENCE_COLUMN = "evidence";
+
+    // States of a line in a chunk whose cases were not all created
+    private static final byte LINE_NEUTRAL = 0;
+    private static final byte LINE_CREATED = 1;
+    private static final byte LINE_NOT_CREATED = 2;
+
+    private final CaseManager caseManager;
+    private final int threads;
+
+    /**
+     * Creates an importer that uses one worker thread per processor
+     * @param caseManager The case manager to create the cases in
+     */
+    public OffenseImporter(CaseManager caseManager) {
+        this(caseManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an importer
+     * @param caseManager The case manager to create the cases in
+     * @param threads The number of worker threads
+     */
+    public OffenseImporter(CaseManager caseManager, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        this.caseManager = caseManager;
+        this.threads = threads;
+    }
+
+    /**
+     * Imports all rows of a file
+     * @param file The CSV or TSV file
+     * @param rejectedRowsFile The file rejected rows are written to; only created if a row is rejected
+     * @return The import counters
+     * @throws IOException if a file cannot be read or written, or the header lacks a required column
+     * @throws ImportFailedException if the import stopped after it had started creating cases
+     */
+    public ImportResult importFile(Path file, Path rejectedRowsFile) throws IOException {
+        long startTime = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IOException(file + " is empty");
+            }
+            Layout layout = new Layout(header);
+            try (RejectedRows rejectedRows = new RejectedRows(rejectedRowsFile, header, layout.delimiter)) {
+                return importRows(file, reader, layout, rejectedRows, startTime);
+            }
+        }
+    }
+
+    private ImportResult importRows(Path file, BufferedReader reader, Layout layout, RejectedRows rejectedRows,
+                                    long startTime) throws IOException {
+        Job job = new Job(layout, rejectedRows);
+        long rows = 0;
+        // The line number of the first row not handed to the workers
+        long firstLineNumber = 2;
+        try {
+            // Blank rows stay in the chunk as null, so that line numbers can be derived from positions
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while (!job.hasFailed() && (line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    chunk.add(null);
+                } else {
+                    chunk.add(line);
+                    rows++;
+                }
+                if (chunk.size() == CHUNK_SIZE) {
+                    job.submit(chunk, firstLineNumber);
+                    firstLineNumber += chunk.size();
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty() && !job.hasFailed()) {
+                job.submit(chunk, firstLineNumber);
+                firstLineNumber += chunk.size();
+            }
+        } catch (IOException | RuntimeException e) {
+            job.failure.compareAndSet(null, e);
+        } finally {
+            job.finish();
+        }
+
+        Throwable cause = job.failure.get();
+        if (cause != null) {
+            if (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            throw job.failed(file, firstLineNumber, cause);
+        }
+
+        ImportResult result = new ImportResult(rows, job.createdCases.get(), rejectedRows.getCount(),
+                System.nanoTime() - startTime);
+        log.info("Imported {}: {}", file, result);
+        return result;
+    }
+
+    private static Row parseRow(Layout layout, String line) {
+        List<String> fields = DelimitedText.split(line, layout.delimiter);
+        if (fields.size() < layout.minimumFieldCount) {
+            throw new IllegalArgumentException("expected at least " + layout.minimumFieldCount
+                    + " fields but found " + fields.size());
+        }
+
+        String offenderName = required(fields, layout, "offender_name");
+        String offenderAddress = required(fields, layout, "offender_address");
+        LocalDate offenderDateOfBirth = LocalDate.parse(required(fields, layout, "offender_date_of_birth"));
+
+        String typeName = required(fields, layout, "offense_type");
+        OffenseType offenseType;
+        try {
+            offenseType = OffenseType.valueOf(typeName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown offense type " + typeName);
+        }
+
+        String location = required(fields, layout, "location");
+        LocalDate offenseDate = LocalDate.parse(required(fields, layout, "offense_date"));
+
+        String evidenceDescription = null;
+        Integer evidenceIndex = layout.columns.get(EVIDENCE_COLUMN);
+        if (evidenceIndex != null && evidenceIndex < fields.size() && !fields.get(evidenceIndex).isEmpty()) {
+            evidenceDescription = fields.get(evidenceIndex);
+        }
+        return new Row(offenderName, offenderAddress, offenderDateOfBirth, location, offenseDate, offenseType,
+                evidenceDescription);
+    }
+
+    private Offense toOffense(Row row) {
+        Offender offender = caseManager.resolveOffender(row.offenderName, row.offenderAddress,
+                row.offenderDateOfBirth);
+        Offense offense = new Offense(offender, row.location, row.offenseDate, row.offenseType);
+        if (row.evidenceDescription != null) {
+            offense.setEvidenceDescription(row.evidenceDescription);
+        }
+        return offense;
+    }
+
+    /**
+     * Checks whether a case was created for an offense, by looking for it in its offender's history
+     * @param offense The offense
+     * @return true if a case exists
+     */
+    private static boolean hasCase(Offense offense) {
+        Offender offender = offense.getOffender();
+        synchronized (offender) {
+            // Compared by identity: the generated equals() of an offense walks the offender's whole history
+            for (RegulatoryCase regulatoryCase : offender.getOffenseHistory()) {
+                if (regulatoryCase.getOffense() == offense) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String required(List<String> fields, Layout layout, String column) {
+        String value = fields.get(layout.columns.get(column)).trim();
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException(column + " is empty");
+        }
+        return value;
+    }
+
+    /**
+     * Counters of a finished import
+     */
+    @Value
+    public static class ImportResult {
+        // Non-blank rows read from the file
+        long rows;
+        long createdCases;
+        long rejectedRows;
+        long elapsedNanos;
+
+        /**
+         * @return The import throughput in rows per second
+         */
+        public double getRowsPerSecond() {
+            return elapsedNanos > 0 ? rows * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return rows + " rows, " + createdCases + " cases created, " + rejectedRows + " rows rejected in "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms ("
+                    + Math.round(getRowsPerSecond()) + " rows/s)";
+        }
+    }
+
+    /**
+     * A range of line numbers, both inclusive
+     */
+    @Value
+    public static class LineRange {
+        long firstLine;
+        // Long.MAX_VALUE for a range that extends to the end of the file
+        long lastLine;
+
+        @Override
+        public String toString() {
+            if (lastLine == Long.MAX_VALUE) {
+                return firstLine + "-end";
+            }
+            return firstLine == lastLine ? Long.toString(firstLine) : firstLine + "-" + lastLine;
+        }
+    }
+
+    /**
+     * Thrown when an import stops because cases could not be created or a file could not be read or written.
+     * Every line whose case was created lies in one of the created ranges, and every line whose case was not
+     * created lies in one of the not created ranges; blank lines and rejected rows may lie in either.
+     * Importing the not created ranges again completes the import
+     */
+    @Getter
+    public static class ImportFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<LineRange> createdLines;
+        private final transient List<LineRange> notCreatedLines;
+
+        ImportFailedException(String message, Throwable cause, List<LineRange> createdLines,
+                              List<LineRange> notCreatedLines) {
+            super(message + "; cases created for lines " + createdLines + ", not created for lines "
+                    + notCreatedLines, cause);
+            this.createdLines = createdLines;
+            this.notCreatedLines = notCreatedLines;
+        }
+    }
+
+    /**
+     * Column positions of a file, taken from its header
+     */
+    /**
+     * The values of a valid row
+     */
+    @Value
+    private static class Row {
+        String offenderName;
+        String offenderAddress;
+        LocalDate offenderDateOfBirth;
+        String location;
+        LocalDate offenseDate;
+        OffenseType offenseType;
+        String evidenceDescription;
+    }
+
+    private static class Layout {
+        final char delimiter;
+        final Map<String, Integer> columns;
+        final int minimumFieldCount;
+
+        Layout(String header) throws IOException {
+            this.delimiter = DelimitedText.delimiterOf(header);
+            this.columns = DelimitedText.columnsOf(header, delimiter, REQUIRED_COLUMNS);
+
+            int maximumIndex = 0;
+            for (String column : REQUIRED_COLUMNS) {
+                maximumIndex = Math.max(maximumIndex, columns.get(column));
+            }
+            this.minimumFieldCount = maximumIndex + 1;
+        }
+    }
+
+    /**
+     * The worker threads and shared state of one import.
+     * At most CHUNKS_IN_FLIGHT_PER_THREAD parts of chunks per worker are queued or being imported at a time
+     */
+    private class Job {
+        final Layout layout;
+        final RejectedRows rejectedRows;
+        // Single-threaded, so that the rows routed to a worker are imported in the order they were routed
+        final ExecutorService[] workers;
+        final Semaphore chunksInFlight = new Semaphore(threads * CHUNKS_IN_FLIGHT_PER_THREAD);
+        final AtomicLong createdCases = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // LINE_* state of every line of the chunks that did not create all their cases, by first line number;
+        // chunks that did are kept without states. Each worker sets the states of the lines routed to it
+        final Map<Long, byte[]> chunkLineStates = new ConcurrentSkipListMap<>();
+        final Map<Long, Integer> chunkSizes = new ConcurrentHashMap<>();
+
+        Job(Layout layout, RejectedRows rejectedRows) {
+            this.layout = layout;
+            this.rejectedRows = rejectedRows;
+            this.workers = new ExecutorService[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "offense-import");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+
+        boolean hasFailed() {
+            return failure.get() != null;
+        }
+
+        /**
+         * Parses the rows of a chunk, rejecting invalid ones in file order, and hands the valid rows to the
+         * workers of their offenders, blocking while too many chunks are in flight
+         * @param lines The rows; blank rows are null
+         * @param firstLineNumber The line number of the first row
+         */
+        void submit(List<String> lines, long firstLineNumber) {
+            chunkSizes.put(firstLineNumber, lines.size());
+            // The valid rows by position in the chunk; blank and rejected rows are null
+            List<Row> rows = new ArrayList<>(lines.size());
+            List<List<Integer>> parts = new ArrayList<>(workers.length);
+            for (int i = 0; i < workers.length; i++) {
+                parts.add(new ArrayList<>());
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                Row row = null;
+                if (line != null) {
+                    try {
+                        row = parseRow(layout, line);
+                        parts.get(workerOf(row)).add(i);
+                    } catch (RuntimeException e) {
+                        rejectedRows.write(line, "line " + (firstLineNumber + i) + ": " + e.getMessage());
+                    }
+                }
+                rows.add(row);
+            }
+
+            for (int i = 0; i < workers.length; i++) {
+                List<Integer> part = parts.get(i);
+                if (part.isEmpty()) {
+                    continue;
+                }
+                chunksInFlight.acquireUninterruptibly();
+                workers[i].execute(() -> {
+                    try {
+                        importPart(rows, part, firstLineNumber);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        chunksInFlight.release();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Picks the worker of a row by its offender's name and date of birth, the key offenders are resolved by
+         * @param row The row
+         * @return The index of the worker
+         */
+        private int workerOf(Row row) {
+            String key = row.offenderName + '|' + row.offenderDateOfBirth;
+            return Math.floorMod(key.hashCode(), workers.length);
+        }
+
+        /**
+         * Collects which lines got their cases into the exception of a failed import
+         * @param file The imported file
+         * @param firstUnsubmittedLine The line number of the first row not handed to the workers
+         * @param cause The failure
+         * @return The exception to throw
+         */
+        ImportFailedException failed(Path file, long firstUnsubmittedLine, Throwable cause) {
+            List<LineRange> created = new ArrayList<>();
+            List<LineRange> notCreated = new ArrayList<>();
+            byte rangeState = LINE_NEUTRAL;
+            long rangeStart = 0;
+            long rangeEnd = 0;
+
+            for (Map.Entry<Long, Integer> chunk : new TreeMap<>(chunkSizes).entrySet()) {
+                long firstLine = chunk.getKey();
+                byte[] states = chunkLineStates.get(firstLine);
+                for (int i = 0; i < chunk.getValue(); i++) {
+                    byte state = states != null ? states[i] : LINE_CREATED;
+                    if (state == LINE_NEUTRAL) {
+                        continue;
+                    }
+                    long lineNumber = firstLine + i;
+                    if (state != rangeState) {
+                        addRange(rangeState == LINE_CREATED ? created : notCreated, rangeState, rangeStart, rangeEnd);
+                        rangeState = state;
+                        rangeStart = lineNumber;
+                    }
+                    rangeEnd = lineNumber;
+                }
+            }
+            if (rangeState == LINE_NOT_CREATED) {
+                rangeEnd = Long.MAX_VALUE;
+            } else {
+                addRange(created, rangeState, rangeStart, rangeEnd);
+                rangeStart = firstUnsubmittedLine;
+                rangeEnd = Long.MAX_VALUE;
+            }
+            notCreated.add(new LineRange(rangeStart, rangeEnd));
+
+            return new ImportFailedException("Import of " + file + " failed: " + cause.getMessage(), cause,
+                    created, notCreated);
+        }
+
+        private void addRange(List<LineRange> ranges, byte state, long firstLine, long lastLine) {
+            if (state != LINE_NEUTRAL) {
+                ranges.add(new LineRange(firstLine, lastLine));
+            }
+        }
+
+        /**
+         * Waits until all submitted chunks are imported
+         */
+        void finish() {
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
+            boolean interrupted = false;
+            for (ExecutorService worker : workers) {
+                while (true) {
+                    try {
+                        if (worker.awaitTermination(1, TimeUnit.MINUTES)) {
+                            break;
+                        }
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Creates the cases of the rows of a chunk routed to one worker as one batch.
+         * Once the import has failed, parts are skipped and their rows count as not created
+         * @param rows The valid rows of the chunk; blank and rejected rows are null
+         * @param part The positions in the chunk of the rows routed to the worker, in file order
+         * @param firstLineNumber The line number of the first row of the chunk
+         */
+        private void importPart(List<Row> rows, List<Integer> part, long firstLineNumber) {
+            if (hasFailed()) {
+                byte[] states = lineStates(rows, firstLineNumber);
+                for (int i : part) {
+                    states[i] = LINE_NOT_CREATED;
+                }
+                return;
+            }
+
+            List<Offense> offenses = new ArrayList<>(part.size());
+            for (int i : part) {
+                offenses.add(toOffense(rows.get(i)));
+            }
+
+            try {
+                caseManager.createNewCases(offenses);
+            } catch (RuntimeException e) {
+                // The cases of offenders handled before the failure were created
+                byte[] states = lineStates(rows, firstLineNumber);
+                long created = 0;
+                for (int i = 0; i < offenses.size(); i++) {
+                    boolean hasCase = hasCase(offenses.get(i));
+                    states[part.get(i)] = hasCase ? LINE_CREATED : LINE_NOT_CREATED;
+                    created += hasCase ? 1 : 0;
+                }
+                createdCases.addAndGet(created);
+                throw e;
+            }
+            createdCases.addAndGet(offenses.size());
+        }
+
+        /**
+         * Gets the line states of a chunk, which start out as created for its valid rows and neutral for its
+         * blank and rejected rows, so that the lines of the parts that created all their cases need no update
+         * @param rows The valid rows of the chunk; blank and rejected rows are null
+         * @param firstLineNumber The line number of the first row of the chunk
+         * @return The states, shared by the workers of the chunk
+         */
+        private byte[] lineStates(List<Row> rows, long firstLineNumber) {
+            return chunkLineStates.computeIfAbsent(firstLineNumber, line -> {
+                byte[] states = new byte[rows.size()];
+                for (int i = 0; i < states.length; i++) {
+                    states[i] = rows.get(i) != null ? LINE_CREATED : LINE_NEUTRAL;
+                }
+                return states;
+            });
+        }
+    }
+}
@@ -7,29 +7,30 @@ import lombok.RequiredArgsConstructor;
  */
 @RequiredArgsConstructor
 public enum OffenseType {
-    PARKING_VIOLATION("Illegal parking in restricted areas", 75.0),
-    NOISE_DISTURBANCE("Exceeding permitted noise levels", 150.0),
-    WASTE_DISPOSAL("Improper waste disposal", 250.0),
-    BUILDING_CODE("Violation of building regulations", 500.0),
-    BUSINESS_PERMIT("Operating without proper business permits", 750.0),
-    ENVIRONMENTAL("Environmental protection violations", 1000.0),
-    FOOD_SAFETY("Food safety and hygiene violations", 800.0),
-    PUBLIC_SAFETY("Endangering public safety", 600.0);
+    PARKING_VIOLATION("Illegal parking in restricted areas", 7_500),
+    NOISE_DISTURBANCE("Exceeding permitted noise levels", 15_000),
+    WASTE_DISPOSAL("Improper waste disposal", 25_000),
+    BUILDING_CODE("Violation of building regulations", 50_000),
+    BUSINESS_PERMIT("Operating without proper business permits", 75_000),
+    ENVIRONMENTAL("Environmental protection violations", 100_000),
+    FOOD_SAFETY("Food safety and hygiene violations", 80_000),
+    PUBLIC_SAFETY("Endangering public safety", 60_000);
     
     @Getter
     private final String description;
     
+    // Base fine in cents
     @Getter
-    private final double baseFineAmount;
+    private final long baseFineCents;
     
     /**
      * Calculates the fine amount based on the base amount and penalty factor
      * Penalty factor can increase for repeat offenses or more severe violations
      * 
      * @param penaltyFactor Factor to multiply the base fine by
-     * @return The calculated fine amount
+     * @return The calculated fine amount in cents
      */
-    public double calculateFine(double penaltyFactor) {
-        return baseFineAmount * penaltyFactor;
+    public long calculateFine(double penaltyFactor) {
+        return Money.multiply(baseFineCents, penaltyFactor);
     }
 }
@@ -1,9 +1,10 @@
 import java.time.LocalDate;
-import java.util.UUID;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 /**
  * Represents a payment made towards a fine
@@ -11,12 +12,13 @@ import lombok.RequiredArgsConstructor;
 @Data
 @RequiredArgsConstructor
 public class Payment {
-    private final String id = UUID.randomUUID().toString();
+    @Setter(AccessLevel.PACKAGE)
+    private String id = Ids.next();
     
-    @NonNull
-    private Double amount;
+    // Amount in cents
+    private final long amountCents;
     
-    private LocalDate paymentDate = LocalDate.now();
+    private LocalDate paymentDate = TimeSource.today();
     
     @NonNull
     private PaymentMethod paymentMethod;
@@ -33,7 +35,7 @@ public class Payment {
     
     @Override
     public String toString() {
-        return "Payment [Amount=$" + amount + ", Date=" + paymentDate + 
+        return "Payment [Amount=$" + Money.format(amountCents) + ", Date=" + paymentDate + 
                ", Method=" + paymentMethod + 
                (referenceNumber != null ? ", Reference=" + referenceNumber : "") + "]";
     }
@@ -5,17 +5,62 @@
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class RegulationOffenseManagementSystem {
     private static final Scanner scanner = new Scanner(System.in);
-    private static final CaseManager caseManager = new CaseManager();
+    private static CaseManager caseManager;
+    private static CaseEventBus eventBus;
+    private static final CaseEventCounter eventCounter = new CaseEventCounter();
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         boolean running = true;
         
+        // Cases are stored in a database if one is configured, and journaled otherwise
+        String jdbcUrl = System.getProperty("rom.jdbcUrl");
+        // Cases closed for a while are moved out of memory to the case archive
+        Path archiveFile = Path.of(System.getProperty("rom.archive", "case-archive.bin"));
+        JdbcCaseRepository repository = null;
+        if (jdbcUrl != null) {
+            try {
+                repository = new JdbcCaseRepository(DriverManager.getConnection(jdbcUrl));
+            } catch (SQLException e) {
+                throw new IOException("Could not open the case database " + jdbcUrl, e);
+            }
+            caseManager = new CaseManager(repository, archiveFile);
+        } else {
+            // Snapshots keep the replay of the journal on startup short
+            Path journalFile = Path.of(System.getProperty("rom.journal", "case-journal.log"));
+            Path snapshotFile = Path.of(System.getProperty("rom.snapshot", "case-snapshot.bin"));
+            caseManager = CaseManager.open(journalFile, snapshotFile, archiveFile);
+            caseManager.scheduleCheckpoints(Long.getLong("rom.checkpointMinutes", 15), TimeUnit.MINUTES);
+        }
+        // Case histories are kept in memory-mapped files instead of the heap
+        caseManager.keepHistoryIn(Path.of(System.getProperty("rom.historyDir", "case-history")));
+        caseManager.scheduleArchiving(Integer.getInteger("rom.archiveAfterDays", 90), 1, TimeUnit.HOURS);
+        
+        // Case lifecycle events are counted on a thread of their own, off the threads that change cases
+        eventBus = new CaseEventBus(Integer.getInteger("rom.eventBusCapacity", 1 << 16),
+                CaseEventBus.FullRingPolicy.valueOf(System.getProperty("rom.eventBusPolicy", "BLOCK")));
+        eventBus.subscribe("counter", eventCounter);
+        eventBus.start();
+        caseManager.publishEventsTo(eventBus);
+        
+        // With an HTTP port, the system serves the case API instead of the menu
+        String httpPort = System.getProperty("rom.httpPort");
+        if (httpPort != null) {
+            serveHttp(Integer.parseInt(httpPort), repository);
+            return;
+        }
+        
         log.info("Welcome to Regulatory Offense Management System");
         
         while (running) {
@@ -39,6 +84,15 @@ public class RegulationOffenseManagementSystem {
                     generateReports();
                     break;
                 case 6:
+                    importOffenses();
+                    break;
+                case 7:
+                    reconcileBankStatement();
+                    break;
+                case 8:
+                    exportCases();
+                    break;
+                case 9:
                     running = false;
                     log.info("Exiting system. Goodbye!");
                     break;
@@ -48,6 +102,36 @@ public class RegulationOffenseManagementSystem {
         }
         
         scanner.close();
+        caseManager.close();
+        if (repository != null) {
+            repository.close();
+        }
+        eventBus.close();
+        log.info(eventCounter.generateReport());
+    }
+    
+    /**
+     * Serves the case API until the process is stopped, then shuts the system down
+     * @param port The port to listen on
+     * @param repository The case database, or null
+     * @throws IOException if the server cannot listen on the port
+     */
+    private static void serveHttp(int port, JdbcCaseRepository repository) throws IOException {
+        CaseApiServer server = CaseApiServer.start(caseManager, new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                caseManager.close();
+                if (repository != null) {
+                    repository.close();
+                }
+            } catch (IOException e) {
+                log.error("Shutdown failed", e);
+            }
+            eventBus.close();
+            log.info(eventCounter.generateReport());
+        }, "shutdown"));
+        log.info("Serving the case API on port " + port + "; stop the process to shut down");
     }
     
     private static void printMenu() {
@@ -57,7 +141,10 @@ public class RegulationOffenseManagementSystem {
         log.info("3. Process Payment");
         log.info("4. Record Appeal");
         log.info("5. Generate Reports");
-        log.info("6. Exit");
+        log.info("6. Import Offenses from File");
+        log.info("7. Reconcile Bank Statement");
+        log.info("8. Export Cases for Analysis");
+        log.info("9. Exit");
         log.info("Enter your choice: ");
     }
     
@@ -107,10 +194,58 @@ public class RegulationOffenseManagementSystem {
         RegulatoryCase regulatoryCase = caseManager.createNewCase(offense);
         
         log.info("Case created successfully with ID: " + regulatoryCase.getCaseId());
-        log.info("Fine amount: $" + regulatoryCase.getFine().getAmount());
+        log.info("Fine amount: $" + Money.format(regulatoryCase.getFine().getAmountCents()));
         log.info("Payment deadline: " + regulatoryCase.getFine().getPaymentDeadline());
     }
     
+    private static void importOffenses() {
+        log.info("\n=== Import Offenses from File ===");
+        log.info("Enter path of the CSV or TSV file: ");
+        Path file = Path.of(scanner.nextLine().trim());
+        Path rejectedRowsFile = file.resolveSibling(file.getFileName() + ".rejected");
+        
+        try {
+            OffenseImporter.ImportResult result = new OffenseImporter(caseManager).importFile(file, rejectedRowsFile);
+            log.info("Import finished: " + result);
+            if (result.getRejectedRows() > 0) {
+                log.info("Rejected rows were written to " + rejectedRowsFile);
+            }
+        } catch (IOException e) {
+            log.info("Import failed: " + e.getMessage());
+        }
+    }
+    
+    private static void reconcileBankStatement() {
+        log.info("\n=== Reconcile Bank Statement ===");
+        log.info("Enter path of the statement file: ");
+        Path file = Path.of(scanner.nextLine().trim());
+        Path unmatchedLinesFile = file.resolveSibling(file.getFileName() + ".unmatched");
+        
+        try {
+            BankStatementReconciler.ReconciliationResult result =
+                    new BankStatementReconciler(caseManager).reconcile(file, unmatchedLinesFile);
+            log.info("Reconciliation finished: " + result);
+            if (result.getUnmatchedLines() > 0) {
+                log.info("Unmatched lines were written to " + unmatchedLinesFile);
+            }
+        } catch (IOException e) {
+            log.info("Reconciliation failed: " + e.getMessage());
+        }
+    }
+    
+    private static void exportCases() {
+        log.info("\n=== Export Cases for Analysis ===");
+        log.info("Enter path of the export file: ");
+        Path file = Path.of(scanner.nextLine().trim());
+        
+        try {
+            CaseExporter.ExportResult result = new CaseExporter(caseManager).export(file);
+            log.info("Export finished: " + result);
+        } catch (IOException e) {
+            log.info("Export failed: " + e.getMessage());
+        }
+    }
+    
     private static void viewCaseDetails() {
         log.info("\n=== View Case Details ===");
         log.info("Enter case ID: ");
@@ -138,11 +273,11 @@ public class RegulationOffenseManagementSystem {
         RegulatoryCase regulatoryCase = caseManager.getCaseById(caseId);
         
         if (regulatoryCase != null) {
-            log.info("Case found. Fine amount: $" + regulatoryCase.getFine().getAmount());
+            log.info("Case found. Fine amount: $" + Money.format(regulatoryCase.getFine().getAmountCents()));
             log.info("Enter payment amount: $");
-            double amount = Double.parseDouble(scanner.nextLine());
+            long amountCents = Money.parse(scanner.nextLine().trim());
             
-            caseManager.recordPayment(regulatoryCase, amount);
+            caseManager.recordPayment(regulatoryCase, amountCents);
             log.info("Payment processed successfully.");
         } else {
             log.info("Case not found.");
@@ -173,6 +308,7 @@ public class RegulationOffenseManagementSystem {
         log.info("1. Monthly Fine Statistics");
         log.info("2. Payment Status Report");
         log.info("3. Offense Type Distribution");
+        log.info("4. Case Activity Since Startup");
         log.info("Select report type: ");
         
         int reportType = Integer.parseInt(scanner.nextLine());
@@ -188,6 +324,9 @@ public class RegulationOffenseManagementSystem {
             case 3:
                 log.info(reportGenerator.generateOffenseTypeDistribution());
                 break;
+            case 4:
+                log.info(eventCounter.generateReport());
+                break;
             default:
                 log.info("Invalid report type.");
         }
@@ -1,17 +1,26 @@
+import java.lang.invoke.VarHandle;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 
 /**
- * Represents a complete regulatory case including offense, fine, and current status
+ * Represents a complete regulatory case including offense, fine, and current status.
+ * Cases are changed through the CaseManager, which locks, journals and versions every change;
+ * the setters and mutators are package-private for it
  */
 @Data
+@Setter(AccessLevel.PACKAGE)
 public class RegulatoryCase {
-    private final String caseId = UUID.randomUUID().toString();
+    // Generated on creation; the package-private setter lets journal replay restore the original ID
+    @Setter(AccessLevel.PACKAGE)
+    private String caseId = Ids.next();
 
     @NonNull
     private Offense offense;
@@ -21,14 +30,68 @@ public class RegulatoryCase {
 
     private Appeal appeal;
 
-    private CaseStatus status = CaseStatus.CREATED;
+    // Changed through updateStatus; the package-private setter is for restoring a snapshot
+    @Setter(AccessLevel.PACKAGE)
+    private volatile CaseStatus status = CaseStatus.CREATED;
 
-    private final LocalDate creationDate = LocalDate.now();
+    @Setter(AccessLevel.PACKAGE)
+    private LocalDate creationDate = TimeSource.today();
 
     private LocalDate closedDate;
 
+    private LocalDate lastReminderDate;
+
+    // Date on which the statute of limitations expires, fixed when the case is created
+    @Setter(AccessLevel.PACKAGE)
+    private LocalDate statuteExpiryDate;
+
+    // The actions of the case until its history is moved to a history log, null afterwards
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
     private List<CaseAction> caseHistory = new ArrayList<>();
 
+    // The history log holding the actions of the case, or null while they are held in caseHistory
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile CaseHistoryLog historyLog;
+
+    // Position of the last action in the history log; written after the action is complete
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile long lastActionPosition = CaseHistoryLog.NO_RECORD;
+
+    // Number of actions in the history log
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private int loggedActionCount;
+
+    // Journal position after the last journaled mutation of this case, 0 if none
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    @EqualsAndHashCode.Exclude
+    private long journalPosition;
+
+    // Set once the case has moved to the case archive; archived cases are read-only
+    @Setter(AccessLevel.PACKAGE)
+    @EqualsAndHashCode.Exclude
+    private volatile boolean archived;
+
+    // Incremented by the CaseManager when it begins and again when it ends a mutation, so it is odd
+    // while the case is being changed; lets readers check that they saw no mutation without locking
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile long mutationStamp;
+
+    // Notified on every status transition (used by the CaseManager to keep its indexes current)
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.PACKAGE)
+    @EqualsAndHashCode.Exclude
+    private CaseStatusListener statusListener;
+
     /**
      * Creates a new regulatory case with the specified offense and fine
      * @param offense The offense that occurred
@@ -39,8 +102,9 @@ public class RegulatoryCase {
         this.fine = fine;
 
         // Add initial actions to the case history
-        addAction(ActionType.CASE_CREATED, "Case created for " + offense.getOffenseType() + " by " + offense.getOffender().getFullName());
-        addAction(ActionType.FINE_CALCULATED, "Fine calculated: $" + fine.getAmount());
+        addAction(ActionType.CASE_CREATED, ActionTemplate.CASE_CREATED,
+                offense.getOffenseType(), offense.getOffender().getFullName());
+        addAction(ActionType.FINE_CALCULATED, ActionTemplate.FINE_CALCULATED, fine.getAmountCents());
     }
 
     /**
@@ -49,26 +113,172 @@ public class RegulatoryCase {
      * @param description Description of the action
      * @return The created case action
      */
-    public CaseAction addAction(ActionType actionType, String description) {
-        CaseAction action = new CaseAction(actionType, description);
-        caseHistory.add(action);
+    CaseAction addAction(ActionType actionType, String description) {
+        return addAction(actionType, ActionTemplate.FREE_TEXT, description);
+    }
+
+    /**
+     * Adds a structured action to the case history; its description is rendered on demand
+     * @param actionType The type of action
+     * @param template The description template
+     * @param arguments The values inserted into the template
+     * @return The created case action
+     */
+    CaseAction addAction(ActionType actionType, ActionTemplate template, Object... arguments) {
+        CaseAction action = new CaseAction(actionType, template, TimeSource.currentTimeMillis(), arguments);
+        if (historyLog != null) {
+            lastActionPosition = historyLog.append(lastActionPosition, action);
+            loggedActionCount++;
+        } else {
+            caseHistory.add(action);
+        }
         return action;
     }
 
+    /**
+     * Gets the history of the case. A history kept in a history log is read from the log,
+     * and the list returned is an unmodifiable copy
+     * @return The actions, oldest first
+     */
+    public List<CaseAction> getCaseHistory() {
+        CaseHistoryLog log = historyLog;
+        if (log == null) {
+            List<CaseAction> actions = caseHistory;
+            if (actions != null) {
+                return actions;
+            }
+            // Moved to the log meanwhile
+            log = historyLog;
+        }
+        return log.read(lastActionPosition, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Replaces the history of the case, which is held in memory afterwards
+     * @param caseHistory The actions, oldest first
+     */
+    void setCaseHistory(List<CaseAction> caseHistory) {
+        this.caseHistory = caseHistory;
+        this.historyLog = null;
+        this.lastActionPosition = CaseHistoryLog.NO_RECORD;
+        this.loggedActionCount = 0;
+    }
+
+    /**
+     * Gets the number of actions in the history without reading them
+     * @return The number of actions
+     */
+    public int getCaseHistorySize() {
+        return historyLog != null ? loggedActionCount : caseHistory.size();
+    }
+
+    /**
+     * Gets the version of the case. Every change of a case adds to its history, so the version is the
+     * size of the history: it grows with every change and is kept across restarts with the history
+     * @return The version
+     */
+    public long getVersion() {
+        return getCaseHistorySize();
+    }
+
+    /**
+     * Marks the start of a mutation; the caller holds the case's lock
+     */
+    void beginMutation() {
+        mutationStamp++;
+        // The changes that follow must not become visible before the odd stamp
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Marks the end of a mutation; the caller holds the case's lock
+     */
+    void endMutation() {
+        mutationStamp++;
+    }
+
+    /**
+     * Gets the mutation stamp for an optimistic read of the case
+     * @return The stamp; odd while a mutation is in progress
+     */
+    long getMutationStamp() {
+        return mutationStamp;
+    }
+
+    /**
+     * Checks that no mutation began since an optimistic read started
+     * @param stamp The stamp read before the case
+     * @return true if the fields read since the stamp are consistent
+     */
+    boolean isUnchangedSince(long stamp) {
+        // The fields read before must not be read after the stamp
+        VarHandle.loadLoadFence();
+        return (stamp & 1) == 0 && mutationStamp == stamp;
+    }
+
+    /**
+     * Gets the newest actions of the history, reading no older actions from a history log
+     * @param fromIndex The index of the first action to return
+     * @return The actions from the index on, oldest first
+     */
+    List<CaseAction> getCaseHistorySince(int fromIndex) {
+        if (historyLog == null) {
+            return caseHistory.subList(fromIndex, caseHistory.size());
+        }
+        return historyLog.read(lastActionPosition, loggedActionCount - fromIndex);
+    }
+
+    /**
+     * Moves the history held in memory to a history log; later actions are appended to the log.
+     * The caller must hold the case's lock
+     * @param log The history log
+     */
+    void moveHistoryTo(CaseHistoryLog log) {
+        if (historyLog != null) {
+            return;
+        }
+        long position = CaseHistoryLog.NO_RECORD;
+        for (CaseAction action : caseHistory) {
+            position = log.append(position, action);
+        }
+        loggedActionCount = caseHistory.size();
+        lastActionPosition = position;
+        historyLog = log;
+        caseHistory = null;
+    }
+
     /**
      * Updates the status of the case
      * @param newStatus The new status
      * @param reason The reason for the status change
      */
-    public void updateStatus(CaseStatus newStatus, String reason) {
+    void updateStatus(CaseStatus newStatus, String reason) {
+        updateStatus(newStatus, reason, null);
+    }
+
+    /**
+     * Updates the status of the case
+     * @param newStatus The new status
+     * @param reason The reason for the status change
+     * @param detail Additional detail appended to the reason, or null
+     */
+    private void updateStatus(CaseStatus newStatus, String reason, String detail) {
         CaseStatus oldStatus = this.status;
         this.status = newStatus;
 
-        addAction(ActionType.STATUS_UPDATED,
-                "Status changed from " + oldStatus + " to " + newStatus + ": " + reason);
+        if (detail == null) {
+            addAction(ActionType.STATUS_UPDATED, ActionTemplate.STATUS_CHANGED, oldStatus, newStatus, reason);
+        } else {
+            addAction(ActionType.STATUS_UPDATED, ActionTemplate.STATUS_CHANGED_WITH_DETAIL,
+                    oldStatus, newStatus, reason, detail);
+        }
 
         if (newStatus == CaseStatus.CLOSED) {
-            this.closedDate = LocalDate.now();
+            this.closedDate = TimeSource.today();
+        }
+
+        if (statusListener != null) {
+            statusListener.statusChanged(this, oldStatus, newStatus);
         }
     }
 
@@ -77,14 +287,14 @@ public class RegulatoryCase {
      * @param reason The reason for the appeal
      * @return The created appeal
      */
-    public Appeal fileAppeal(String reason) {
+    Appeal fileAppeal(String reason) {
         if (this.appeal != null) {
             throw new IllegalStateException("An appeal has already been filed for this case");
         }
 
         this.appeal = new Appeal(reason);
-        updateStatus(CaseStatus.APPEAL_FILED, "Appeal filed: " + reason);
-        addAction(ActionType.APPEAL_RECEIVED, "Appeal received: " + reason);
+        updateStatus(CaseStatus.APPEAL_FILED, "Appeal filed", reason);
+        addAction(ActionType.APPEAL_RECEIVED, ActionTemplate.APPEAL_RECEIVED, reason);
 
         return this.appeal;
     }
@@ -93,11 +303,11 @@ public class RegulatoryCase {
      * Records a payment towards the fine
      * @param payment The payment to record
      */
-    public void recordPayment(Payment payment) {
+    void recordPayment(Payment payment) {
         fine.recordPayment(payment);
 
-        addAction(ActionType.PAYMENT_RECEIVED,
-                "Payment received: $" + payment.getAmount() + " via " + payment.getPaymentMethod());
+        addAction(ActionType.PAYMENT_RECEIVED, ActionTemplate.PAYMENT_RECEIVED,
+                payment.getAmountCents(), payment.getPaymentMethod());
 
         if (fine.getPaymentStatus() == PaymentStatus.PAID) {
             updateStatus(CaseStatus.PAID, "Fine paid in full");
@@ -112,16 +322,26 @@ public class RegulatoryCase {
      * @return true if the case is still actionable
      */
     public boolean isWithinStatuteOfLimitations(int limitInMonths) {
-        return offense.isWithinStatuteOfLimitations(LocalDate.now(), limitInMonths);
+        return offense.isWithinStatuteOfLimitations(TimeSource.today(), limitInMonths);
     }
 
     /**
      * Sends a reminder for unpaid or partially paid fines
      * @return true if a reminder was sent
      */
-    public boolean sendReminder() {
-        if (fine.isOverdue() && status != CaseStatus.CLOSED && status != CaseStatus.PAID) {
-            addAction(ActionType.REMINDER_SENT, "Payment reminder sent for overdue fine");
+    boolean sendReminder() {
+        return sendReminder(TimeSource.today());
+    }
+
+    /**
+     * Sends a reminder for unpaid or partially paid fines that are overdue on a given date
+     * @param today The evaluation date
+     * @return true if a reminder was sent
+     */
+    boolean sendReminder(LocalDate today) {
+        if (fine.isOverdue(today) && status != CaseStatus.CLOSED && status != CaseStatus.PAID) {
+            lastReminderDate = today;
+            addAction(ActionType.REMINDER_SENT, ActionTemplate.REMINDER_SENT);
             updateStatus(CaseStatus.PAYMENT_OVERDUE, "Payment deadline passed without full payment");
             return true;
         }
@@ -134,7 +354,7 @@ public class RegulatoryCase {
      * @param reason The reason for the decision
      * @param reviewerName The name of the reviewer
      */
-    public void decideAppeal(boolean approved, String reason, String reviewerName) {
+    void decideAppeal(boolean approved, String reason, String reviewerName) {
         if (appeal == null) {
             throw new IllegalStateException("No appeal has been filed for this case");
         }
@@ -142,24 +362,24 @@ public class RegulatoryCase {
         appeal.recordDecision(approved, reason, reviewerName);
 
         if (approved) {
-            updateStatus(CaseStatus.APPEAL_APPROVED, "Appeal approved: " + reason);
-            closedDate = LocalDate.now();
+            updateStatus(CaseStatus.APPEAL_APPROVED, "Appeal approved", reason);
+            closedDate = TimeSource.today();
         } else {
-            updateStatus(CaseStatus.APPEAL_REJECTED, "Appeal rejected: " + reason);
+            updateStatus(CaseStatus.APPEAL_REJECTED, "Appeal rejected", reason);
         }
 
-        addAction(ActionType.APPEAL_DECISION,
-                "Appeal " + (approved ? "approved" : "rejected") + ": " + reason);
+        addAction(ActionType.APPEAL_DECISION, ActionTemplate.APPEAL_DECISION,
+                approved ? "approved" : "rejected", reason);
     }
 
     /**
      * Closes the case
      * @param reason The reason for closing the case
      */
-    public void closeCase(String reason) {
+    void closeCase(String reason) {
         updateStatus(CaseStatus.CLOSED, reason);
-        this.closedDate = LocalDate.now();
-        addAction(ActionType.CASE_CLOSED, "Case closed: " + reason);
+        this.closedDate = TimeSource.today();
+        addAction(ActionType.CASE_CLOSED, ActionTemplate.CASE_CLOSED, reason);
     }
 
     @Override
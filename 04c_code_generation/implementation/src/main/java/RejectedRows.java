@@ -0,0 +1,67 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Side file for rows of a delimited file that could not be processed: the original header and rows,
+ * each with an error column added. The file is only created when the first row is written
+ */
+class RejectedRows implements AutoCloseable {
+    private static final String ERROR_COLUMN = "error";
+
+    private final Path file;
+    private final String header;
+    private final char delimiter;
+    private BufferedWriter writer;
+    private long count;
+
+    /**
+     * @param file The side file
+     * @param header The header of the processed file
+     * @param delimiter The field delimiter of the processed file
+     */
+    RejectedRows(Path file, String header, char delimiter) {
+        this.file = file;
+        this.header = header + delimiter + ERROR_COLUMN;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Writes a row with its error
+     * @param line The original row
+     * @param error The reason the row was rejected
+     */
+    synchronized void write(String line, String error) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                writer.write(header);
+                writer.newLine();
+            }
+            writer.write(line);
+            writer.write(delimiter);
+            writer.write(delimiter == '\t' ? error.replace('\t', ' ') : '"' + error.replace("\"", "\"\"") + '"');
+            writer.newLine();
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The number of rows written
+     */
+    synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
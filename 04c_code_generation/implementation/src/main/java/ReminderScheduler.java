@@ -0,0 +1,75 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Keeps unpaid cases ordered by the date their next payment reminder becomes due,
+ * so that a reminder run only touches the cases that are actually due
+ */
+public class ReminderScheduler {
+    private final PriorityQueue<ScheduledReminder> queue = new PriorityQueue<>();
+    
+    /**
+     * Schedules a reminder check for a case
+     * @param regulatoryCase The case to check
+     * @param dueDate The first date on which the reminder is due
+     */
+    public synchronized void schedule(RegulatoryCase regulatoryCase, LocalDate dueDate) {
+        queue.add(new ScheduledReminder(dueDate, regulatoryCase));
+    }
+    
+    /**
+     * Schedules reminder checks for several cases on the same date
+     * @param regulatoryCases The cases to check
+     * @param dueDate The first date on which the reminders are due
+     */
+    public synchronized void scheduleAll(List<RegulatoryCase> regulatoryCases, LocalDate dueDate) {
+        for (RegulatoryCase regulatoryCase : regulatoryCases) {
+            queue.add(new ScheduledReminder(dueDate, regulatoryCase));
+        }
+    }
+    
+    /**
+     * Removes and returns all cases whose reminder is due on or before the given date
+     * @param today The evaluation date
+     * @return The cases that are due, in order of their due date
+     */
+    public synchronized List<RegulatoryCase> pollDue(LocalDate today) {
+        List<RegulatoryCase> due = new ArrayList<>();
+        
+        while (!queue.isEmpty() && !queue.peek().getDueDate().isAfter(today)) {
+            due.add(queue.poll().getRegulatoryCase());
+        }
+        
+        return due;
+    }
+    
+    /**
+     * Gets the number of scheduled reminder checks
+     * @return The number of pending entries
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+    
+    /**
+     * A pending reminder check, ordered by due date
+     */
+    @Value
+    private static class ScheduledReminder implements Comparable<ScheduledReminder> {
+        @NonNull
+        LocalDate dueDate;
+        
+        @NonNull
+        RegulatoryCase regulatoryCase;
+        
+        @Override
+        public int compareTo(ScheduledReminder other) {
+            return dueDate.compareTo(other.dueDate);
+        }
+    }
+}
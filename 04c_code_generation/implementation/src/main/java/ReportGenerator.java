@@ -1,14 +1,18 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Month;
 import java.time.format.TextStyle;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Locale;
-import java.util.Map;
 
 import lombok.RequiredArgsConstructor;
 
 /**
- * Generates various reports based on regulatory cases
+ * Generates various reports based on regulatory cases.
+ * <p>
+ * Each report can be written to an Appendable, such as a Writer, row by row as it is produced,
+ * so that the memory needed does not grow with the number of rows; the generate methods
+ * return the same reports as strings.
  */
 @RequiredArgsConstructor
 public class ReportGenerator {
@@ -19,53 +23,56 @@ public class ReportGenerator {
      * @return The report as a formatted string
      */
     public String generateMonthlyFineStatistics() {
-        List<RegulatoryCase> allCases = caseManager.getAllCases();
-        
-        // Group by month
-        Map<Month, Double> monthlyFines = new HashMap<>();
-        Map<Month, Integer> monthlyCounts = new HashMap<>();
-        
-        for (RegulatoryCase regulatoryCase : allCases) {
-            Month month = regulatoryCase.getCreationDate().getMonth();
-            double fineAmount = regulatoryCase.getFine().getAmount();
-            
-            monthlyFines.put(month, monthlyFines.getOrDefault(month, 0.0) + fineAmount);
-            monthlyCounts.put(month, monthlyCounts.getOrDefault(month, 0) + 1);
+        StringBuilder report = new StringBuilder();
+        try {
+            writeMonthlyFineStatistics(report);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return report.toString();
+    }
+    
+    /**
+     * Writes a report on monthly fine statistics
+     * @param out The output
+     * @throws IOException if the output cannot be written
+     */
+    public void writeMonthlyFineStatistics(Appendable out) throws IOException {
+        CaseStatistics statistics = caseManager.getStatistics();
+        ReportRow row = new ReportRow();
         
-        // Build report
-        StringBuilder report = new StringBuilder();
-        report.append("========================\n");
-        report.append("Monthly Fine Statistics\n");
-        report.append("========================\n");
-        report.append(String.format("%-10s %-15s %-15s %-15s\n", 
-                      "Month", "Case Count", "Total Fines", "Average Fine"));
-        report.append("--------------------------------------------------------\n");
+        out.append("========================\n");
+        out.append("Monthly Fine Statistics\n");
+        out.append("========================\n");
+        row.text("Month", 10).text("Case Count", 15).text("Total Fines", 15).text("Average Fine", 15).writeLineTo(out);
+        out.append("--------------------------------------------------------\n");
         
-        double totalFines = 0.0;
-        int totalCases = 0;
+        long totalFines = 0;
+        long totalCases = 0;
         
         for (Month month : Month.values()) {
-            if (monthlyFines.containsKey(month)) {
-                double totalMonthlyFines = monthlyFines.get(month);
-                int caseCount = monthlyCounts.get(month);
-                double averageFine = totalMonthlyFines / caseCount;
+            long caseCount = statistics.getCaseCount(month);
+            if (caseCount > 0) {
+                long totalMonthlyFines = statistics.getTotalFinesCents(month);
+                long averageFine = Money.average(totalMonthlyFines, caseCount);
                 
-                report.append(String.format("%-10s %-15d $%-14.2f $%-14.2f\n",
-                              month.getDisplayName(TextStyle.FULL, Locale.ENGLISH),
-                              caseCount, totalMonthlyFines, averageFine));
+                row.text(month.getDisplayName(TextStyle.FULL, Locale.ENGLISH), 10)
+                        .number(caseCount, 15)
+                        .money(totalMonthlyFines, 14)
+                        .money(averageFine, 14)
+                        .writeLineTo(out);
                 
                 totalFines += totalMonthlyFines;
                 totalCases += caseCount;
             }
         }
         
-        report.append("--------------------------------------------------------\n");
-        report.append(String.format("%-10s %-15d $%-14.2f $%-14.2f\n",
-                     "TOTAL", totalCases, totalFines, 
-                     totalCases > 0 ? totalFines / totalCases : 0.0));
-        
-        return report.toString();
+        out.append("--------------------------------------------------------\n");
+        row.text("TOTAL", 10)
+                .number(totalCases, 15)
+                .money(totalFines, 14)
+                .money(Money.average(totalFines, totalCases), 14)
+                .writeLineTo(out);
     }
     
     /**
@@ -73,54 +80,50 @@ public class ReportGenerator {
      * @return The report as a formatted string
      */
     public String generatePaymentStatusReport() {
-        List<RegulatoryCase> allCases = caseManager.getAllCases();
-        
-        // Count cases by payment status
-        Map<PaymentStatus, Integer> statusCounts = new HashMap<>();
-        Map<PaymentStatus, Double> statusAmounts = new HashMap<>();
-        
-        for (RegulatoryCase regulatoryCase : allCases) {
-            PaymentStatus status = regulatoryCase.getFine().getPaymentStatus();
-            double amount = regulatoryCase.getFine().getAmount();
-            
-            statusCounts.put(status, statusCounts.getOrDefault(status, 0) + 1);
-            statusAmounts.put(status, statusAmounts.getOrDefault(status, 0.0) + amount);
+        StringBuilder report = new StringBuilder();
+        try {
+            writePaymentStatusReport(report);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return report.toString();
+    }
+    
+    /**
+     * Writes a report on payment status
+     * @param out The output
+     * @throws IOException if the output cannot be written
+     */
+    public void writePaymentStatusReport(Appendable out) throws IOException {
+        CaseStatistics statistics = caseManager.getStatistics();
+        ReportRow row = new ReportRow();
         
-        // Build report
-        StringBuilder report = new StringBuilder();
-        report.append("========================\n");
-        report.append("Payment Status Report\n");
-        report.append("========================\n");
-        report.append(String.format("%-15s %-15s %-15s\n", 
-                      "Status", "Case Count", "Total Amount"));
-        report.append("-------------------------------------------\n");
+        out.append("========================\n");
+        out.append("Payment Status Report\n");
+        out.append("========================\n");
+        row.text("Status", 15).text("Case Count", 15).text("Total Amount", 15).writeLineTo(out);
+        out.append("-------------------------------------------\n");
         
-        int totalCases = 0;
-        double totalAmount = 0.0;
+        long totalCases = 0;
+        long totalAmount = 0;
         
         for (PaymentStatus status : PaymentStatus.values()) {
-            int count = statusCounts.getOrDefault(status, 0);
-            double amount = statusAmounts.getOrDefault(status, 0.0);
+            long count = statistics.getCaseCount(status);
+            long amount = statistics.getTotalAmountCents(status);
             
-            report.append(String.format("%-15s %-15d $%-14.2f\n",
-                         status, count, amount));
+            row.text(status, 15).number(count, 15).money(amount, 14).writeLineTo(out);
             
             totalCases += count;
             totalAmount += amount;
         }
         
-        report.append("-------------------------------------------\n");
-        report.append(String.format("%-15s %-15d $%-14.2f\n",
-                     "TOTAL", totalCases, totalAmount));
+        out.append("-------------------------------------------\n");
+        row.text("TOTAL", 15).number(totalCases, 15).money(totalAmount, 14).writeLineTo(out);
         
         // Calculate overdue percentage
-        int overdueCases = statusCounts.getOrDefault(PaymentStatus.OVERDUE, 0);
-        double overduePercentage = totalCases > 0 ? (overdueCases * 100.0 / totalCases) : 0.0;
-        
-        report.append("\nPercentage of overdue cases: ").append(String.format("%.2f%%", overduePercentage));
-        
-        return report.toString();
+        long overdueCases = statistics.getCaseCount(PaymentStatus.OVERDUE);
+        out.append("\nPercentage of overdue cases: ");
+        row.percentage(overdueCases, totalCases).writeTo(out);
     }
     
     /**
@@ -128,50 +131,51 @@ public class ReportGenerator {
      * @return The report as a formatted string
      */
     public String generateOffenseTypeDistribution() {
-        List<RegulatoryCase> allCases = caseManager.getAllCases();
-        
-        // Count cases by offense type
-        Map<OffenseType, Integer> typeCounts = new HashMap<>();
-        Map<OffenseType, Double> typeAmounts = new HashMap<>();
-        
-        for (RegulatoryCase regulatoryCase : allCases) {
-            OffenseType type = regulatoryCase.getOffense().getOffenseType();
-            double amount = regulatoryCase.getFine().getAmount();
-            
-            typeCounts.put(type, typeCounts.getOrDefault(type, 0) + 1);
-            typeAmounts.put(type, typeAmounts.getOrDefault(type, 0.0) + amount);
+        StringBuilder report = new StringBuilder();
+        try {
+            writeOffenseTypeDistribution(report);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return report.toString();
+    }
+    
+    /**
+     * Writes a report on offense type distribution
+     * @param out The output
+     * @throws IOException if the output cannot be written
+     */
+    public void writeOffenseTypeDistribution(Appendable out) throws IOException {
+        CaseStatistics statistics = caseManager.getStatistics();
+        ReportRow row = new ReportRow();
         
-        // Build report
-        StringBuilder report = new StringBuilder();
-        report.append("========================\n");
-        report.append("Offense Type Distribution\n");
-        report.append("========================\n");
-        report.append(String.format("%-25s %-15s %-15s %-15s\n", 
-                      "Offense Type", "Case Count", "Total Fines", "Average Fine"));
-        report.append("-------------------------------------------------------------------------\n");
+        out.append("========================\n");
+        out.append("Offense Type Distribution\n");
+        out.append("========================\n");
+        row.text("Offense Type", 25).text("Case Count", 15).text("Total Fines", 15).text("Average Fine", 15)
+                .writeLineTo(out);
+        out.append("-------------------------------------------------------------------------\n");
         
-        int totalCases = 0;
-        double totalAmount = 0.0;
+        long totalCases = 0;
+        long totalAmount = 0;
         
         for (OffenseType type : OffenseType.values()) {
-            int count = typeCounts.getOrDefault(type, 0);
-            double amount = typeAmounts.getOrDefault(type, 0.0);
-            double average = count > 0 ? amount / count : 0.0;
+            long count = statistics.getCaseCount(type);
+            long amount = statistics.getTotalFinesCents(type);
+            long average = Money.average(amount, count);
             
-            report.append(String.format("%-25s %-15d $%-14.2f $%-14.2f\n",
-                         type.name(), count, amount, average));
+            row.text(type.name(), 25).number(count, 15).money(amount, 14).money(average, 14).writeLineTo(out);
             
             totalCases += count;
             totalAmount += amount;
         }
         
-        report.append("-------------------------------------------------------------------------\n");
-        report.append(String.format("%-25s %-15d $%-14.2f $%-14.2f\n",
-                     "TOTAL", totalCases, totalAmount, 
-                     totalCases > 0 ? totalAmount / totalCases : 0.0));
-        
-        return report.toString();
+        out.append("-------------------------------------------------------------------------\n");
+        row.text("TOTAL", 25)
+                .number(totalCases, 15)
+                .money(totalAmount, 14)
+                .money(Money.average(totalAmount, totalCases), 14)
+                .writeLineTo(out);
     }
     
     /**
@@ -180,35 +184,50 @@ public class ReportGenerator {
      * @return The report as a formatted string
      */
     public String generateStatuteOfLimitationsReport(int warningDays) {
-        List<RegulatoryCase> approachingCases = 
-            caseManager.getCasesApproachingStatuteOfLimitations(warningDays);
-        
-        // Build report
         StringBuilder report = new StringBuilder();
-        report.append("=======================================\n");
-        report.append("Cases Approaching Statute of Limitations\n");
-        report.append("=======================================\n");
-        
-        if (approachingCases.isEmpty()) {
-            report.append("No cases approaching statute of limitations within " + warningDays + " days.");
-            return report.toString();
+        try {
+            writeStatuteOfLimitationsReport(report, warningDays);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return report.toString();
+    }
+    
+    /**
+     * Writes a report on cases approaching statute of limitations.
+     * The cases are read from the expiry index while they are written, soonest expiry first
+     * @param out The output
+     * @param warningDays Days before expiration to include in warning list
+     * @throws IOException if the output cannot be written
+     */
+    public void writeStatuteOfLimitationsReport(Appendable out, int warningDays) throws IOException {
+        Iterator<RegulatoryCase> approachingCases =
+            caseManager.casesApproachingStatuteOfLimitations(warningDays).iterator();
+        ReportRow row = new ReportRow();
+        
+        out.append("=======================================\n");
+        out.append("Cases Approaching Statute of Limitations\n");
+        out.append("=======================================\n");
+        
+        if (!approachingCases.hasNext()) {
+            out.append("No cases approaching statute of limitations within ").append(Integer.toString(warningDays))
+                    .append(" days.");
+            return;
         }
         
-        report.append(String.format("%-10s %-20s %-15s %-20s\n", 
-                     "Case ID", "Offense Type", "Offense Date", "Offender Name"));
-        report.append("-----------------------------------------------------------------------\n");
+        row.text("Case ID", 15).text("Offense Type", 20).text("Offense Date", 15).text("Offender Name", 20)
+                .writeLineTo(out);
+        out.append("----------------------------------------------------------------------------\n");
         
-        for (RegulatoryCase regulatoryCase : approachingCases) {
-            String caseId = regulatoryCase.getCaseId().substring(0, 8) + "...";
-            String offenderName = regulatoryCase.getOffense().getOffender().getFullName();
+        while (approachingCases.hasNext()) {
+            RegulatoryCase regulatoryCase = approachingCases.next();
+            Offense offense = regulatoryCase.getOffense();
             
-            report.append(String.format("%-10s %-20s %-15s %-20s\n",
-                         caseId,
-                         regulatoryCase.getOffense().getOffenseType(),
-                         regulatoryCase.getOffense().getOffenseDate(),
-                         offenderName));
+            row.text(regulatoryCase.getCaseId(), 15)
+                    .text(offense.getOffenseType(), 20)
+                    .text(offense.getOffenseDate(), 15)
+                    .text(offense.getOffender().getFullName(), 20)
+                    .writeLineTo(out);
         }
-        
-        return report.toString();
     }
 }
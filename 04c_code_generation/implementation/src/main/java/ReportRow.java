@@ -0,0 +1,102 @@
+import java.io.IOException;
+
+/**
+ * Formats the rows of a text report into a reused buffer, as a cheaper replacement of String.format.
+ * Columns are left-aligned, padded with spaces to their width and separated by one space;
+ * values longer than their column are not truncated
+ */
+final class ReportRow {
+    private final StringBuilder row = new StringBuilder(128);
+    private boolean firstColumn = true;
+
+    /**
+     * Adds a text column
+     * @param value The value; its toString() is written
+     * @param width The column width
+     * @return This row
+     */
+    ReportRow text(Object value, int width) {
+        int start = beginColumn();
+        row.append(value);
+        return pad(start, width);
+    }
+
+    /**
+     * Adds a number column
+     * @param value The value
+     * @param width The column width
+     * @return This row
+     */
+    ReportRow number(long value, int width) {
+        int start = beginColumn();
+        row.append(value);
+        return pad(start, width);
+    }
+
+    /**
+     * Adds an amount column, a dollar sign followed by the amount padded to the width
+     * @param cents The amount in cents
+     * @param width The width of the amount, not counting the dollar sign
+     * @return This row
+     */
+    ReportRow money(long cents, int width) {
+        beginColumn();
+        row.append('$');
+        int start = row.length();
+        Money.appendTo(row, cents);
+        return pad(start, width);
+    }
+
+    /**
+     * Adds a percentage with two decimals, rounded half up, without padding
+     * @param part The part
+     * @param whole The whole; a whole of 0 counts as 0%
+     * @return This row
+     */
+    ReportRow percentage(long part, long whole) {
+        beginColumn();
+        long hundredths = whole > 0 ? (part * 20_000 + whole) / (2 * whole) : 0;
+        row.append(hundredths / 100).append('.');
+        if (hundredths % 100 < 10) {
+            row.append('0');
+        }
+        row.append(hundredths % 100).append('%');
+        return this;
+    }
+
+    /**
+     * Writes the row followed by a line break and starts a new row
+     * @param out The output
+     * @throws IOException if the output cannot be written
+     */
+    void writeLineTo(Appendable out) throws IOException {
+        row.append('\n');
+        writeTo(out);
+    }
+
+    /**
+     * Writes the row as it is and starts a new row
+     * @param out The output
+     * @throws IOException if the output cannot be written
+     */
+    void writeTo(Appendable out) throws IOException {
+        out.append(row);
+        row.setLength(0);
+        firstColumn = true;
+    }
+
+    private int beginColumn() {
+        if (!firstColumn) {
+            row.append(' ');
+        }
+        firstColumn = false;
+        return row.length();
+    }
+
+    private ReportRow pad(int start, int width) {
+        for (int length = row.length() - start; length < width; length++) {
+            row.append(' ');
+        }
+        return this;
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates monotonic, time-ordered 64-bit identifiers.
+ * The upper bits hold the milliseconds since 2025-01-01 and the lower 22 bits a sequence
+ * for identifiers created within the same millisecond. Identifiers are rendered as
+ * fixed-width base-36 strings, so their string order matches their creation order.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+    // 2025-01-01T00:00:00Z
+    private static final long EPOCH_MILLIS = 1735689600000L;
+    private static final int SEQUENCE_BITS = 22;
+    private static final int RADIX = 36;
+    // Long.MAX_VALUE needs 13 base-36 digits
+    private static final int ID_LENGTH = 13;
+    
+    private final AtomicLong lastId = new AtomicLong();
+    
+    @Override
+    public String nextId() {
+        return format(nextLongId());
+    }
+    
+    /**
+     * Generates the next identifier as a number.
+     * If the clock has not moved on (or went backwards) the previous identifier is incremented,
+     * so identifiers never repeat and never decrease.
+     * @return A new unique identifier
+     */
+    public long nextLongId() {
+        long timeBased = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            long last = lastId.get();
+            long next = Math.max(last + 1, timeBased);
+            if (lastId.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+    
+    /**
+     * Renders an identifier as a zero-padded base-36 string
+     * @param id The identifier
+     * @return The identifier as a string of fixed length
+     */
+    public static String format(long id) {
+        char[] digits = new char[ID_LENGTH];
+        for (int i = ID_LENGTH - 1; i >= 0; i--) {
+            digits[i] = Character.forDigit((int) (id % RADIX), RADIX);
+            id /= RADIX;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,46 @@
+import java.time.Clock;
+import java.time.LocalDate;
+
+/**
+ * Holds the clock used by all entities to stamp dates and history entries.
+ * The system clock is used by default; journal replay temporarily installs a fixed clock
+ * so that replayed mutations get the dates of the original operation.
+ */
+public final class TimeSource {
+    private static volatile Clock clock = Clock.systemDefaultZone();
+    
+    private TimeSource() {
+    }
+    
+    /**
+     * Gets the current date
+     * @return The current date in the clock's time zone
+     */
+    public static LocalDate today() {
+        return LocalDate.now(clock);
+    }
+    
+    /**
+     * Gets the current time
+     * @return The milliseconds since the epoch
+     */
+    public static long currentTimeMillis() {
+        return clock.millis();
+    }
+    
+    /**
+     * Gets the clock currently in use
+     * @return The clock
+     */
+    public static Clock getClock() {
+        return clock;
+    }
+    
+    /**
+     * Replaces the clock
+     * @param newClock The clock to use from now on
+     */
+    public static void setClock(Clock newClock) {
+        clock = newClock;
+    }
+}
@@ -0,0 +1,416 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Durable append-only log of binary records with group commit.
+ * Writers append records to an in-memory buffer and then wait until their record is on disk.
+ * A single flusher thread writes everything appended so far and forces it to disk with one fsync,
+ * so concurrent writers share the cost of a flush instead of paying one each.
+ *
+ * Each record is framed as [int length][int CRC32][payload], the CRC covering the length as well as
+ * the payload. Positions are byte offsets in the file; the position returned by append is the end of
+ * the appended record.
+ */
+@Slf4j
+public class WriteAheadLog implements Closeable {
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    
+    private final Path file;
+    private final FileChannel channel;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition recordsPending = lock.newCondition();
+    private final Condition recordsFlushed = lock.newCondition();
+    
+    // Records appended but not yet handed to the flusher; swapped with flushBuffer on every flush
+    private ByteBuffer appendBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer flushBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    
+    private long appendedPosition;
+    private long durablePosition;
+    private IOException failure;
+    private boolean closed;
+    
+    private final Thread flusher;
+    
+    /**
+     * Opens (or creates) a log file. Existing records must be replayed before new ones are appended
+     * @param file The log file
+     * @throws IOException if the file cannot be opened
+     */
+    public WriteAheadLog(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.appendedPosition = channel.size();
+        this.durablePosition = appendedPosition;
+        
+        this.flusher = new Thread(this::flushLoop, "wal-flusher-" + file.getFileName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+    
+    /**
+     * Reads all valid records starting at a position.
+     * A torn record at the end of the file (from a crash during a write) is cut off, and new records
+     * are appended after the last valid one. An invalid record is taken to be torn only if it reaches
+     * the end of the file and no valid record starts after it; any other invalid record, such as one
+     * whose length is corrupt, fails the replay without truncating the file, since cutting it off would
+     * lose the records after it.
+     * @param fromPosition The position of the first record to read
+     * @param handler Receives the payload of each record and the log position after it
+     * @return The position after the last valid record
+     * @throws IOException if the file cannot be read or holds a corrupt record before its end
+     */
+    public long replay(long fromPosition, ObjLongConsumer<ByteBuffer> handler) throws IOException {
+        lock.lock();
+        try {
+            if (appendedPosition != durablePosition) {
+                throw new IllegalStateException("Replay must happen before records are appended");
+            }
+            if (fromPosition > channel.size()) {
+                throw new IllegalStateException("Replay position " + fromPosition + " is beyond the end of " + file);
+            }
+            
+            long size = channel.size();
+            long position = fromPosition;
+            channel.position(fromPosition);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            
+            // Only the last record can be torn by a crash, so an invalid record must reach the end of the file
+            while (size - position >= HEADER_SIZE) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Corrupt record length " + length + " at position " + position + " of " + file);
+                }
+                if (length > size - position - HEADER_SIZE) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    if (position + HEADER_SIZE + length < size) {
+                        throw new IOException("Corrupt record at position " + position + " of " + file
+                                + " is followed by " + (size - position - HEADER_SIZE - length) + " bytes");
+                    }
+                    break;
+                }
+                position += HEADER_SIZE + length;
+                handler.accept(ByteBuffer.wrap(payload), position);
+            }
+            
+            if (position < size) {
+                if (validRecordFollows(channel, position + 1, size)) {
+                    throw new IOException("Corrupt record at position " + position + " of " + file
+                            + " is followed by valid records");
+                }
+                log.warn("Truncating a torn record of {} bytes from the end of {}", size - position, file);
+                channel.truncate(position);
+            }
+            channel.position(position);
+            appendedPosition = position;
+            durablePosition = position;
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Appends a record. The record is durable once awaitDurable returns for the returned position
+     * @param payload The record payload
+     * @return The log position after the record
+     */
+    public long append(byte[] payload) {
+        int checksum = checksum(payload);
+        
+        lock.lock();
+        try {
+            checkAppendable();
+            appendBuffer = ensureCapacity(appendBuffer, HEADER_SIZE + payload.length);
+            appendBuffer.putInt(payload.length).putInt(checksum).put(payload);
+            appendedPosition += HEADER_SIZE + payload.length;
+            recordsPending.signal();
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Appends several records in order, taking the lock and waking the flusher once for all of them
+     * @param payloads The record payloads
+     * @return The log position after each record
+     */
+    public long[] append(List<byte[]> payloads) {
+        int[] checksums = new int[payloads.size()];
+        int size = 0;
+        for (int i = 0; i < checksums.length; i++) {
+            byte[] payload = payloads.get(i);
+            checksums[i] = checksum(payload);
+            size += HEADER_SIZE + payload.length;
+        }
+        
+        long[] positions = new long[checksums.length];
+        lock.lock();
+        try {
+            checkAppendable();
+            appendBuffer = ensureCapacity(appendBuffer, size);
+            for (int i = 0; i < checksums.length; i++) {
+                byte[] payload = payloads.get(i);
+                appendBuffer.putInt(payload.length).putInt(checksums[i]).put(payload);
+                appendedPosition += HEADER_SIZE + payload.length;
+                positions[i] = appendedPosition;
+            }
+            recordsPending.signal();
+            return positions;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Computes the checksum of a record framed as this log frames them. It covers the record's length, so that
+     * a corrupt length fails the checksum instead of being taken for the end of the file
+     * @param payload The record payload
+     * @return The CRC32 of the length and the payload
+     */
+    static int checksum(byte[] payload) {
+        return checksum(payload, 0, payload.length);
+    }
+    
+    /**
+     * Computes the checksum of a record whose payload is part of an array, as checksum(byte[]) does
+     * @param bytes The array holding the payload
+     * @param offset The offset of the payload
+     * @param length The length of the payload
+     * @return The CRC32 of the length and the payload
+     */
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Looks for a valid record, framed as this log frames them, starting anywhere in a range of a file.
+     * A crash only tears the end of a file, so an invalid record followed by a valid one is corruption
+     * @param channel The file
+     * @param from The first position a record may start at
+     * @param size The end of the range
+     * @return true if a record with a matching checksum lies within the range
+     * @throws IOException if the file cannot be read
+     */
+    static boolean validRecordFollows(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(64 * 1024);
+        long windowStart = from;
+        window.limit(0);
+        for (long position = from; size - position >= HEADER_SIZE; position++) {
+            if (position + HEADER_SIZE > windowStart + window.limit()) {
+                windowStart = position;
+                window.clear().limit((int) Math.min(window.capacity(), size - position));
+                readFully(channel, window, windowStart);
+            }
+            int offset = (int) (position - windowStart);
+            int length = window.getInt(offset);
+            if (length >= 0 && length <= size - position - HEADER_SIZE) {
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + HEADER_SIZE);
+                if (checksum(payload.array()) == window.getInt(offset + Integer.BYTES)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at position " + (position + buffer.position()));
+            }
+        }
+    }
+    
+    /**
+     * Fails if records can no longer be appended, so that a caller can find out before it changes
+     * the state its next record describes
+     * @throws IllegalStateException if the log is closed
+     * @throws UncheckedIOException if a write to the log has failed
+     */
+    public void checkWritable() {
+        lock.lock();
+        try {
+            checkAppendable();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Fails an append to a closed or failed log; called with the lock held
+     */
+    private void checkAppendable() {
+        if (closed) {
+            throw new IllegalStateException("Log " + file + " is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Log " + file + " failed", failure);
+        }
+    }
+    
+    /**
+     * Blocks until every record up to a position has been forced to disk
+     * @param position A position returned by append
+     */
+    public void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (durablePosition < position) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Log " + file + " failed", failure);
+                }
+                recordsFlushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the position after the last appended record, durable or not
+     * @return The appended position
+     */
+    public long getAppendedPosition() {
+        lock.lock();
+        try {
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the position up to which records are durable
+     * @return The durable position
+     */
+    public long getDurablePosition() {
+        lock.lock();
+        try {
+            return durablePosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Flushes all appended records and closes the file
+     * @throws IOException if the final flush or the close fails
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            recordsPending.signal();
+        } finally {
+            lock.unlock();
+        }
+        
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * Writes and forces batches of appended records until the log is closed
+     */
+    private void flushLoop() {
+        while (true) {
+            long batchEnd;
+            lock.lock();
+            try {
+                while (appendBuffer.position() == 0 && !closed) {
+                    recordsPending.awaitUninterruptibly();
+                }
+                if (appendBuffer.position() == 0) {
+                    return;
+                }
+                
+                ByteBuffer batch = appendBuffer;
+                appendBuffer = flushBuffer;
+                flushBuffer = batch;
+                batchEnd = appendedPosition;
+            } finally {
+                lock.unlock();
+            }
+            
+            try {
+                flushBuffer.flip();
+                while (flushBuffer.hasRemaining()) {
+                    channel.write(flushBuffer);
+                }
+                channel.force(false);
+                flushBuffer.clear();
+            } catch (IOException e) {
+                log.error("Writing to {} failed", file, e);
+                lock.lock();
+                try {
+                    failure = e;
+                    recordsFlushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            
+            lock.lock();
+            try {
+                durablePosition = batchEnd;
+                recordsFlushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int additional) {
+        if (buffer.remaining() >= additional) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + additional);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
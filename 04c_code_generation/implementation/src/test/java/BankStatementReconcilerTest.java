@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(Fixtures.class)
+class BankStatementReconcilerTest {
+    private static final String HEADER = "date,reference,amount,remittance";
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void appliesMatchedLinesAndReportsTheRest() throws IOException {
+        CaseManager caseManager = new CaseManager();
+        RegulatoryCase first = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+        RegulatoryCase second = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ben Smith")));
+        caseManager.recordPayment(second, 100, PaymentMethod.BANK_TRANSFER, "TX-0");
+        
+        Path statement = write(HEADER,
+                "2026-01-10,TX-1,10.00,Fine " + first.getCaseId(),
+                "2026-01-10,TX-1,10.00,Fine " + first.getCaseId(),
+                "2026-01-10,TX-0,1.00,Fine " + second.getCaseId(),
+                "2026-01-11,TX-2,5.50,\"Ref TX-0, thanks\"",
+                "2026-01-11,TX-3,5.00,unknown",
+                "2026-01-11,TX-4,-5.00,Fine " + first.getCaseId(),
+                "2026-01-11,TX-5,five,Fine " + first.getCaseId());
+        Path unmatched = directory.resolve("statement.unmatched");
+        
+        BankStatementReconciler.ReconciliationResult result =
+                new BankStatementReconciler(caseManager).reconcile(statement, unmatched);
+        
+        assertEquals(7, result.getLines());
+        assertEquals(2, result.getAppliedPayments());
+        assertEquals(1_550, result.getAppliedCents());
+        assertEquals(2, result.getDuplicateLines());
+        assertEquals(3, result.getUnmatchedLines());
+        assertEquals(1_000, first.getFine().getTotalPaidCents());
+        assertEquals(650, second.getFine().getTotalPaidCents());
+        assertEquals(4, Files.readAllLines(unmatched).size());
+    }
+    
+    @Test
+    void reportsLinesWhoseCaseIsArchivedBeforeTheirBatchIsRecorded() throws IOException {
+        ArchivingCaseManager caseManager = new ArchivingCaseManager(directory.resolve("cases.archive"));
+        RegulatoryCase archivedMeanwhile = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+        RegulatoryCase open = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ben Smith")));
+        caseManager.toArchive = archivedMeanwhile;
+        
+        Path statement = write(HEADER,
+                "2026-01-10,TX-1,10.00,Fine " + archivedMeanwhile.getCaseId(),
+                "2026-01-10,TX-2,10.00,Fine " + open.getCaseId());
+        Path unmatched = directory.resolve("statement.unmatched");
+        
+        BankStatementReconciler.ReconciliationResult result =
+                new BankStatementReconciler(caseManager).reconcile(statement, unmatched);
+        
+        assertTrue(archivedMeanwhile.isArchived());
+        assertEquals(1, result.getAppliedPayments());
+        assertEquals(1_000, result.getAppliedCents());
+        assertEquals(1, result.getUnmatchedLines());
+        assertEquals(1_000, open.getFine().getTotalPaidCents());
+        List<String> unmatchedLines = Files.readAllLines(unmatched);
+        assertTrue(unmatchedLines.get(1).contains("is archived"), unmatchedLines.get(1));
+    }
+    
+    private Path write(String... lines) throws IOException {
+        Path file = directory.resolve("statement.csv");
+        Files.write(file, List.of(lines));
+        return file;
+    }
+    
+    /**
+     * Pays and archives a case just before a batch of payments is recorded, as a concurrent payment
+     * and archiving run could
+     */
+    private static class ArchivingCaseManager extends CaseManager {
+        RegulatoryCase toArchive;
+        
+        ArchivingCaseManager(Path archiveFile) throws IOException {
+            super(new InMemoryCaseRepository(), archiveFile);
+        }
+        
+        @Override
+        public BitSet recordPayments(List<RegulatoryCase> regulatoryCases, List<Payment> payments) {
+            if (toArchive != null) {
+                recordPayment(toArchive, toArchive.getFine().getAmountCents());
+                try {
+                    // Closed today counts as closed before tomorrow
+                    archiveClosedCases(-1);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                toArchive = null;
+            }
+            return super.recordPayments(regulatoryCases, payments);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(Fixtures.class)
+class CaseApiServerTest {
+    private final HttpClient client = HttpClient.newHttpClient();
+    private CaseManager caseManager;
+    private CaseApiServer server;
+    
+    @BeforeEach
+    void start() throws IOException {
+        caseManager = new CaseManager();
+        server = CaseApiServer.start(caseManager, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+    
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+        caseManager.close();
+    }
+    
+    @Test
+    void paymentResponseCarriesTheNewCaseVersion() throws IOException, InterruptedException {
+        RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+        long version = regulatoryCase.getVersion();
+        
+        HttpResponse<String> paid = post("/cases/" + regulatoryCase.getCaseId() + "/payments",
+                "{\"amount\": \"10.00\", \"reference\": \"REF-1\", \"version\": " + version + "}");
+        assertEquals(201, paid.statusCode(), paid.body());
+        assertTrue(paid.body().startsWith("{\"paymentId\":"), paid.body());
+        assertTrue(paid.body().contains("\"reference\":\"REF-1\""), paid.body());
+        long newVersion = regulatoryCase.getVersion();
+        assertTrue(newVersion > version);
+        assertTrue(paid.body().contains("\"case\":{\"caseId\":\"" + regulatoryCase.getCaseId() + "\",\"version\":"
+                + newVersion + ","), paid.body());
+        
+        // A change based on the old version is refused; one based on the returned version is made
+        HttpResponse<String> stale = post("/cases/" + regulatoryCase.getCaseId() + "/payments",
+                "{\"amount\": \"1.00\", \"version\": " + version + "}");
+        assertEquals(409, stale.statusCode(), stale.body());
+        assertEquals(newVersion, Json.parseObject(stale.body()).get("version"));
+        HttpResponse<String> current = post("/cases/" + regulatoryCase.getCaseId() + "/payments",
+                "{\"amount\": \"1.00\", \"version\": " + newVersion + "}");
+        assertEquals(201, current.statusCode(), current.body());
+    }
+    
+    @Test
+    void stateConflictCarriesNoVersion() throws IOException, InterruptedException {
+        RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+        String path = "/cases/" + regulatoryCase.getCaseId() + "/appeal";
+        
+        assertEquals(201, post(path, "{\"reason\": \"Not my car\"}").statusCode());
+        HttpResponse<String> again = post(path, "{\"reason\": \"Wrong date\"}");
+        assertEquals(409, again.statusCode(), again.body());
+        assertEquals(Map.of("error", "An appeal has already been filed for this case"), Json.parseObject(again.body()));
+    }
+    
+    @Test
+    void casesChangedWhileTheyAreReadAreRenderedOnce() throws IOException, InterruptedException {
+        RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+        AtomicBoolean paying = new AtomicBoolean(true);
+        Thread payer = new Thread(() -> {
+            for (int i = 0; i < 5_000 && paying.get(); i++) {
+                caseManager.recordPayment(regulatoryCase, 1);
+            }
+        });
+        payer.start();
+        
+        try {
+            for (int i = 0; i < 200; i++) {
+                HttpResponse<String> read = get("/cases/" + regulatoryCase.getCaseId());
+                assertEquals(200, read.statusCode(), read.body());
+                assertEquals(read.body().length(), endOfFirstValue(read.body()), read.body());
+            }
+        } finally {
+            paying.set(false);
+            payer.join();
+        }
+    }
+    
+    @Test
+    void errorsAreReturnedAsJson() throws IOException, InterruptedException {
+        HttpResponse<String> unknownCase = get("/cases/unknown");
+        assertEquals(404, unknownCase.statusCode());
+        assertEquals(Map.of("error", "No case unknown"), Json.parseObject(unknownCase.body()));
+        
+        assertEquals(404, get("/reports/unknown").statusCode());
+        assertEquals(400, post("/cases", "{\"offenderName\": 1}").statusCode());
+        assertEquals(405, get("/cases").statusCode());
+    }
+    
+    @Test
+    void reportIsStreamed() throws IOException, InterruptedException {
+        HttpResponse<String> report = get("/reports/payment-status");
+        assertEquals(200, report.statusCode());
+        assertTrue(report.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+    }
+    
+    /**
+     * Finds where the JSON value a text starts with ends, skipping over strings
+     */
+    private static int endOfFirstValue(String json) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+    
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private URI uri(String path) {
+        InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + path);
+    }
+}
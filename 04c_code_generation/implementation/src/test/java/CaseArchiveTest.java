@@ -0,0 +1,184 @@
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(Fixtures.class)
+class CaseArchiveTest {
+    // Magic and version
+    private static final int HEADER_SIZE = 8;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void archivedCasesAreFoundAfterReopening() throws IOException {
+        Path archiveFile = directory.resolve("cases.archive");
+        RegulatoryCase closed;
+        RegulatoryCase open;
+        try (CaseManager caseManager = new CaseManager(new InMemoryCaseRepository(), archiveFile)) {
+            Offender offender = Fixtures.offender("Ada Jones");
+            closed = caseManager.createNewCase(Fixtures.offense(offender));
+            caseManager.recordPayment(closed, closed.getFine().getAmountCents());
+            open = caseManager.createNewCase(Fixtures.offense(offender));
+            
+            assertEquals(1, caseManager.archiveClosedCases(-1));
+            assertTrue(closed.isArchived());
+            assertEquals(1, caseManager.getAllCases().size());
+            assertArchivedCopy(closed, caseManager.getCaseById(closed.getCaseId()));
+        }
+        
+        try (CaseManager caseManager = new CaseManager(new InMemoryCaseRepository(), archiveFile)) {
+            assertArchivedCopy(closed, caseManager.getCaseById(closed.getCaseId()));
+            assertEquals(0, caseManager.getAllCases().size());
+            assertEquals(null, caseManager.getCaseById(open.getCaseId()));
+        }
+    }
+    
+    @Test
+    void tornEntryAtTheEndIsCutOff() throws IOException {
+        Path archiveFile = directory.resolve("cases.archive");
+        RegulatoryCase closed = archiveOneCase(archiveFile);
+        long size = Files.size(archiveFile);
+        
+        // A complete frame whose payload does not match its checksum, as left by a crash while it was written
+        try (FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(12).putInt(0, 4).putInt(4, 0x12345678));
+        }
+        
+        try (CaseManager caseManager = new CaseManager(new InMemoryCaseRepository(), archiveFile)) {
+            assertArchivedCopy(closed, caseManager.getCaseById(closed.getCaseId()));
+        }
+        assertEquals(size, Files.size(archiveFile));
+    }
+    
+    @Test
+    void corruptEntryBeforeTheEndFailsOpening() throws IOException {
+        Path archiveFile = directory.resolve("cases.archive");
+        archiveTwoCases(archiveFile);
+        
+        // Flip a byte in the payload of the first entry
+        try (FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            long position = HEADER_SIZE + 8 + 4;
+            channel.read(value, position);
+            value.put(0, (byte) ~value.get(0)).rewind();
+            channel.write(value, position);
+        }
+        
+        assertThrows(IOException.class, () -> new CaseManager(new InMemoryCaseRepository(), archiveFile));
+    }
+    
+    @Test
+    void corruptLengthFailsOpeningWithoutTruncating() throws IOException {
+        Path archiveFile = directory.resolve("cases.archive");
+        archiveTwoCases(archiveFile);
+        long size = Files.size(archiveFile);
+        
+        // A length running past the end of the file hides the second entry
+        try (FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, (int) size), HEADER_SIZE);
+        }
+        
+        assertThrows(IOException.class, () -> new CaseManager(new InMemoryCaseRepository(), archiveFile));
+        assertEquals(size, Files.size(archiveFile));
+    }
+    
+    @Test
+    void exportIncludesArchivedCases() throws IOException {
+        try (CaseManager caseManager = new CaseManager(new InMemoryCaseRepository(), directory.resolve("cases.archive"))) {
+            Offender offender = Fixtures.offender("Ada Jones");
+            RegulatoryCase closed = caseManager.createNewCase(Fixtures.offense(offender));
+            caseManager.recordPayment(closed, closed.getFine().getAmountCents());
+            RegulatoryCase open = caseManager.createNewCase(Fixtures.offense(offender));
+            caseManager.recordPayment(open, 1_000);
+            assertEquals(1, caseManager.archiveClosedCases(-1));
+            
+            CaseExporter.ExportResult result = new CaseExporter(caseManager).export(directory.resolve("cases.export"));
+            assertEquals(2, result.getCases());
+            assertEquals(2, result.getPayments());
+        }
+    }
+    
+    @Test
+    void casesArchivedDuringAnExportAreHandedOverOnce() throws Exception {
+        try (CaseManager caseManager = new CaseManager(new InMemoryCaseRepository(), directory.resolve("cases.archive"))) {
+            Offender offender = Fixtures.offender("Ada Jones");
+            Set<String> caseIds = new HashSet<>();
+            for (int i = 0; i < 4; i++) {
+                RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(offender));
+                if (i < 3) {
+                    caseManager.recordPayment(regulatoryCase, regulatoryCase.getFine().getAmountCents());
+                }
+                caseIds.add(regulatoryCase.getCaseId());
+                if (i == 0) {
+                    assertEquals(1, caseManager.archiveClosedCases(-1));
+                }
+            }
+            
+            // Archiving runs, and is waited for, while the cases are handed over
+            ExecutorService archiver = Executors.newSingleThreadExecutor();
+            List<String> handedOver = new ArrayList<>();
+            try {
+                caseManager.forEachCaseIncludingArchived(RegulatoryCase::getCaseId, caseId -> {
+                    if (handedOver.isEmpty()) {
+                        Future<Integer> archived = archiver.submit(() -> caseManager.archiveClosedCases(-1));
+                        assertEquals(2, assertDoesNotThrow(() -> archived.get(10, TimeUnit.SECONDS)));
+                    }
+                    handedOver.add(caseId);
+                });
+            } finally {
+                archiver.shutdownNow();
+            }
+            
+            assertEquals(caseIds.size(), handedOver.size());
+            assertEquals(caseIds, new HashSet<>(handedOver));
+        }
+    }
+    
+    private static RegulatoryCase archiveOneCase(Path archiveFile) throws IOException {
+        try (CaseManager caseManager = new CaseManager(new InMemoryCaseRepository(), archiveFile)) {
+            RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+            caseManager.recordPayment(regulatoryCase, regulatoryCase.getFine().getAmountCents());
+            assertEquals(1, caseManager.archiveClosedCases(-1));
+            return regulatoryCase;
+        }
+    }
+    
+    private static void archiveTwoCases(Path archiveFile) throws IOException {
+        archiveOneCase(archiveFile);
+        try (CaseManager caseManager = new CaseManager(new InMemoryCaseRepository(), archiveFile)) {
+            RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ben Smith")));
+            caseManager.recordPayment(regulatoryCase, regulatoryCase.getFine().getAmountCents());
+            assertEquals(1, caseManager.archiveClosedCases(-1));
+        }
+    }
+    
+    private static void assertArchivedCopy(RegulatoryCase expected, RegulatoryCase actual) {
+        assertNotNull(actual, expected.getCaseId());
+        assertEquals(CaseStatus.CLOSED, actual.getStatus());
+        assertEquals(expected.getFine().getTotalPaidCents(), actual.getFine().getTotalPaidCents());
+        assertEquals(expected.getFine().getPaymentHistory().size(), actual.getFine().getPaymentHistory().size());
+        assertEquals(expected.getOffense().getOffender().getId(), actual.getOffense().getOffender().getId());
+    }
+}
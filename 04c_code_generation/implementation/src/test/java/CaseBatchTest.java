@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(Fixtures.class)
+class CaseBatchTest {
+    // Offenses of the batch as offender name and offense type: Ada has cases from before the batch,
+    // Ben offends several times within the batch and Cleo once
+    private static final Object[][] BATCH = {
+            {"Ada Jones", OffenseType.PARKING_VIOLATION},
+            {"Ben Smith", OffenseType.PARKING_VIOLATION},
+            {"Ada Jones", OffenseType.PARKING_VIOLATION},
+            {"Ben Smith", OffenseType.NOISE_DISTURBANCE},
+            {"Ada Jones", OffenseType.NOISE_DISTURBANCE},
+            {"Ben Smith", OffenseType.PARKING_VIOLATION},
+            {"Cleo Brown", OffenseType.WASTE_DISPOSAL},
+            {"Ada Jones", OffenseType.PARKING_VIOLATION},
+            {"Ben Smith", OffenseType.PARKING_VIOLATION}
+    };
+    
+    @Test
+    void batchIsPricedLikeCasesCreatedOneByOne() {
+        CaseManager batchManager = new CaseManager();
+        CaseManager oneByOneManager = new CaseManager();
+        Map<String, Offender> batchOffenders = new HashMap<>();
+        Map<String, Offender> oneByOneOffenders = new HashMap<>();
+        for (CaseManager caseManager : List.of(batchManager, oneByOneManager)) {
+            Map<String, Offender> offenders = caseManager == batchManager ? batchOffenders : oneByOneOffenders;
+            Offender ada = offenders.computeIfAbsent("Ada Jones", Fixtures::offender);
+            caseManager.createNewCase(Fixtures.offense(ada, OffenseType.PARKING_VIOLATION));
+            caseManager.createNewCase(Fixtures.offense(ada, OffenseType.NOISE_DISTURBANCE));
+        }
+        
+        List<Offense> batch = new ArrayList<>();
+        List<RegulatoryCase> oneByOne = new ArrayList<>();
+        for (Object[] offense : BATCH) {
+            String name = (String) offense[0];
+            OffenseType type = (OffenseType) offense[1];
+            batch.add(Fixtures.offense(batchOffenders.computeIfAbsent(name, Fixtures::offender), type));
+            oneByOne.add(oneByOneManager.createNewCase(
+                    Fixtures.offense(oneByOneOffenders.computeIfAbsent(name, Fixtures::offender), type)));
+        }
+        List<RegulatoryCase> batched = batchManager.createNewCases(batch);
+        
+        assertEquals(oneByOne.size(), batched.size());
+        for (int i = 0; i < batched.size(); i++) {
+            RegulatoryCase expected = oneByOne.get(i);
+            RegulatoryCase actual = batched.get(i);
+            assertEquals(expected.getOffense().getOffenseType(), actual.getOffense().getOffenseType(), "offense " + i);
+            assertEquals(expected.getFine().getAmountCents(), actual.getFine().getAmountCents(), "fine " + i);
+            assertEquals(expected.getFine().getPaymentDeadline(), actual.getFine().getPaymentDeadline(),
+                    "deadline " + i);
+            assertEquals(expected.getStatuteExpiryDate(), actual.getStatuteExpiryDate(), "statute expiry " + i);
+        }
+        // Repeat offenses are priced higher, so equal fines mean they were counted in the same order
+        assertTrue(batched.get(2).getFine().getAmountCents() > batched.get(1).getFine().getAmountCents());
+        
+        for (String name : batchOffenders.keySet()) {
+            for (OffenseType type : OffenseType.values()) {
+                assertEquals(oneByOneOffenders.get(name).getOffenseCount(type),
+                        batchOffenders.get(name).getOffenseCount(type), name + " " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(Fixtures.class)
+class CaseEventBusTest {
+    private static final int CAPACITY = 4;
+    
+    private final RegulatoryCase regulatoryCase =
+            new CaseManager().createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+    
+    @Test
+    void slowHandlerBlocksPublishersOnlyAfterAFullLap() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> amounts = new CopyOnWriteArrayList<>();
+        CaseEventBus bus = new CaseEventBus(CAPACITY);
+        bus.subscribe("slow", (event, sequence, endOfBatch) -> {
+            amounts.add(event.getAmountCents());
+            await(release);
+        });
+        bus.start();
+        
+        AtomicInteger published = new AtomicInteger();
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < CAPACITY + 1; i++) {
+                publish(bus, i);
+                published.incrementAndGet();
+            }
+        });
+        publisher.start();
+        
+        // The first lap fits in the ring while the handler is stuck on the first event
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (published.get() < CAPACITY && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(CAPACITY, published.get());
+        publisher.join(200);
+        assertTrue(publisher.isAlive());
+        assertEquals(CAPACITY, published.get());
+        
+        release.countDown();
+        publisher.join(5_000);
+        assertEquals(CAPACITY + 1, published.get());
+        bus.close();
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L), amounts);
+        assertEquals(0, bus.getDroppedCount());
+    }
+    
+    @Test
+    void fullRingDropsEventsWhenConfigured() throws InterruptedException {
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> amounts = new CopyOnWriteArrayList<>();
+        CaseEventBus bus = new CaseEventBus(CAPACITY, CaseEventBus.FullRingPolicy.DROP);
+        bus.subscribe("slow", (event, sequence, endOfBatch) -> {
+            amounts.add(event.getAmountCents());
+            handling.countDown();
+            await(release);
+        });
+        bus.start();
+        
+        publish(bus, 0);
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+        // The handler holds the slot of the first event, so three more fit
+        for (int i = 1; i < CAPACITY + 3; i++) {
+            publish(bus, i);
+        }
+        assertEquals(3, bus.getDroppedCount());
+        
+        release.countDown();
+        bus.close();
+        assertEquals(List.of(0L, 1L, 2L, 3L), amounts);
+        assertEquals(CAPACITY, bus.getPublishedCount());
+    }
+    
+    @Test
+    void everySubscriptionReceivesEveryEventInOrder() throws InterruptedException {
+        CaseEventBus bus = new CaseEventBus(CAPACITY);
+        List<Long> first = new CopyOnWriteArrayList<>();
+        List<Long> second = new CopyOnWriteArrayList<>();
+        bus.subscribe("first", (event, sequence, endOfBatch) -> first.add(event.getAmountCents()));
+        bus.subscribe("second", (event, sequence, endOfBatch) -> second.add(event.getAmountCents()));
+        bus.start();
+        
+        Thread[] publishers = new Thread[4];
+        for (int p = 0; p < publishers.length; p++) {
+            int offset = p * 1_000;
+            publishers[p] = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    publish(bus, offset + i);
+                }
+            });
+            publishers[p].start();
+        }
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        bus.close();
+        
+        assertEquals(4_000, first.size());
+        assertEquals(first, second);
+        // Each publisher's events arrive in the order it published them
+        long[] last = {-1, -1, -1, -1};
+        for (long amount : first) {
+            int p = (int) (amount / 1_000);
+            assertTrue(amount > last[p], "Event " + amount + " after " + last[p]);
+            last[p] = amount;
+        }
+    }
+    
+    @Test
+    void counterSeesTheChangesOfACaseManager() {
+        CaseEventCounter counter = new CaseEventCounter();
+        CaseEventBus bus = new CaseEventBus(CAPACITY);
+        bus.subscribe("counter", counter);
+        bus.start();
+        CaseManager caseManager = new CaseManager();
+        caseManager.publishEventsTo(bus);
+        
+        RegulatoryCase created = caseManager.createNewCase(regulatoryCase.getOffense());
+        caseManager.recordPayment(created, 1_000);
+        caseManager.recordPayment(created, 500);
+        caseManager.fileAppeal(created, "Not my car");
+        bus.close();
+        
+        assertEquals(1, counter.getCount(CaseEventType.CASE_CREATED));
+        assertEquals(2, counter.getCount(CaseEventType.PAYMENT_RECORDED));
+        assertEquals(1, counter.getCount(CaseEventType.APPEAL_FILED));
+        assertEquals(1_500, counter.getPaidCents());
+    }
+    
+    private void publish(CaseEventBus bus, long amountCents) {
+        bus.publish(CaseEventType.PAYMENT_RECORDED, regulatoryCase, CaseStatus.FINE_ISSUED, CaseStatus.FINE_ISSUED, amountCents);
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(Fixtures.class)
+class CaseExporterTest {
+    private static final int MAGIC = 0x524F4D43;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void exportedColumnsDecodeToTheCases() throws IOException, DataFormatException {
+        CaseManager caseManager = new CaseManager();
+        Offender ada = Fixtures.offender("Ada Jones");
+        RegulatoryCase paid = caseManager.createNewCase(Fixtures.offense(ada, OffenseType.PARKING_VIOLATION));
+        caseManager.recordPayment(paid, paid.getFine().getAmountCents());
+        RegulatoryCase partlyPaid = caseManager.createNewCase(Fixtures.offense(ada, OffenseType.NOISE_DISTURBANCE));
+        caseManager.recordPayment(partlyPaid, 1_000);
+        caseManager.recordPayment(partlyPaid, 250);
+        caseManager.createNewCase(Fixtures.offense(ada, OffenseType.WASTE_DISPOSAL));
+        
+        Path file = directory.resolve("cases.export");
+        CaseExporter.ExportResult result = new CaseExporter(caseManager).export(file);
+        assertEquals(3, result.getCases());
+        assertEquals(3, result.getPayments());
+        assertEquals(Files.size(file), result.getBytes());
+        
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            assertEquals(MAGIC, in.readInt());
+            assertEquals(1, in.readInt());
+            assertEquals(4, in.readByte());
+            assertDictionary(in, "offense_type", OffenseType.values());
+            assertDictionary(in, "case_status", CaseStatus.values());
+            assertDictionary(in, "payment_status", PaymentStatus.values());
+            assertDictionary(in, "payment_method", PaymentMethod.values());
+            
+            // Cases are handed over in no particular order
+            assertEquals(1, in.readByte());
+            assertEquals(3, in.readInt());
+            assertEquals(12, in.readByte());
+            List<ColumnReader> caseColumns = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                caseColumns.add(readColumn(in));
+            }
+            List<RegulatoryCase> exported = new ArrayList<>();
+            List<Long> paymentCounts = new ArrayList<>();
+            for (int row = 0; row < 3; row++) {
+                RegulatoryCase expected = caseManager.getCaseById(caseColumns.get(0).readString());
+                exported.add(expected);
+                assertEquals(ada.getId(), caseColumns.get(1).readString());
+                assertEquals(expected.getOffense().getOffenseType().ordinal(), caseColumns.get(2).readByte());
+                assertEquals(expected.getStatus().ordinal(), caseColumns.get(3).readByte());
+                assertEquals(expected.getOffense().getOffenseDate(), caseColumns.get(4).readDate());
+                assertEquals(expected.getCreationDate(), caseColumns.get(5).readDate());
+                assertEquals(expected.getClosedDate(), caseColumns.get(6).readNullableDate());
+                assertEquals(expected.getFine().getAmountCents(), caseColumns.get(7).readVarLong());
+                assertEquals(expected.getFine().getTotalPaidCents(), caseColumns.get(8).readVarLong());
+                assertEquals(expected.getFine().getPaymentStatus().ordinal(), caseColumns.get(9).readByte());
+                assertEquals(expected.getFine().getPaymentDeadline(), caseColumns.get(10).readDate());
+                paymentCounts.add(caseColumns.get(11).readVarLong());
+            }
+            Set<RegulatoryCase> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+            distinct.addAll(exported);
+            assertEquals(3, distinct.size());
+            
+            assertEquals(2, in.readByte());
+            assertEquals(3, in.readInt());
+            assertEquals(4, in.readByte());
+            List<ColumnReader> paymentColumns = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                paymentColumns.add(readColumn(in));
+            }
+            for (int row = 0; row < 3; row++) {
+                for (Payment expected : exported.get(row).getFine().getPaymentHistory()) {
+                    assertEquals(expected.getAmountCents(), paymentColumns.get(0).readVarLong());
+                    assertEquals(expected.getPaymentDate(), paymentColumns.get(1).readDate());
+                    assertEquals(expected.getPaymentMethod().ordinal(), paymentColumns.get(2).readByte());
+                    assertEquals(expected.getReferenceNumber(), paymentColumns.get(3).readString());
+                }
+                assertEquals(exported.get(row).getFine().getPaymentHistory().size(), paymentCounts.get(row));
+            }
+            
+            assertEquals(0, in.readByte());
+            assertEquals(3, in.readLong());
+            assertEquals(3, in.readLong());
+            assertEquals(MAGIC, in.readInt());
+            assertEquals(-1, in.read());
+        }
+    }
+    
+    @Test
+    void emptyExportHasNoRowGroups() throws IOException {
+        Path file = directory.resolve("cases.export");
+        CaseExporter.ExportResult result = new CaseExporter(new CaseManager()).export(file);
+        assertEquals(0, result.getCases());
+        
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            in.skipNBytes(Files.size(file) - 1 - 2 * Long.BYTES - Integer.BYTES);
+            assertEquals(0, in.readByte());
+            assertEquals(0, in.readLong());
+            assertEquals(0, in.readLong());
+            assertEquals(MAGIC, in.readInt());
+        }
+    }
+    
+    private static void assertDictionary(DataInputStream in, String name, Enum<?>[] values) throws IOException {
+        assertEquals(name, in.readUTF());
+        assertEquals(values.length, in.readShort());
+        for (Enum<?> value : values) {
+            assertEquals(value.name(), in.readUTF());
+        }
+    }
+    
+    private static ColumnReader readColumn(DataInputStream in) throws IOException, DataFormatException {
+        byte[] column = new byte[in.readInt()];
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            assertEquals(column.length, inflater.inflate(column));
+        } finally {
+            inflater.end();
+        }
+        return new ColumnReader(new ByteArrayInputStream(column));
+    }
+    
+    /**
+     * Decodes the values of one column, as the CaseExporter encodes them
+     */
+    private static class ColumnReader {
+        private final ByteArrayInputStream in;
+        private long previousDate;
+        
+        ColumnReader(ByteArrayInputStream in) {
+            this.in = in;
+        }
+        
+        int readByte() {
+            return in.read();
+        }
+        
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+        
+        LocalDate readDate() {
+            previousDate += unZigZag(readVarLong());
+            return LocalDate.ofEpochDay(previousDate);
+        }
+        
+        LocalDate readNullableDate() {
+            long encoded = readVarLong();
+            if (encoded == 0) {
+                return null;
+            }
+            previousDate += unZigZag(encoded - 1);
+            return LocalDate.ofEpochDay(previousDate);
+        }
+        
+        String readString() {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            byte[] utf8 = new byte[(int) length - 1];
+            assertEquals(utf8.length, in.readNBytes(utf8, 0, utf8.length));
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+        
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(Fixtures.class)
+class CaseHistoryLogTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void historiesAreReadBackFromTheLog() throws IOException {
+        try (CaseManager caseManager = new CaseManager()) {
+            Offender offender = Fixtures.offender("Ada Jones");
+            RegulatoryCase before = caseManager.createNewCase(Fixtures.offense(offender));
+            caseManager.recordPayment(before, 1_000);
+            List<CaseAction> inMemory = before.getCaseHistory();
+            
+            caseManager.keepHistoryIn(directory);
+            RegulatoryCase after = caseManager.createNewCase(Fixtures.offense(offender));
+            caseManager.fileAppeal(after, "Not my car");
+            caseManager.recordPayment(before, 500);
+            
+            List<CaseAction> moved = before.getCaseHistory();
+            assertTrue(moved.size() > inMemory.size());
+            for (int i = 0; i < inMemory.size(); i++) {
+                assertEquals(inMemory.get(i).getActionType(), moved.get(i).getActionType());
+                assertEquals(inMemory.get(i).getDescription(), moved.get(i).getDescription());
+            }
+            assertEquals(moved.size(), before.getCaseHistorySize());
+            List<CaseAction> appealed = after.getCaseHistory();
+            assertEquals(after.getCaseHistorySize(), appealed.size());
+            assertTrue(appealed.get(appealed.size() - 1).getDescription().contains("Not my car"),
+                    appealed.get(appealed.size() - 1).getDescription());
+        }
+    }
+    
+    @Test
+    void closingReleasesTheSegments() throws IOException {
+        RegulatoryCase regulatoryCase;
+        try (CaseManager caseManager = new CaseManager()) {
+            caseManager.keepHistoryIn(directory);
+            regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+            assertEquals(1, segmentCount());
+        }
+        
+        assertEquals(0, segmentCount());
+        assertThrows(IllegalStateException.class, regulatoryCase::getCaseHistory);
+    }
+    
+    @Test
+    void repositoryIsFlushedBeforeTheLogIsClosed() throws IOException, SQLException {
+        String url = "jdbc:h2:" + directory.resolve("cases").toAbsolutePath();
+        RegulatoryCase regulatoryCase;
+        JdbcCaseRepository repository = new JdbcCaseRepository(DriverManager.getConnection(url));
+        try {
+            try (CaseManager caseManager = new CaseManager(repository)) {
+                caseManager.keepHistoryIn(directory.resolve("history"));
+                regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+                caseManager.recordPayment(regulatoryCase, 1_000);
+            }
+        } finally {
+            repository.close();
+        }
+        
+        JdbcCaseRepository reopened = new JdbcCaseRepository(DriverManager.getConnection(url));
+        try {
+            assertEquals(regulatoryCase.getVersion(), reopened.findById(regulatoryCase.getCaseId()).getCaseHistorySize());
+        } finally {
+            reopened.close();
+        }
+    }
+    
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(Fixtures.class)
+class CaseJournalTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void replayRestoresJournaledMutations() throws IOException {
+        Path journalFile = directory.resolve("cases.journal");
+        RegulatoryCase paid;
+        RegulatoryCase appealed;
+        List<RegulatoryCase> batch;
+        Offender ada = Fixtures.offender("Ada Jones");
+        try (CaseManager caseManager = CaseManager.open(journalFile)) {
+            paid = caseManager.createNewCase(Fixtures.offense(ada, OffenseType.PARKING_VIOLATION));
+            caseManager.recordPayment(paid, 2_500);
+            appealed = caseManager.createNewCase(
+                    Fixtures.offense(Fixtures.offender("Ben Smith"), OffenseType.NOISE_DISTURBANCE));
+            caseManager.fileAppeal(appealed, "Wrong address");
+            caseManager.decideAppeal(appealed, true, "Address confirmed", "Reviewer");
+            batch = caseManager.createNewCases(List.of(Fixtures.offense(ada, OffenseType.PARKING_VIOLATION),
+                    Fixtures.offense(Fixtures.offender("Cleo Brown"), OffenseType.WASTE_DISPOSAL)));
+        }
+        
+        try (CaseManager caseManager = CaseManager.open(journalFile)) {
+            assertEquals(4, caseManager.getAllCases().size());
+            assertSameCase(paid, caseManager.getCaseById(paid.getCaseId()));
+            assertSameCase(appealed, caseManager.getCaseById(appealed.getCaseId()));
+            for (RegulatoryCase regulatoryCase : batch) {
+                assertSameCase(regulatoryCase, caseManager.getCaseById(regulatoryCase.getCaseId()));
+            }
+            assertEquals(appealed.getAppeal().getId(), caseManager.getCaseById(appealed.getCaseId()).getAppeal().getId());
+            assertEquals(2, caseManager.getCasesByOffender(paid.getOffense().getOffender().getId()).size());
+        }
+    }
+    
+    @Test
+    void mutationOnClosedJournalLeavesCaseUnchanged() throws IOException {
+        CaseManager caseManager = CaseManager.open(directory.resolve("cases.journal"));
+        RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+        long version = regulatoryCase.getVersion();
+        CaseStatus status = regulatoryCase.getStatus();
+        caseManager.close();
+        
+        assertThrows(IllegalStateException.class, () -> caseManager.recordPayment(regulatoryCase, 2_500));
+        assertThrows(IllegalStateException.class, () -> caseManager.fileAppeal(regulatoryCase, "Too late"));
+        assertEquals(version, regulatoryCase.getVersion());
+        assertEquals(status, regulatoryCase.getStatus());
+        assertEquals(0, regulatoryCase.getFine().getTotalPaidCents());
+        assertEquals(0, regulatoryCase.getFine().getPaymentHistory().size());
+        assertNull(regulatoryCase.getAppeal());
+        assertEquals(1, caseManager.getStatistics().getCaseCount(PaymentStatus.UNPAID));
+    }
+    
+    @Test
+    void unencodableRecordLeavesCaseUnchanged() throws IOException {
+        Path journalFile = directory.resolve("cases.journal");
+        RegulatoryCase regulatoryCase;
+        try (CaseManager caseManager = CaseManager.open(journalFile)) {
+            RegulatoryCase created = caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+            regulatoryCase = created;
+            long version = regulatoryCase.getVersion();
+            
+            // Longer than a journal string can be
+            String reason = "x".repeat(70_000);
+            assertThrows(UncheckedIOException.class, () -> caseManager.fileAppeal(created, reason));
+            assertNull(regulatoryCase.getAppeal());
+            assertEquals(version, regulatoryCase.getVersion());
+            
+            caseManager.fileAppeal(regulatoryCase, "Short reason");
+        }
+        
+        try (CaseManager caseManager = CaseManager.open(journalFile)) {
+            RegulatoryCase restored = caseManager.getCaseById(regulatoryCase.getCaseId());
+            assertNotNull(restored.getAppeal());
+            assertEquals("Short reason", restored.getAppeal().getReason());
+            assertSameCase(regulatoryCase, restored);
+        }
+    }
+    
+    private static void assertSameCase(RegulatoryCase expected, RegulatoryCase actual) {
+        assertNotNull(actual, expected.getCaseId());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getFine().getId(), actual.getFine().getId());
+        assertEquals(expected.getFine().getAmountCents(), actual.getFine().getAmountCents());
+        assertEquals(expected.getFine().getTotalPaidCents(), actual.getFine().getTotalPaidCents());
+        assertEquals(expected.getFine().getPaymentStatus(), actual.getFine().getPaymentStatus());
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(Fixtures.class)
+class CaseSnapshotTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void restoresSnapshotAndReplaysJournalTail() throws IOException {
+        Path journalFile = directory.resolve("cases.journal");
+        Path snapshotFile = directory.resolve("cases.snapshot");
+        Path earlierSnapshot = directory.resolve("earlier.snapshot");
+        
+        List<RegulatoryCase> cases = new ArrayList<>();
+        Offender offender = Fixtures.offender("Ada Jones");
+        try (CaseManager caseManager = CaseManager.open(journalFile, snapshotFile)) {
+            for (int i = 0; i < 5; i++) {
+                cases.add(caseManager.createNewCase(Fixtures.offense(offender)));
+            }
+            caseManager.recordPayment(cases.get(0), 1_000);
+            caseManager.checkpoint();
+            Files.copy(snapshotFile, earlierSnapshot);
+            
+            // The tail: mutations of snapshotted cases and new cases
+            caseManager.recordPayment(cases.get(0), 1_000);
+            caseManager.fileAppeal(cases.get(1), "Not my car");
+            cases.add(caseManager.createNewCase(Fixtures.offense(offender)));
+        }
+        // Pretend the process died before the final checkpoint
+        Files.copy(earlierSnapshot, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        
+        try (CaseManager caseManager = CaseManager.open(journalFile, snapshotFile)) {
+            assertEquals(cases.size(), caseManager.getAllCases().size());
+            for (RegulatoryCase expected : cases) {
+                RegulatoryCase actual = caseManager.getCaseById(expected.getCaseId());
+                assertNotNull(actual, expected.getCaseId());
+                assertEquals(expected.getStatus(), actual.getStatus());
+                // A record replayed on top of the snapshot would add to the history a second time
+                assertEquals(expected.getVersion(), actual.getVersion());
+                assertEquals(expected.getFine().getAmountCents(), actual.getFine().getAmountCents());
+                assertEquals(expected.getFine().getTotalPaidCents(), actual.getFine().getTotalPaidCents());
+            }
+            assertEquals(6, caseManager.getCasesByOffender(offender.getId()).size());
+        }
+    }
+}
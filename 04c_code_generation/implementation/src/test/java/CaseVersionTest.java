@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(Fixtures.class)
+class CaseVersionTest {
+    private static final int WRITERS = 2;
+    private static final int PAYMENTS_PER_WRITER = 3_000;
+    private static final int READERS = 4;
+    
+    private final CaseManager caseManager = new CaseManager();
+    private final RegulatoryCase regulatoryCase =
+            caseManager.createNewCase(Fixtures.offense(Fixtures.offender("Ada Jones")));
+    
+    @Test
+    void optimisticReadsSeeConsistentCases() throws InterruptedException {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                long lastPaid = 0;
+                try {
+                    while (writing.get()) {
+                        long[] read = caseManager.readCase(regulatoryCase, rc -> {
+                            Fine fine = rc.getFine();
+                            long sum = 0;
+                            for (Payment payment : fine.getPaymentHistory()) {
+                                sum += payment.getAmountCents();
+                            }
+                            long partial = fine.getPaymentStatus() == PaymentStatus.PARTIALLY_PAID ? 1 : 0;
+                            return new long[] {fine.getTotalPaidCents(), sum, fine.getPaymentHistory().size(), partial};
+                        });
+                        assertEquals(read[0], read[1], "Total paid differs from the payments");
+                        assertEquals(read[0], read[2], "Every payment is one cent");
+                        assertEquals(read[0] > 0 ? 1 : 0, read[3], "Payment status does not match the total");
+                        assertTrue(read[0] >= lastPaid, "Total paid went back from " + lastPaid + " to " + read[0]);
+                        lastPaid = read[0];
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            readers[r].start();
+        }
+        
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < writers.length; w++) {
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < PAYMENTS_PER_WRITER; i++) {
+                    caseManager.recordPayment(regulatoryCase, 1);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        
+        assertEquals(List.of(), List.copyOf(failures));
+        assertEquals(WRITERS * PAYMENTS_PER_WRITER, regulatoryCase.getFine().getTotalPaidCents());
+    }
+    
+    @Test
+    void readerFailureOnAnUnchangedCaseIsThrown() {
+        assertThrows(ArithmeticException.class, () -> caseManager.readCase(regulatoryCase, rc -> {
+            throw new ArithmeticException("Reader failed");
+        }));
+    }
+    
+    @Test
+    void changeBasedOnAnOldVersionIsRefused() {
+        long version = regulatoryCase.getVersion();
+        caseManager.recordPayment(regulatoryCase, 100);
+        
+        CaseManager.VersionConflictException conflict = assertThrows(CaseManager.VersionConflictException.class,
+                () -> caseManager.recordPayment(regulatoryCase, 100, PaymentMethod.CASH, null, version));
+        assertEquals(version, conflict.getExpectedVersion());
+        assertEquals(regulatoryCase.getVersion(), conflict.getCurrentVersion());
+        assertEquals(100, regulatoryCase.getFine().getTotalPaidCents());
+        
+        caseManager.recordPayment(regulatoryCase, 100, PaymentMethod.CASH, null, CaseManager.ANY_VERSION);
+        assertEquals(200, regulatoryCase.getFine().getTotalPaidCents());
+    }
+    
+    @Test
+    void changeOvertakenByAnotherChangeIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        Payment payment = caseManager.changeCase(regulatoryCase, rc -> rc.getFine().getRemainingBalanceCents(),
+                (remaining, version) -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        // Another terminal records a payment between the read and the change
+                        caseManager.recordPayment(regulatoryCase, 500);
+                    }
+                    return caseManager.recordPayment(regulatoryCase, remaining, PaymentMethod.CASH, null, version);
+                });
+        
+        assertEquals(2, attempts.get());
+        Fine fine = regulatoryCase.getFine();
+        assertEquals(fine.getAmountCents() - 500, payment.getAmountCents());
+        assertEquals(fine.getAmountCents(), fine.getTotalPaidCents());
+        assertEquals(PaymentStatus.PAID, fine.getPaymentStatus());
+    }
+    
+    @Test
+    void retriesAreBounded() {
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(CaseManager.VersionConflictException.class,
+                () -> caseManager.changeCase(regulatoryCase, RegulatoryCase::getVersion, (read, version) -> {
+                    attempts.incrementAndGet();
+                    caseManager.recordPayment(regulatoryCase, 1);
+                    return caseManager.recordPayment(regulatoryCase, 1, PaymentMethod.CASH, null, version);
+                }));
+        
+        assertTrue(attempts.get() > 1);
+        assertEquals(attempts.get(), regulatoryCase.getFine().getTotalPaidCents());
+    }
+    
+    @Test
+    void stateConflictsAreNotRetried() {
+        caseManager.fileAppeal(regulatoryCase, "Not my car");
+        AtomicInteger attempts = new AtomicInteger();
+        
+        IllegalStateException conflict = assertThrows(IllegalStateException.class,
+                () -> caseManager.changeCase(regulatoryCase, RegulatoryCase::getStatus, (status, version) -> {
+                    attempts.incrementAndGet();
+                    return caseManager.fileAppeal(regulatoryCase, "Wrong date", version);
+                }));
+        
+        assertFalse(conflict instanceof CaseManager.VersionConflictException);
+        assertEquals(1, attempts.get());
+    }
+}
@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class DelimitedTextTest {
+    @Test
+    void splitsPlainFields() {
+        assertEquals(List.of("a", "b", "c"), DelimitedText.split("a,b,c", ','));
+    }
+    
+    @Test
+    void keepsEmptyFields() {
+        assertEquals(List.of("", "b", ""), DelimitedText.split(",b,", ','));
+        assertEquals(List.of(""), DelimitedText.split("", ','));
+    }
+    
+    @Test
+    void quotedFieldsMayContainDelimiters() {
+        assertEquals(List.of("Main Street, 5", "x"), DelimitedText.split("\"Main Street, 5\",x", ','));
+    }
+    
+    @Test
+    void doubledQuotesStandForOneQuote() {
+        assertEquals(List.of("say \"hi\"", "x"), DelimitedText.split("\"say \"\"hi\"\"\",x", ','));
+        assertEquals(List.of("\""), DelimitedText.split("\"\"\"\"", ','));
+    }
+    
+    @Test
+    void quotesInsideUnquotedFieldsAreKept() {
+        assertEquals(List.of("5\" pipe", "x"), DelimitedText.split("5\" pipe,x", ','));
+    }
+    
+    @Test
+    void tabSeparatedFieldsAreNotQuoted() {
+        assertEquals(List.of("\"a,b\"", "c"), DelimitedText.split("\"a,b\"\tc", '\t'));
+        assertEquals(List.of("a", "", "c"), DelimitedText.split("a\t\tc", '\t'));
+    }
+    
+    @Test
+    void rejectsUnterminatedQuotedField() {
+        assertThrows(IllegalArgumentException.class, () -> DelimitedText.split("\"open,x", ','));
+        assertThrows(IllegalArgumentException.class, () -> DelimitedText.split("a,\"b\"\"", ','));
+    }
+    
+    @Test
+    void detectsDelimiterFromHeader() {
+        assertEquals('\t', DelimitedText.delimiterOf("a\tb,c"));
+        assertEquals(',', DelimitedText.delimiterOf("a,b"));
+    }
+    
+    @Test
+    void mapsColumnsCaseInsensitively() throws IOException {
+        Map<String, Integer> columns = DelimitedText.columnsOf(" Name ,AMOUNT,name", ',', "name", "amount");
+        assertEquals(0, columns.get("name"));
+        assertEquals(1, columns.get("amount"));
+        assertThrows(IOException.class, () -> DelimitedText.columnsOf("name", ',', "name", "amount"));
+    }
+}
@@ -0,0 +1,66 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * Offenders and offenses shared by the tests. As an extension of a test class, it fixes the TimeSource
+ * clock at TODAY while the tests of the class run, including the cases created in field initializers,
+ * so that offenses, fines and histories are dated the same way on every run
+ */
+class Fixtures implements BeforeAllCallback, AfterAllCallback {
+    static final LocalDate TODAY = LocalDate.of(2026, 3, 2);
+    
+    private static final Clock CLOCK = Clock.fixed(TODAY.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC);
+    
+    private Clock previousClock;
+    
+    @Override
+    public void beforeAll(ExtensionContext context) {
+        previousClock = TimeSource.getClock();
+        TimeSource.setClock(CLOCK);
+    }
+    
+    @Override
+    public void afterAll(ExtensionContext context) {
+        TimeSource.setClock(previousClock);
+    }
+    
+    /**
+     * @param fullName The offender's name
+     * @return An offender living at 1 Main Street, born on 1980-01-01
+     */
+    static Offender offender(String fullName) {
+        return new Offender(fullName, "1 Main Street", LocalDate.of(1980, 1, 1));
+    }
+    
+    /**
+     * @param offender The offender
+     * @return A parking violation at the Market Square three days ago
+     */
+    static Offense offense(Offender offender) {
+        return offense(offender, OffenseType.PARKING_VIOLATION);
+    }
+    
+    /**
+     * @param offender The offender
+     * @param offenseType The type of the offense
+     * @return An offense at the Market Square three days ago
+     */
+    static Offense offense(Offender offender, OffenseType offenseType) {
+        return offense(offender, "Market Square", offenseType);
+    }
+    
+    /**
+     * @param offender The offender
+     * @param location The location of the offense
+     * @param offenseType The type of the offense
+     * @return An offense three days ago
+     */
+    static Offense offense(Offender offender, String location, OffenseType offenseType) {
+        return new Offense(offender, location, TimeSource.today().minusDays(3), offenseType);
+    }
+}
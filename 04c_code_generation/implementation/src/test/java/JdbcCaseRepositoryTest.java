@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(Fixtures.class)
+class JdbcCaseRepositoryTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void reopenedRepositoryHoldsWrittenCases() throws SQLException {
+        String url = "jdbc:h2:" + directory.resolve("cases").toAbsolutePath();
+        Offender offender = Fixtures.offender("Ada Jones");
+        RegulatoryCase partlyPaid;
+        RegulatoryCase appealed;
+        RegulatoryCase untouched;
+        JdbcCaseRepository repository = new JdbcCaseRepository(DriverManager.getConnection(url));
+        try {
+            CaseManager caseManager = new CaseManager(repository);
+            partlyPaid = caseManager.createNewCase(Fixtures.offense(offender, OffenseType.NOISE_DISTURBANCE));
+            // Several payments and several actions, which a join of both would multiply
+            caseManager.recordPayment(partlyPaid, 1_000, PaymentMethod.BANK_TRANSFER, "REF-1");
+            caseManager.recordPayment(partlyPaid, 2_000, PaymentMethod.BANK_TRANSFER, "REF-2");
+            caseManager.recordPayment(partlyPaid, 3_000, PaymentMethod.BANK_TRANSFER, "REF-3");
+            appealed = caseManager.createNewCase(Fixtures.offense(offender, OffenseType.PARKING_VIOLATION));
+            caseManager.fileAppeal(appealed, "Not my car");
+            caseManager.decideAppeal(appealed, false, "Photo evidence", "Reviewer");
+            untouched = caseManager.createNewCase(Fixtures.offense(offender, OffenseType.WASTE_DISPOSAL));
+        } finally {
+            repository.close();
+        }
+        
+        JdbcCaseRepository reopened = new JdbcCaseRepository(DriverManager.getConnection(url));
+        try {
+            assertEquals(3, reopened.size());
+            for (RegulatoryCase expected : List.of(partlyPaid, appealed, untouched)) {
+                assertSameCase(expected, reopened.findById(expected.getCaseId()));
+            }
+            Offender reopenedOffender = reopened.findOffenderById(offender.getId());
+            assertEquals(3, reopenedOffender.getOffenseHistory().size());
+            assertEquals(partlyPaid.getCaseId(), reopenedOffender.getOffenseHistory().get(0).getCaseId());
+            assertEquals("Not my car", reopened.findById(appealed.getCaseId()).getAppeal().getReason());
+        } finally {
+            reopened.close();
+        }
+    }
+    
+    @Test
+    void casesWrittenByAnotherRepositoryAreLoadedWhenOpened() throws SQLException {
+        String url = "jdbc:h2:" + directory.resolve("shared").toAbsolutePath();
+        JdbcCaseRepository reader = new JdbcCaseRepository(DriverManager.getConnection(url));
+        JdbcCaseRepository writer = new JdbcCaseRepository(DriverManager.getConnection(url));
+        RegulatoryCase written;
+        try {
+            CaseManager caseManager = new CaseManager(writer);
+            written = caseManager.createNewCase(
+                    Fixtures.offense(new Offender("Ben Smith", "2 Side Street", LocalDate.of(1975, 5, 5)),
+                            OffenseType.BUILDING_CODE));
+            caseManager.recordPayment(written, 5_000, PaymentMethod.CASH, null);
+            caseManager.recordPayment(written, 6_000, PaymentMethod.CASH, null);
+            
+            // Lookups are answered from the identity map, never by a query
+            assertNull(reader.findById(written.getCaseId()));
+        } finally {
+            writer.close();
+            reader.close();
+        }
+        
+        JdbcCaseRepository reopened = new JdbcCaseRepository(DriverManager.getConnection(url));
+        try {
+            assertSameCase(written, reopened.findById(written.getCaseId()));
+            // Loaded cases are indexed by the case manager like created ones
+            CaseManager caseManager = new CaseManager(reopened);
+            assertEquals(List.of(written.getCaseId()), caseManager.getCasesByOffenseType(OffenseType.BUILDING_CODE)
+                    .stream().map(RegulatoryCase::getCaseId).collect(Collectors.toList()));
+        } finally {
+            reopened.close();
+        }
+    }
+    
+    private static void assertSameCase(RegulatoryCase expected, RegulatoryCase actual) {
+        assertNotNull(actual, expected.getCaseId());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getFine().getTotalPaidCents(), actual.getFine().getTotalPaidCents());
+        assertEquals(expected.getFine().getPaymentStatus(), actual.getFine().getPaymentStatus());
+        
+        List<Payment> expectedPayments = expected.getFine().getPaymentHistory();
+        List<Payment> actualPayments = actual.getFine().getPaymentHistory();
+        assertEquals(expectedPayments.size(), actualPayments.size());
+        for (int i = 0; i < expectedPayments.size(); i++) {
+            assertEquals(expectedPayments.get(i).getId(), actualPayments.get(i).getId());
+            assertEquals(expectedPayments.get(i).getAmountCents(), actualPayments.get(i).getAmountCents());
+            assertEquals(expectedPayments.get(i).getReferenceNumber(), actualPayments.get(i).getReferenceNumber());
+        }
+        
+        List<CaseAction> expectedHistory = expected.getCaseHistory();
+        List<CaseAction> actualHistory = actual.getCaseHistory();
+        assertEquals(expectedHistory.size(), actualHistory.size());
+        for (int i = 0; i < expectedHistory.size(); i++) {
+            assertEquals(expectedHistory.get(i).getActionType(), actualHistory.get(i).getActionType());
+            assertEquals(expectedHistory.get(i).getDescription(), actualHistory.get(i).getDescription());
+            assertEquals(expectedHistory.get(i).getTimestamp(), actualHistory.get(i).getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class JsonTest {
+    @Test
+    void parsesFlatObject() {
+        Map<String, Object> members = Json.parseObject(
+                " { \"name\" : \"Ada\", \"version\": 12, \"delta\": -3, \"approved\": true, \"closed\": false, \"note\": null } ");
+        
+        assertEquals(List.of("name", "version", "delta", "approved", "closed", "note"), List.copyOf(members.keySet()));
+        assertEquals("Ada", members.get("name"));
+        assertEquals(12L, members.get("version"));
+        assertEquals(-3L, members.get("delta"));
+        assertEquals(Boolean.TRUE, members.get("approved"));
+        assertEquals(Boolean.FALSE, members.get("closed"));
+        assertTrue(members.containsKey("note"));
+        assertNull(members.get("note"));
+        assertTrue(Json.parseObject("{}").isEmpty());
+    }
+    
+    @Test
+    void decodesEscapes() {
+        Map<String, Object> members = Json.parseObject("{\"reason\": \"\\\"Not\\\" my\\\\car\\n\\t\\u00e9\\/\"}");
+        
+        assertEquals("\"Not\" my\\car\n\t\u00e9/", members.get("reason"));
+    }
+    
+    @Test
+    void rejectsWhatItDoesNotSupport() {
+        for (String text : List.of("", "[]", "{\"a\": 1.5}", "{\"a\": 1e3}", "{\"a\": {}}", "{\"a\": [1]}",
+                "{\"a\": \"open", "{\"a\": \"\\x\"}", "{\"a\": \"\\u12\"}", "{\"a\": 1", "{\"a\" 1}",
+                "{\"a\": 1,}", "{\"a\": 1} x", "{\"a\": 99999999999999999999}", "{\"a\": tru}")) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parseObject(text), text);
+        }
+    }
+    
+    @Test
+    void writtenStringsParseBack() {
+        String value = "quote \" backslash \\ newline \n tab \t bell \u0007 accent \u00e9";
+        String text = new Json.Writer().beginObject()
+                .field("value", value)
+                .field("count", 3)
+                .field("flag", true)
+                .field("missing", (Object) null)
+                .endObject()
+                .toString();
+        
+        Map<String, Object> members = Json.parseObject(text);
+        assertEquals(value, members.get("value"));
+        assertEquals(3L, members.get("count"));
+        assertEquals(Boolean.TRUE, members.get("flag"));
+        assertNull(members.get("missing"));
+    }
+    
+    @Test
+    void writerSeparatesNestedValues() {
+        String text = new Json.Writer().beginObject()
+                .name("items").beginArray()
+                .beginObject().field("a", 1).endObject()
+                .beginObject().endObject()
+                .value(2)
+                .endArray()
+                .field("b", "c")
+                .endObject()
+                .toString();
+        
+        assertEquals("{\"items\":[{\"a\":1},{},2],\"b\":\"c\"}", text);
+    }
+    
+    @Test
+    void appendedValuesAreSeparated() {
+        Json.Writer inner = new Json.Writer().beginObject().field("a", 1).endObject();
+        String text = new Json.Writer().beginObject()
+                .field("b", 2)
+                .name("inner").append(inner)
+                .name("items").beginArray().append(inner).append(inner).endArray()
+                .endObject()
+                .toString();
+        
+        assertEquals("{\"b\":2,\"inner\":{\"a\":1},\"items\":[{\"a\":1},{\"a\":1}]}", text);
+    }
+}
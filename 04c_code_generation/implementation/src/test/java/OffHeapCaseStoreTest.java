@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(Fixtures.class)
+class OffHeapCaseStoreTest {
+    @Test
+    void viewShowsTheStoredCase() {
+        CaseManager caseManager = new CaseManager();
+        Offender offender = Fixtures.offender("Ada Jones");
+        RegulatoryCase regulatoryCase = caseManager.createNewCase(Fixtures.offense(offender));
+        caseManager.recordPayment(regulatoryCase, 1_000);
+        
+        OffHeapCaseStore store = new OffHeapCaseStore();
+        store.put(regulatoryCase, 42);
+        
+        OffHeapCaseStore.CaseView view = store.newView();
+        assertTrue(store.find(regulatoryCase.getCaseId(), view));
+        assertEquals(regulatoryCase.getCaseId(), view.getCaseId());
+        assertEquals(regulatoryCase.getStatus(), view.getStatus());
+        assertEquals(regulatoryCase.getCreationDate(), view.getCreationDate());
+        assertNull(view.getClosedDate());
+        assertEquals(OffenseType.PARKING_VIOLATION, view.getOffenseType());
+        assertEquals(regulatoryCase.getOffense().getOffenseDate(), view.getOffenseDate());
+        assertEquals("Market Square", view.getLocation());
+        assertEquals(regulatoryCase.getFine().getAmountCents(), view.getFineAmountCents());
+        assertEquals(1_000, view.getTotalPaidCents());
+        assertEquals(regulatoryCase.getFine().getPaymentStatus(), view.getPaymentStatus());
+        assertEquals(regulatoryCase.getFine().getPaymentDeadline(), view.getPaymentDeadline());
+        assertEquals(offender.getId(), view.getOffenderId());
+        assertEquals("Ada Jones", view.getOffenderFullName());
+        assertEquals("1 Main Street", view.getOffenderAddress());
+        assertEquals(LocalDate.of(1980, 1, 1), view.getOffenderDateOfBirth());
+        assertEquals(42, view.getReference());
+        assertEquals(42, store.referenceOf(regulatoryCase.getCaseId()));
+        assertFalse(store.find("unknown", view));
+        assertEquals(-1, store.referenceOf("unknown"));
+    }
+    
+    @Test
+    void caseIsStoredOnce() {
+        RegulatoryCase regulatoryCase = new CaseManager().createNewCase(Fixtures.offense(offender(0)));
+        OffHeapCaseStore store = new OffHeapCaseStore();
+        store.put(regulatoryCase, 1);
+        
+        assertThrows(IllegalArgumentException.class, () -> store.put(regulatoryCase, 2));
+        assertEquals(1, store.referenceOf(regulatoryCase.getCaseId()));
+        assertEquals(1, store.size());
+    }
+    
+    @Test
+    void viewsStayValidWhileTheStoreGrows() throws InterruptedException {
+        // More cases than fit in one slab, and locations that fill more than one arena chunk
+        CaseManager caseManager = new CaseManager();
+        List<RegulatoryCase> cases = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            cases.add(caseManager.createNewCase(Fixtures.offense(offender(i % 1_000),
+                    "Location " + i + " " + "x".repeat(20), OffenseType.PARKING_VIOLATION)));
+        }
+        OffHeapCaseStore store = new OffHeapCaseStore();
+        store.put(cases.get(0), 0);
+        
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i < cases.size(); i++) {
+                store.put(cases.get(i), i);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                OffHeapCaseStore.CaseView view = store.newView();
+                while (store.size() < cases.size()) {
+                    int i = store.size() - 1;
+                    assertTrue(store.find(cases.get(i).getCaseId(), view));
+                    assertEquals(i, view.getReference());
+                    assertEquals(cases.get(i).getOffense().getLocation(), view.getLocation());
+                    assertEquals(cases.get(i).getOffense().getOffender().getId(), view.getOffenderId());
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        writer.start();
+        writer.join();
+        reader.join();
+        assertNull(failure.get());
+        
+        int[] rows = new int[1];
+        store.forEach(view -> assertEquals(rows[0]++, view.getReference()));
+        assertEquals(cases.size(), rows[0]);
+    }
+    
+    private static Offender offender(int number) {
+        return new Offender("Offender " + number, number + " Main Street", LocalDate.of(1980, 1, 1).plusDays(number));
+    }
+}
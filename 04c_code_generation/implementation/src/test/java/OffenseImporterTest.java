@@ -0,0 +1,139 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OffenseImporterTest {
+    private static final String HEADER =
+            "offender_name,offender_address,offender_date_of_birth,location,offense_date,offense_type,evidence";
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void importsValidRowsAndRejectsInvalidOnes() throws IOException {
+        Path file = write("offenses.csv", HEADER,
+                "Ada Jones,\"1 Main Street, Springfield\",1980-01-01,Market Square,2026-01-10,parking_violation,Photo",
+                "",
+                "Ada Jones,\"1 Main Street, Springfield\",1980-01-01,Harbour,2026-01-11,NOISE_DISTURBANCE,",
+                "Ben Smith,2 Side Street,1975-05-05,Park,2026-01-12,JAYWALKING,",
+                "Cleo Brown,3 High Street,not a date,Park,2026-01-12,WASTE_DISPOSAL,");
+        Path rejected = directory.resolve("offenses.rejected");
+        CaseManager caseManager = new CaseManager();
+        
+        OffenseImporter.ImportResult result = new OffenseImporter(caseManager, 2).importFile(file, rejected);
+        
+        assertEquals(4, result.getRows());
+        assertEquals(2, result.getCreatedCases());
+        assertEquals(2, result.getRejectedRows());
+        assertEquals(2, caseManager.getAllCases().size());
+        // Both cases of the repeat offender belong to one offender
+        String offenderId = caseManager.getAllCases().get(0).getOffense().getOffender().getId();
+        assertEquals(2, caseManager.getCasesByOffender(offenderId).size());
+        
+        List<String> rejectedLines = Files.readAllLines(rejected);
+        assertEquals(3, rejectedLines.size());
+        assertTrue(rejectedLines.get(1).contains("line 5"), rejectedLines.get(1));
+        assertTrue(rejectedLines.get(2).contains("line 6"), rejectedLines.get(2));
+    }
+    
+    @Test
+    void importsTabSeparatedRows() throws IOException {
+        Path file = write("offenses.tsv", HEADER.replace(',', '\t'),
+                "Ada Jones\t1 Main Street, Springfield\t1980-01-01\t\"Market\" Square\t2026-01-10\tFOOD_SAFETY\t");
+        Path rejected = directory.resolve("offenses.rejected");
+        CaseManager caseManager = new CaseManager();
+        
+        OffenseImporter.ImportResult result = new OffenseImporter(caseManager, 1).importFile(file, rejected);
+        
+        assertEquals(1, result.getCreatedCases());
+        assertEquals("\"Market\" Square", caseManager.getAllCases().get(0).getOffense().getLocation());
+        assertFalse(Files.exists(rejected));
+    }
+    
+    @Test
+    void reportsCreatedAndNotCreatedLinesWhenCasesCannotBeCreated() throws IOException {
+        List<String> rows = new ArrayList<>();
+        rows.add(HEADER);
+        for (int line = 2; line <= 3_001; line++) {
+            String location = line == 1_500 ? "Broken" : "Location " + line;
+            rows.add("Offender " + (line % 50) + ",1 Main Street,1980-01-01," + location + ",2026-01-10,PARKING_VIOLATION,");
+        }
+        Path file = write("offenses.csv", rows.toArray(new String[0]));
+        FailingCaseManager caseManager = new FailingCaseManager();
+        
+        OffenseImporter.ImportFailedException failure = assertThrows(OffenseImporter.ImportFailedException.class,
+                () -> new OffenseImporter(caseManager, 1).importFile(file, directory.resolve("offenses.rejected")));
+        
+        assertEquals(List.of(new OffenseImporter.LineRange(2, 1_499)), failure.getCreatedLines());
+        assertEquals(List.of(new OffenseImporter.LineRange(1_500, Long.MAX_VALUE)), failure.getNotCreatedLines());
+        assertEquals(1_498, caseManager.getAllCases().size());
+        assertTrue(failure.getMessage().contains("Database down"), failure.getMessage());
+    }
+    
+    @Test
+    void repeatOffensesInDifferentChunksArePricedInFileOrder() throws IOException {
+        OffenseType[] types = {OffenseType.PARKING_VIOLATION, OffenseType.NOISE_DISTURBANCE};
+        List<String> rows = new ArrayList<>();
+        rows.add(HEADER);
+        // Every offender has a row in each of the first three chunks
+        CaseManager oneByOne = new CaseManager();
+        Map<String, Long> expectedFines = new HashMap<>();
+        for (int line = 2; line <= 3_001; line++) {
+            String name = "Offender " + (line % 1_000);
+            OffenseType type = types[line / 1_000 % types.length];
+            rows.add(name + ",1 Main Street,1980-01-01,Location " + line + ",2026-01-10," + type + ",");
+            
+            Offender offender = oneByOne.resolveOffender(name, "1 Main Street", LocalDate.of(1980, 1, 1));
+            RegulatoryCase expected = oneByOne.createNewCase(
+                    new Offense(offender, "Location " + line, LocalDate.of(2026, 1, 10), type));
+            expectedFines.put("Location " + line, expected.getFine().getAmountCents());
+        }
+        Path file = write("offenses.csv", rows.toArray(new String[0]));
+        CaseManager caseManager = new CaseManager();
+        
+        new OffenseImporter(caseManager, 4).importFile(file, directory.resolve("offenses.rejected"));
+        
+        assertEquals(3_000, caseManager.getAllCases().size());
+        for (RegulatoryCase regulatoryCase : caseManager.getAllCases()) {
+            String location = regulatoryCase.getOffense().getLocation();
+            assertEquals(expectedFines.get(location), regulatoryCase.getFine().getAmountCents(), location);
+        }
+    }
+    
+    private Path write(String name, String... lines) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, List.of(lines));
+        return file;
+    }
+    
+    /**
+     * Creates the cases of a batch up to the offense at the location "Broken", then fails
+     */
+    private static class FailingCaseManager extends CaseManager {
+        @Override
+        public List<RegulatoryCase> createNewCases(Collection<Offense> offenses) {
+            List<Offense> batch = new ArrayList<>(offenses);
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).getLocation().equals("Broken")) {
+                    super.createNewCases(batch.subList(0, i));
+                    throw new IllegalStateException("Database down");
+                }
+            }
+            return super.createNewCases(batch);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ReminderRunTest {
+    private static final int CASES = 50;
+    
+    private final Clock systemClock = TimeSource.getClock();
+    
+    @AfterEach
+    void restoreClock() {
+        TimeSource.setClock(systemClock);
+    }
+    
+    @Test
+    void failedRunLeavesItsCasesScheduled() {
+        FailingRepository repository = new FailingRepository();
+        CaseManager caseManager = new CaseManager(repository);
+        Offender offender = new Offender("Ada Jones", "1 Main Street", LocalDate.of(1980, 1, 1));
+        List<RegulatoryCase> cases = new ArrayList<>();
+        for (int i = 0; i < CASES; i++) {
+            cases.add(caseManager.createNewCase(new Offense(offender, "Market Square", TimeSource.today().minusDays(3),
+                    OffenseType.PARKING_VIOLATION)));
+        }
+        
+        repository.updatingThreads.clear();
+        TimeSource.setClock(Clock.offset(systemClock, Duration.ofDays(40)));
+        repository.failing = cases.get(CASES / 2);
+        assertThrows(IllegalStateException.class, caseManager::processReminders);
+        
+        // Every case is reminded once by the failed run or the next one, and none is dropped from the schedule
+        repository.failing = null;
+        caseManager.processReminders();
+        for (RegulatoryCase regulatoryCase : cases) {
+            assertEquals(TimeSource.today(), regulatoryCase.getLastReminderDate(), regulatoryCase.getCaseId());
+        }
+        assertEquals(0, caseManager.processReminders());
+        
+        TimeSource.setClock(Clock.offset(systemClock, Duration.ofDays(54)));
+        assertEquals(CASES, caseManager.processReminders());
+        
+        // Reminders run on the case manager's pool, or on the thread waiting for them, never on the common pool
+        for (String thread : repository.updatingThreads) {
+            assertTrue(thread.startsWith("case-reminders-") || thread.equals(Thread.currentThread().getName()), thread);
+        }
+    }
+    
+    /**
+     * Fails to update one case, and records the threads updates run on
+     */
+    private static class FailingRepository extends InMemoryCaseRepository {
+        volatile RegulatoryCase failing;
+        final Set<String> updatingThreads = ConcurrentHashMap.newKeySet();
+        
+        @Override
+        public void update(RegulatoryCase regulatoryCase) {
+            updatingThreads.add(Thread.currentThread().getName());
+            if (regulatoryCase == failing) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            super.update(regulatoryCase);
+        }
+    }
+}
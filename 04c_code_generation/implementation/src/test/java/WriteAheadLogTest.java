@@ -0,0 +1,166 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void replaysAppendedRecordsInOrder() throws IOException {
+        Path file = directory.resolve("test.wal");
+        long[] positions = new long[3];
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.replay(0, (record, position) -> { });
+            positions[0] = log.append(bytes("first"));
+            long[] batch = log.append(List.of(bytes("second"), bytes("third")));
+            positions[1] = batch[0];
+            positions[2] = batch[1];
+            log.awaitDurable(positions[2]);
+        }
+        
+        List<String> records = new ArrayList<>();
+        List<Long> replayedPositions = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            long end = log.replay(0, (record, position) -> {
+                records.add(string(record));
+                replayedPositions.add(position);
+            });
+            assertEquals(positions[2], end);
+        }
+        assertEquals(List.of("first", "second", "third"), records);
+        assertEquals(List.of(positions[0], positions[1], positions[2]), replayedPositions);
+    }
+    
+    @Test
+    void replayStartsAtPosition() throws IOException {
+        Path file = directory.resolve("test.wal");
+        long first = writeRecords(file, "first", "second")[0];
+        
+        List<String> records = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.replay(first, (record, position) -> records.add(string(record)));
+        }
+        assertEquals(List.of("second"), records);
+    }
+    
+    @Test
+    void truncatesTornRecordAtEnd() throws IOException {
+        Path file = directory.resolve("test.wal");
+        long end = writeRecords(file, "first", "second")[1];
+        // A header announcing 100 bytes of which only 10 were written
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(end);
+            raw.writeInt(100);
+            raw.writeInt(0);
+            raw.write(new byte[10]);
+        }
+        
+        List<String> records = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            assertEquals(end, log.replay(0, (record, position) -> records.add(string(record))));
+            log.awaitDurable(log.append(bytes("third")));
+        }
+        assertEquals(List.of("first", "second"), records);
+        assertEquals(List.of("first", "second", "third"), replayAll(file));
+    }
+    
+    @Test
+    void truncatesLastRecordWithBadChecksum() throws IOException {
+        Path file = directory.resolve("test.wal");
+        long[] positions = writeRecords(file, "first", "second");
+        flipLastByteBefore(file, positions[1]);
+        
+        assertEquals(List.of("first"), replayAll(file));
+        assertEquals(positions[0], Files.size(file));
+    }
+    
+    @Test
+    void failsOnCorruptRecordBeforeEnd() throws IOException {
+        Path file = directory.resolve("test.wal");
+        long[] positions = writeRecords(file, "first", "second", "third");
+        flipLastByteBefore(file, positions[0]);
+        
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            assertThrows(IOException.class, () -> log.replay(0, (record, position) -> { }));
+        }
+        assertEquals(positions[2], Files.size(file));
+    }
+    
+    @Test
+    void failsOnCorruptLengthBeforeEnd() throws IOException {
+        Path file = directory.resolve("test.wal");
+        long[] positions = writeRecords(file, "first", "second", "third");
+        
+        // A length running past the end of the file, and one cut short, both hide the records after them
+        for (int length : new int[] {1_000, 1}) {
+            try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+                raw.writeInt(length);
+            }
+            try (WriteAheadLog log = new WriteAheadLog(file)) {
+                assertThrows(IOException.class, () -> log.replay(0, (record, position) -> { }), "Length " + length);
+            }
+            assertEquals(positions[2], Files.size(file));
+        }
+    }
+    
+    @Test
+    void rejectsAppendsAfterClose() throws IOException {
+        WriteAheadLog log = new WriteAheadLog(directory.resolve("test.wal"));
+        log.replay(0, (record, position) -> { });
+        log.close();
+        
+        assertThrows(IllegalStateException.class, log::checkWritable);
+        assertThrows(IllegalStateException.class, () -> log.append(bytes("late")));
+    }
+    
+    private static long[] writeRecords(Path file, String... payloads) throws IOException {
+        long[] positions = new long[payloads.length];
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.replay(0, (record, position) -> { });
+            for (int i = 0; i < payloads.length; i++) {
+                positions[i] = log.append(bytes(payloads[i]));
+            }
+            log.awaitDurable(positions[payloads.length - 1]);
+        }
+        return positions;
+    }
+    
+    private static List<String> replayAll(Path file) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.replay(0, (record, position) -> records.add(string(record)));
+        }
+        return records;
+    }
+    
+    private static void flipLastByteBefore(Path file, long position) throws IOException {
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(position - 1);
+            int value = raw.read();
+            raw.seek(position - 1);
+            raw.write(value ^ 0xFF);
+        }
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static String string(ByteBuffer record) {
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}